@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop load test for AllocationHttpServer: a fixed number of clients each send allocation requests back to back
+// for a fixed duration, then p50/p90/p99/max latency and requests per second are reported.
+//
+// Arguments (all optional):
+//   url=http://localhost:8080     server to test; without it an in-process server is started on a free port
+//   concurrency=64 seconds=20 warmupSeconds=5
+//   stops=20 lineItems=100 strategy=weight batch=1   batch > 1 posts that many shipments to /allocate/batch
+class AllocationLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int concurrency = 64;
+        int seconds = 20;
+        int warmupSeconds = 5;
+        int stops = 20;
+        int lineItems = 100;
+        String strategy = "weight";
+        int batch = 1;
+        for(String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            switch(keyValue[0]) {
+                case "url" -> url = keyValue[1];
+                case "concurrency" -> concurrency = Integer.parseInt(keyValue[1]);
+                case "seconds" -> seconds = Integer.parseInt(keyValue[1]);
+                case "warmupSeconds" -> warmupSeconds = Integer.parseInt(keyValue[1]);
+                case "stops" -> stops = Integer.parseInt(keyValue[1]);
+                case "lineItems" -> lineItems = Integer.parseInt(keyValue[1]);
+                case "strategy" -> strategy = keyValue[1];
+                case "batch" -> batch = Integer.parseInt(keyValue[1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        AllocationHttpServer server = null;
+        if(url == null) {
+            AllocationHttpServer.enableNoDelay();
+            server = new AllocationHttpServer(new InetSocketAddress("localhost", 0), 64 << 20);
+            server.start();
+            url = "http://localhost:" + server.port();
+        }
+
+        SyntheticShipmentGenerator generator = new SyntheticShipmentGenerator(stops, lineItems, 10, 0.1);
+        Random random = new Random(42);
+        StringBuilder body = new StringBuilder(batch > 1 ? "[" : "");
+        for(int i = 0; i < batch; i++) {
+            if(i > 0) {
+                body.append(',');
+            }
+            ShipmentJson.writeShipmentInvoice(new ShipmentInvoice(generator.generate(i, random), 1234.34), body);
+        }
+        if(batch > 1) {
+            body.append(']');
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + (batch > 1 ? "/allocate/batch" : "/allocate") +
+                        "?strategy=" + strategy))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .header("Content-Type", "application/json")
+                .build();
+
+        try(ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient client = HttpClient.newBuilder().executor(clients).build();
+            System.out.printf("%s, %d clients, %d shipment(s) of %d stops and %d line items per request%n",
+                    request.uri(), concurrency, batch, stops, lineItems);
+            run(client, clients, request, concurrency, warmupSeconds);
+            Result result = run(client, clients, request, concurrency, seconds);
+            System.out.println(result);
+        } finally {
+            if(server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    record Result(long requests, long errors, long elapsedNanos, long[] sortedLatencyNanos) {
+
+        double percentileMillis(double percentile) {
+            if(sortedLatencyNanos.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sortedLatencyNanos.length) - 1;
+            return sortedLatencyNanos[Math.max(0, index)] / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, %.1f req/s, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    requests, errors, requests * 1_000_000_000.0 / elapsedNanos, percentileMillis(50),
+                    percentileMillis(90), percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    private static Result run(HttpClient client, ExecutorService clients, HttpRequest request, int concurrency,
+                              int seconds) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        AtomicLong errors = new AtomicLong();
+        List<Future<long[]>> workers = new ArrayList<>();
+        for(int i = 0; i < concurrency; i++) {
+            workers.add(clients.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                while(System.nanoTime() < deadline) {
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if(response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    if(count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - sent;
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+
+        long[] all = new long[0];
+        for(Future<long[]> worker : workers) {
+            long[] latencies = worker.get();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(all);
+        return new Result(all.length, errors.get(), elapsed, all);
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Properties;
+import java.util.Random;
+
+// Compiled rule sets against the allocators someone would otherwise write by hand for the same contract: plain weight,
+// and a fixed 70/30 weight/mileage blend.
+class AllocationRulesBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {10, 100, 1_000, 10_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(2_000, 2_000);
+        Properties properties = new Properties();
+        properties.setProperty("weight.mix", "weight");
+        properties.setProperty("blend.mix", "weight:0.7, mileage:0.3");
+        AllocationRules rules = AllocationRules.parse(properties);
+        CostAllocator compiledWeight = rules.forCustomer("weight");
+        CostAllocator compiledBlend = rules.forCustomer("blend");
+        CostAllocator handWrittenWeight = new WeightCostAllocator();
+        CostAllocator handWrittenBlend = new HandWrittenBlend();
+        OrderCostMap costs = new OrderCostMap();
+
+        for(int lineItemCount : LINE_ITEM_COUNTS) {
+            ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(50, lineItemCount,
+                    Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+            String label = lineItemCount + " line items";
+
+            System.out.println(runner.measure("hand-written weight " + label, () -> {
+                handWrittenWeight.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+            System.out.println(runner.measure("compiled weight     " + label, () -> {
+                compiledWeight.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+            System.out.println(runner.measure("hand-written blend  " + label, () -> {
+                handWrittenBlend.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+            System.out.println(runner.measure("compiled blend      " + label, () -> {
+                compiledBlend.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+        }
+    }
+
+    // What a 70% weight, 30% mileage contract allocator looks like written out directly.
+    private static final class HandWrittenBlend implements CostAllocator {
+        private final ProportionalCostAllocator weight = new WeightCostAllocator();
+        private final ProportionalCostAllocator mileage = new MileageCostAllocator();
+
+        @Override
+        public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+            OrderCostMap costsByOrderId = new OrderCostMap();
+            allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+            return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+        }
+
+        @Override
+        public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+            int lineItemCount = shipment.lineItemCount();
+            double[] weights = new double[lineItemCount];
+            double[] miles = new double[lineItemCount];
+            double totalWeight = weight.lineItemShares(shipment, weights);
+            double totalMiles = mileage.lineItemShares(shipment, miles);
+            costsByOrderId.reset();
+            for(int i = 0; i < lineItemCount; i++) {
+                costsByOrderId.add(shipment.lineItemOrderId(i), (weights[i] / totalWeight) * (0.7 * totalInvoicedAmount)
+                        + (miles[i] / totalMiles) * (0.3 * totalInvoicedAmount));
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Throughput, average time and allocation rate of WeightCostAllocator and MileageCostAllocator over a matrix of
+// synthetic shipments.
+//
+// Arguments (all optional):
+//   stops=3,100,500 lineItems=10,1000 orders=10 duplicates=0.0,0.5   parameter matrix, comma separated
+//   warmupMillis=1000 measurementMillis=2000                          time per benchmark
+//   --out results.csv                                                 write the results as CSV
+//   --baseline baseline/AllocatorBenchmark.csv                        compare ops/s against earlier results
+//
+// Checked in baseline results live in benchmarks/baseline/AllocatorBenchmark.csv. Regenerate them with --out when an
+// intentional performance change lands, on the same kind of machine the previous baseline was recorded on.
+class AllocatorBenchmark {
+
+    private static final String CSV_HEADER = "benchmark,stops,lineItems,orders,duplicates,opsPerSecond,nanosPerOp," +
+            "bytesPerOp,allocationMegabytesPerSecond,gcCount,gcMillis";
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> parameters = new HashMap<>(Map.of(
+                "stops", "3,100,500",
+                "lineItems", "10,1000,10000",
+                "orders", "10",
+                "duplicates", "0.0,0.5",
+                "warmupMillis", "1000",
+                "measurementMillis", "2000"));
+        Path out = null;
+        Path baseline = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--out")) {
+                out = Path.of(args[++i]);
+            } else if(args[i].equals("--baseline")) {
+                baseline = Path.of(args[++i]);
+            } else {
+                String[] keyValue = args[i].split("=", 2);
+                if(keyValue.length != 2 || !parameters.containsKey(keyValue[0])) {
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+                parameters.put(keyValue[0], keyValue[1]);
+            }
+        }
+
+        Map<String, CostAllocator> allocators = new LinkedHashMap<>();
+        allocators.put("weight", new WeightCostAllocator());
+        allocators.put("mileage", new MileageCostAllocator());
+
+        BenchmarkRunner runner = new BenchmarkRunner(Long.parseLong(parameters.get("warmupMillis")),
+                Long.parseLong(parameters.get("measurementMillis")));
+        Map<String, String[]> baselineRows = baseline == null ? Map.of() : readCsv(baseline);
+        List<String> rows = new ArrayList<>();
+
+        for(int stops : ints(parameters.get("stops"))) {
+            for(int lineItems : ints(parameters.get("lineItems"))) {
+                for(int orders : ints(parameters.get("orders"))) {
+                    for(double duplicates : doubles(parameters.get("duplicates"))) {
+                        SyntheticShipmentGenerator generator =
+                                new SyntheticShipmentGenerator(stops, lineItems, orders, duplicates);
+                        Shipment shipment = generator.generate(1, new Random(42));
+
+                        for(Map.Entry<String, CostAllocator> allocator : allocators.entrySet()) {
+                            CostAllocator costAllocator = allocator.getValue();
+                            BenchmarkRunner.Measurement measurement = runner.measure(allocator.getKey() + " " + generator,
+                                    () -> costAllocator.allocateCosts(shipment, 1234.34));
+
+                            String key = String.join(",", allocator.getKey(), Integer.toString(stops),
+                                    Integer.toString(lineItems), Integer.toString(orders), Double.toString(duplicates));
+                            rows.add(String.format("%s,%.1f,%.1f,%.1f,%.1f,%d,%d", key,
+                                    measurement.operationsPerSecond(), measurement.nanosPerOperation(),
+                                    measurement.bytesPerOperation(), measurement.allocationMegabytesPerSecond(),
+                                    measurement.gcCount(), measurement.gcMillis()));
+                            System.out.println(measurement + compareToBaseline(baselineRows.get(key), measurement));
+                        }
+                    }
+                }
+            }
+        }
+
+        if(out != null) {
+            try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+                writer.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") +
+                        ", " + Runtime.getRuntime().availableProcessors() + " cpus, " + parameters);
+                writer.println(CSV_HEADER);
+                rows.forEach(writer::println);
+            }
+        }
+    }
+
+    private static String compareToBaseline(String[] baselineRow, BenchmarkRunner.Measurement measurement) {
+        if(baselineRow == null) {
+            return "";
+        }
+        double baselineOpsPerSecond = Double.parseDouble(baselineRow[5]);
+        return String.format("   %+6.1f%% vs baseline", (measurement.operationsPerSecond() / baselineOpsPerSecond - 1) * 100);
+    }
+
+    // Rows keyed by the benchmark name and parameter columns.
+    private static Map<String, String[]> readCsv(Path path) throws IOException {
+        Map<String, String[]> rows = new HashMap<>();
+        for(String line : Files.readAllLines(path)) {
+            if(line.startsWith("#") || line.equals(CSV_HEADER) || line.isBlank()) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            rows.put(String.join(",", Arrays.copyOfRange(columns, 0, 5)), columns);
+        }
+        return rows;
+    }
+
+    private static int[] ints(String values) {
+        return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static double[] doubles(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+}
@@ -0,0 +1,90 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+// Minimal timing harness for the main()-based benchmarks in this folder. Each operation is run repeatedly for a fixed
+// warmup period (to let the JIT settle) and then for a fixed measurement period. Results are folded into a volatile
+// sink so the JIT can't eliminate the work being measured. Heap allocation is read from the HotSpot per-thread
+// allocation counter, so it only covers work done on the calling thread; GC counts and times are JVM wide.
+final class BenchmarkRunner {
+
+    record Measurement(String name, long operations, long elapsedNanos, long allocatedBytes, long gcCount,
+                       long gcMillis) {
+        double nanosPerOperation() {
+            return (double) elapsedNanos / operations;
+        }
+
+        double operationsPerSecond() {
+            return operations * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        double bytesPerOperation() {
+            return (double) allocatedBytes / operations;
+        }
+
+        double allocationMegabytesPerSecond() {
+            return allocatedBytes * 1_000_000_000.0 / elapsedNanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-60s %14.1f ns/op %14.1f ops/s %12.1f B/op %10.1f MB/s %5d gc %6d ms", name,
+                    nanosPerOperation(), operationsPerSecond(), bytesPerOperation(), allocationMegabytesPerSecond(),
+                    gcCount, gcMillis);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile int sink;
+
+    private final long warmupNanos;
+    private final long measurementNanos;
+
+    BenchmarkRunner(long warmupMillis, long measurementMillis) {
+        this.warmupNanos = warmupMillis * 1_000_000L;
+        this.measurementNanos = measurementMillis * 1_000_000L;
+    }
+
+    Measurement measure(String name, Supplier<?> operation) {
+        runFor(warmupNanos, operation);
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long operations = runFor(measurementNanos, operation);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new Measurement(name, operations, elapsed, allocated, gcCount() - gcCountBefore,
+                gcMillis() - gcMillisBefore);
+    }
+
+    private static long runFor(long nanos, Supplier<?> operation) {
+        long deadline = System.nanoTime() + nanos;
+        long operations = 0;
+        int hash = 0;
+        do {
+            hash ^= System.identityHashCode(operation.get());
+            operations++;
+        } while(System.nanoTime() < deadline);
+        sink ^= hash;
+        return operations;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,40 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+// Throughput of the double allocators, the CentsCostAllocator, and the double allocators followed by the BigDecimal
+// re-rounding our downstream jobs do today.
+class CentsCostAllocatorBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {10, 1_000, 10_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        OrderCostMap costs = new OrderCostMap();
+
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            CostAllocator doubles = strategy.costAllocator();
+            CentsCostAllocator cents = new CentsCostAllocator(strategy);
+            for(int lineItemCount : LINE_ITEM_COUNTS) {
+                ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(50, lineItemCount,
+                        Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+                String label = strategy.name().toLowerCase() + " " + lineItemCount + " line items";
+
+                System.out.println(runner.measure("double            " + label, () -> {
+                    doubles.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("double+BigDecimal " + label, () -> {
+                    doubles.allocateCosts(shipment, 1234.34, costs);
+                    BigDecimal total = BigDecimal.ZERO;
+                    for(int i = 0; i < costs.size(); i++) {
+                        total = total.add(BigDecimal.valueOf(costs.costAt(i)).setScale(2, RoundingMode.HALF_EVEN));
+                    }
+                    return total;
+                }));
+                System.out.println(runner.measure("cents             " + label,
+                        () -> cents.allocateCents(shipment, 123434)));
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Heap allocation and time per allocateCosts call for the original HashMap.merge result, the OrderCostMap result, and
+// an OrderCostMap reused across calls.
+class CostAllocationResultBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {10, 1_000, 10_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        CostAllocator boxed = new BoxedWeightCostAllocator();
+        CostAllocator primitive = new WeightCostAllocator();
+        OrderCostMap reused = new OrderCostMap();
+
+        for(int lineItemCount : LINE_ITEM_COUNTS) {
+            Shipment shipment = new SyntheticShipmentGenerator(20, lineItemCount, Math.max(1, lineItemCount / 4), 0.0)
+                    .generate(1, new Random(42));
+            String label = lineItemCount + " line items";
+            System.out.println(runner.measure("HashMap<Long, Double> " + label,
+                    () -> boxed.allocateCosts(shipment, 1234.34)));
+            System.out.println(runner.measure("OrderCostMap          " + label,
+                    () -> primitive.allocateCosts(shipment, 1234.34)));
+            System.out.println(runner.measure("OrderCostMap reused   " + label, () -> {
+                primitive.allocateCosts(shipment, 1234.34, reused);
+                return reused;
+            }));
+        }
+    }
+
+    // WeightCostAllocator as it was before OrderCostMap, kept here as the baseline.
+    static class BoxedWeightCostAllocator implements CostAllocator {
+
+        @Override
+        public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+            double totalWeight = shipment.shipmentLineItems().stream().mapToDouble(ShipmentLineItem::weight).sum();
+
+            Map<Long, Double> costsByOrderId = new HashMap<>();
+            for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
+                double cost = (lineItem.weight() / totalWeight) * totalInvoicedAmount;
+                costsByOrderId.merge(lineItem.orderId(), cost, Double::sum);
+            }
+
+            return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+        }
+    }
+}
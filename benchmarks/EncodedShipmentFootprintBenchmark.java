@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Retained heap of a million synthetic shipments held as Shipment records against the same shipments dictionary-encoded
+// as EncodedShipments, plus the time for one weight allocation pass over each. Every stop address and item description
+// is a fresh String, as it would be coming out of a parser, but with only a few dozen distinct values across the set.
+// Run with enough heap for the records, e.g. -Xmx3g.
+class EncodedShipmentFootprintBenchmark {
+
+    private static final SyntheticShipmentGenerator GENERATOR = new SyntheticShipmentGenerator(5, 10, 3, 0.1);
+
+    public static void main(String[] args) {
+        int shipmentCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.println(shipmentCount + " shipments, " + GENERATOR);
+
+        long baseline = usedHeap();
+        List<ShipmentView> records = new ArrayList<>(shipmentCount);
+        Random random = new Random(42);
+        for(int i = 0; i < shipmentCount; i++) {
+            records.add(ShipmentView.of(GENERATOR.generate(i, random)));
+        }
+        report("records", usedHeap() - baseline, shipmentCount, allocationPass(records));
+        records = null;
+
+        baseline = usedHeap();
+        SymbolTable symbols = new SymbolTable();
+        List<ShipmentView> encoded = new ArrayList<>(shipmentCount);
+        random = new Random(42);
+        for(int i = 0; i < shipmentCount; i++) {
+            encoded.add(EncodedShipment.encode(GENERATOR.generate(i, random), symbols));
+        }
+        report("encoded", usedHeap() - baseline, shipmentCount, allocationPass(encoded));
+        System.out.println("distinct symbols: " + symbols.size());
+    }
+
+    private static long allocationPass(List<ShipmentView> shipments) {
+        WeightCostAllocator allocator = new WeightCostAllocator();
+        OrderCostMap costs = new OrderCostMap();
+        long start = System.nanoTime();
+        for(ShipmentView shipment : shipments) {
+            allocator.allocateCosts(shipment, 1234.34, costs);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String label, long heapBytes, int shipmentCount, long passNanos) {
+        System.out.printf("%-8s %,14d bytes retained  %8.1f B/shipment  weight pass %7.1f ms%n", label, heapBytes,
+                (double) heapBytes / shipmentCount, passNanos / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
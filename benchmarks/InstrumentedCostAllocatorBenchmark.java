@@ -0,0 +1,37 @@
+import java.util.Random;
+
+// Overhead of InstrumentedCostAllocator on the reusable-map hot path: the bare allocator, the decorator with metrics
+// disabled, and with metrics enabled.
+class InstrumentedCostAllocatorBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {10, 100, 1_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        OrderCostMap costs = new OrderCostMap();
+
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            CostAllocator bare = strategy.costAllocator();
+            CostAllocator disabled = new InstrumentedCostAllocator(strategy, new AllocationMetrics(false));
+            CostAllocator enabled = new InstrumentedCostAllocator(strategy, new AllocationMetrics(true));
+            for(int lineItemCount : LINE_ITEM_COUNTS) {
+                ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(20, lineItemCount,
+                        Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+                String label = strategy.name().toLowerCase() + " " + lineItemCount + " line items";
+
+                System.out.println(runner.measure("bare             " + label, () -> {
+                    bare.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("metrics disabled " + label, () -> {
+                    disabled.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("metrics enabled  " + label, () -> {
+                    enabled.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Per-leg loads by the sweep in LegUtilizationAnalyzer against testing every line item on every leg, then a batch of
+// shipments analyzed on one thread against analyzeAll on the common pool.
+class LegUtilizationAnalyzerBenchmark {
+
+    private static final int[][] SHAPES = {{10, 100}, {50, 1_000}, {200, 10_000}};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+
+        for(int[] shape : SHAPES) {
+            int stopCount = shape[0];
+            int lineItemCount = shape[1];
+            ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(stopCount, lineItemCount,
+                    Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+            String label = stopCount + " stops x " + lineItemCount + " line items";
+
+            System.out.println(runner.measure("per-leg scan " + label, () -> perLegScan(shipment)));
+            System.out.println(runner.measure("sweep        " + label, () -> LegUtilizationAnalyzer.legLoads(shipment)));
+        }
+
+        Random random = new Random(42);
+        SyntheticShipmentGenerator generator = new SyntheticShipmentGenerator(20, 200, 20, 0.1);
+        List<ShipmentView> batch = new ArrayList<>();
+        for(int i = 0; i < 2_000; i++) {
+            batch.add(ShipmentView.of(generator.generate(i, random)));
+        }
+        LegUtilizationAnalyzer analyzer = new LegUtilizationAnalyzer();
+        System.out.println(runner.measure("batch of 2000, one thread", () -> {
+            List<LegUtilization> results = new ArrayList<>(batch.size());
+            for(ShipmentView shipment : batch) {
+                results.add(analyzer.analyze(shipment));
+            }
+            return results;
+        }));
+        System.out.println(runner.measure("batch of 2000, analyzeAll", () -> analyzer.analyzeAll(batch)));
+    }
+
+    // Weight and qty on board per leg, testing each line item against each leg: O(stops x line items).
+    private static double[] perLegScan(ShipmentView shipment) {
+        int[] sequenceNumbers = new int[shipment.stopCount()];
+        for(int i = 0; i < sequenceNumbers.length; i++) {
+            sequenceNumbers[i] = shipment.stopSequenceNumber(i);
+        }
+        Arrays.sort(sequenceNumbers);
+        double[] loads = new double[2 * (sequenceNumbers.length - 1)];
+        for(int leg = 0; leg < sequenceNumbers.length - 1; leg++) {
+            int to = sequenceNumbers[leg + 1];
+            for(int i = 0; i < shipment.lineItemCount(); i++) {
+                if(shipment.lineItemPickupStopSequenceNumber(i) < to && to <= shipment.lineItemDropOffStopSequenceNumber(i)) {
+                    loads[2 * leg] += shipment.lineItemWeight(i);
+                    loads[2 * leg + 1] += shipment.lineItemQty(i);
+                }
+            }
+        }
+        return loads;
+    }
+}
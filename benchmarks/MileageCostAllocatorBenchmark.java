@@ -0,0 +1,60 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Compares MileageCostAllocator (prefix-sum MileageIndex) against the original stream-per-line-item implementation as
+// stop and line item counts grow.
+class MileageCostAllocatorBenchmark {
+
+    private static final int[][] SIZES = {
+            // {stops, line items}
+            {3, 3},
+            {10, 100},
+            {100, 1_000},
+            {300, 5_000},
+            {500, 10_000},
+    };
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        CostAllocator indexed = new MileageCostAllocator();
+        CostAllocator streaming = new StreamMileageCostAllocator();
+
+        for(int[] size : SIZES) {
+            Shipment shipment = new SyntheticShipmentGenerator(size[0], size[1], Math.max(1, size[1] / 4), 0.0)
+                    .generate(1, new Random(42));
+            String label = size[0] + " stops, " + size[1] + " line items";
+            System.out.println(runner.measure("stream  " + label, () -> streaming.allocateCosts(shipment, 1234.34)));
+            System.out.println(runner.measure("indexed " + label, () -> indexed.allocateCosts(shipment, 1234.34)));
+        }
+    }
+
+    // The original O(stops x line items) implementation of MileageCostAllocator, kept here as the baseline.
+    static class StreamMileageCostAllocator implements CostAllocator {
+
+        @Override
+        public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+            double totalMiles = 0.0;
+            for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
+                totalMiles += shipment.shipmentStops().stream()
+                        .filter(stop -> stop.sequenceNumber() > lineItem.pickupStopSequenceNumber() &&
+                                stop.sequenceNumber() <= lineItem.dropOffStopSequenceNumber())
+                        .mapToDouble(ShipmentStop::milesFromPreviousStop)
+                        .sum();
+            }
+
+            Map<Long, Double> costsByOrderId = new HashMap<>();
+            for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
+                double shipmentMileage = shipment.shipmentStops().stream()
+                        .filter(stop -> stop.sequenceNumber() > lineItem.pickupStopSequenceNumber() &&
+                                stop.sequenceNumber() <= lineItem.dropOffStopSequenceNumber())
+                        .mapToDouble(ShipmentStop::milesFromPreviousStop)
+                        .sum();
+                double cost = (shipmentMileage / totalMiles) * totalInvoicedAmount;
+                costsByOrderId.merge(lineItem.orderId(), cost, Double::sum);
+            }
+
+            return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+        }
+    }
+}
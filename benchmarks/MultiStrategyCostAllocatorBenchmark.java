@@ -0,0 +1,35 @@
+import java.util.Random;
+
+// Weight, mileage and ton-mile allocations of the same shipment: the three allocators one after another against the
+// fused MultiStrategyCostAllocator, both writing into reused maps.
+class MultiStrategyCostAllocatorBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {10, 100, 1_000, 10_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        ProportionalCostAllocator weight = AllocationStrategy.WEIGHT.costAllocator();
+        ProportionalCostAllocator mileage = AllocationStrategy.MILEAGE.costAllocator();
+        ProportionalCostAllocator tonMile = AllocationStrategy.TON_MILE.costAllocator();
+        MultiStrategyCostAllocator multi = new MultiStrategyCostAllocator(AllocationStrategy.WEIGHT,
+                AllocationStrategy.MILEAGE, AllocationStrategy.TON_MILE);
+        OrderCostMap[] costs = {new OrderCostMap(), new OrderCostMap(), new OrderCostMap()};
+
+        for(int lineItemCount : LINE_ITEM_COUNTS) {
+            ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(50, lineItemCount,
+                    Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+            String label = lineItemCount + " line items";
+
+            System.out.println(runner.measure("separate " + label, () -> {
+                weight.allocateCosts(shipment, 1234.34, costs[0]);
+                mileage.allocateCosts(shipment, 1234.34, costs[1]);
+                tonMile.allocateCosts(shipment, 1234.34, costs[2]);
+                return costs;
+            }));
+            System.out.println(runner.measure("fused    " + label, () -> {
+                multi.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Contention benchmark for OrderCostLedger: 1, 2, 4, ... threads up to twice the core count record pre-computed
+// shipment results as fast as they can, against a synchronized HashMap and a ConcurrentHashMap of DoubleAdders.
+// Shipments per second should grow close to linearly with the thread count up to the core count.
+//
+// Arguments (all optional): seconds=3 orders=100000 ordersPerShipment=10 snapshotsPerSecond=10
+class OrderCostLedgerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 3;
+        int orders = 100_000;
+        int ordersPerShipment = 10;
+        int snapshotsPerSecond = 10;
+        for(String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            switch(keyValue[0]) {
+                case "seconds" -> seconds = Integer.parseInt(keyValue[1]);
+                case "orders" -> orders = Integer.parseInt(keyValue[1]);
+                case "ordersPerShipment" -> ordersPerShipment = Integer.parseInt(keyValue[1]);
+                case "snapshotsPerSecond" -> snapshotsPerSecond = Integer.parseInt(keyValue[1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        Random random = new Random(42);
+        OrderCostMap[] shipments = new OrderCostMap[4096];
+        for(int i = 0; i < shipments.length; i++) {
+            shipments[i] = new OrderCostMap();
+            for(int j = 0; j < ordersPerShipment; j++) {
+                shipments[i].add(random.nextInt(orders), random.nextDouble() * 100);
+            }
+        }
+
+        long snapshotIntervalMillis = snapshotsPerSecond > 0 ? 1_000 / snapshotsPerSecond : 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores, %d orders, %d orders per shipment, ledger snapshots %d/s%n", cores, orders,
+                ordersPerShipment, snapshotsPerSecond);
+        for(int threads = 1; threads <= cores * 2; threads *= 2) {
+            Map<Long, Double> synchronizedMap = Collections.synchronizedMap(new HashMap<>());
+            report("synchronized HashMap", threads, run(threads, seconds, shipments, shipment ->
+                    shipment.forEachOrder((orderId, cost) -> synchronizedMap.merge(orderId, cost, Double::sum)), null));
+
+            ConcurrentHashMap<Long, DoubleAdder> adders = new ConcurrentHashMap<>();
+            report("ConcurrentHashMap+DoubleAdder", threads, run(threads, seconds, shipments, shipment ->
+                    shipment.forEachOrder((orderId, cost) ->
+                            adders.computeIfAbsent(orderId, id -> new DoubleAdder()).add(cost)), null));
+
+            OrderCostLedger ledger = new OrderCostLedger();
+            report("OrderCostLedger", threads, run(threads, seconds, shipments, ledger::record,
+                    snapshotIntervalMillis > 0 ? () -> {
+                        ledger.snapshot();
+                        sleep(snapshotIntervalMillis);
+                    } : null));
+        }
+    }
+
+    private static void report(String name, int threads, long shipmentsPerSecond) {
+        System.out.printf("%-30s %3d threads %,14d shipments/s%n", name, threads, shipmentsPerSecond);
+    }
+
+    private static long run(int threads, int seconds, OrderCostMap[] shipments, Consumer<OrderCostMap> record,
+                            Runnable background) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder recorded = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int offset = t * 997;
+            workers.add(Thread.ofPlatform().start(() -> {
+                await(start);
+                long count = 0;
+                for(int i = offset; System.nanoTime() < deadline; i++) {
+                    record.accept(shipments[i & (shipments.length - 1)]);
+                    count++;
+                }
+                recorded.add(count);
+            }));
+        }
+        Thread backgroundThread = background == null ? null : Thread.ofPlatform().daemon().start(() -> {
+            await(start);
+            while(System.nanoTime() < deadline) {
+                background.run();
+            }
+        });
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker : workers) {
+            worker.join();
+        }
+        if(backgroundThread != null) {
+            backgroundThread.join();
+        }
+        return recorded.sum() * 1_000_000_000L / (System.nanoTime() - begin);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
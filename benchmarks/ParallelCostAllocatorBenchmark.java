@@ -0,0 +1,40 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// One mega-shipment allocated by the plain allocators against ParallelCostAllocator, both forced onto the calling thread
+// and forked across the common pool (whose parallelism is printed, since the speedup depends on it).
+class ParallelCostAllocatorBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {100_000, 500_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(3_000, 3_000);
+        System.out.println("common pool parallelism " + ForkJoinPool.commonPool().getParallelism());
+        OrderCostMap costs = new OrderCostMap();
+
+        for(int lineItemCount : LINE_ITEM_COUNTS) {
+            ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(50, lineItemCount,
+                    lineItemCount / 20, 0.1).generate(1, new Random(42)));
+            for(AllocationStrategy strategy : new AllocationStrategy[] {AllocationStrategy.WEIGHT, AllocationStrategy.MILEAGE}) {
+                CostAllocator plain = strategy.costAllocator();
+                CostAllocator chunked = new ParallelCostAllocator(strategy.costAllocator(), ForkJoinPool.commonPool(),
+                        Integer.MAX_VALUE);
+                CostAllocator forked = new ParallelCostAllocator(strategy.costAllocator(), ForkJoinPool.commonPool(), 0);
+                String label = strategy.name().toLowerCase() + " " + lineItemCount + " line items";
+
+                System.out.println(runner.measure("plain           " + label, () -> {
+                    plain.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("parallel, 1 thr " + label, () -> {
+                    chunked.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("parallel, pool  " + label, () -> {
+                    forked.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+            }
+        }
+    }
+}
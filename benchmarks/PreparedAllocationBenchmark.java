@@ -0,0 +1,39 @@
+import java.util.Random;
+
+// An invoice adjustment on a large shipment: a fresh allocateCosts() against rescaling a PreparedAllocation, and a line
+// item added and removed again against re-allocating the changed shipment.
+class PreparedAllocationBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {100, 10_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(1_000, 2_000);
+        OrderCostMap costs = new OrderCostMap();
+
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            ProportionalCostAllocator costAllocator = strategy.costAllocator();
+            for(int lineItemCount : LINE_ITEM_COUNTS) {
+                Shipment shipment = new SyntheticShipmentGenerator(50, lineItemCount,
+                        Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42));
+                ShipmentView view = ShipmentView.of(shipment);
+                PreparedAllocation prepared = PreparedAllocation.prepare(costAllocator, view);
+                ShipmentLineItem extra = shipment.shipmentLineItems().get(0);
+                String label = strategy.name().toLowerCase() + " " + lineItemCount + " line items";
+
+                System.out.println(runner.measure("allocateCosts        " + label, () -> {
+                    costAllocator.allocateCosts(view, 1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("prepared rescale     " + label, () -> {
+                    prepared.allocateCosts(1234.34, costs);
+                    return costs;
+                }));
+                System.out.println(runner.measure("prepared add+remove  " + label, () -> {
+                    prepared.addLineItem(extra);
+                    prepared.removeLineItem(extra);
+                    return prepared.totalShare();
+                }));
+            }
+        }
+    }
+}
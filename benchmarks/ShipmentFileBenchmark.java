@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Time for one allocation pass over a shipment set, parsed from NDJSON text versus read from a memory-mapped
+// ShipmentFile.
+class ShipmentFileBenchmark {
+
+    private static final int SHIPMENTS = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        SyntheticShipmentGenerator generator = new SyntheticShipmentGenerator(20, 50, 10, 0.1);
+        Random random = new Random(42);
+        Path path = Files.createTempFile("shipments", ".bin");
+        StringBuilder ndjson = new StringBuilder();
+        try(ShipmentFileWriter writer = new ShipmentFileWriter(path)) {
+            for(int i = 0; i < SHIPMENTS; i++) {
+                Shipment shipment = generator.generate(i, random);
+                writer.write(shipment);
+                ShipmentJson.writeShipmentInvoice(new ShipmentInvoice(shipment, 1234.34), ndjson);
+                ndjson.append('\n');
+            }
+        }
+        String[] lines = ndjson.toString().split("\n");
+
+        BenchmarkRunner runner = new BenchmarkRunner(2_000, 5_000);
+        CostAllocator costAllocator = new MileageCostAllocator();
+        OrderCostMap costs = new OrderCostMap();
+        try(MappedShipmentFile file = MappedShipmentFile.open(path)) {
+            System.out.println(runner.measure("NDJSON parse + allocate, " + SHIPMENTS + " shipments", () -> {
+                for(String line : lines) {
+                    ShipmentInvoice shipmentInvoice = ShipmentJson.parseShipmentInvoice(line);
+                    costAllocator.allocateCosts(shipmentInvoice.shipment(), shipmentInvoice.totalInvoicedAmount(), costs);
+                }
+                return costs;
+            }));
+            System.out.println(runner.measure("Mapped file allocate, " + SHIPMENTS + " shipments", () -> {
+                for(int i = 0; i < file.shipmentCount(); i++) {
+                    costAllocator.allocateCosts(file.shipmentAt(i), 1234.34, costs);
+                }
+                return costs;
+            }));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Sustained-load regression run: a fixed number of threads allocate a WorkloadGenerator population back to back for a
+// fixed duration, once per strategy, and the throughput, latency percentiles, allocation rate and GC time of each run
+// are reported. Where AllocatorBenchmark measures one shipment shape for a couple of seconds, this runs long enough for
+// the heap to reach a steady state over a realistic mix of shapes, including rejected shipments.
+//
+// Arguments (all optional):
+//   strategies=weight,mileage,ton_mile threads=<cpus> seconds=30 warmupSeconds=5
+//   shipments=10000 seed=42 invalidRate=0.01          the population; the same seed always gives the same shipments
+//   maxRegression=0.10                                fail when ops/s is more than this fraction below the baseline
+//   --out results.csv                                 write the results as CSV
+//   --baseline baseline/SustainedLoadHarness.csv      compare against earlier results, and exit with status 1 when a
+//                                                     run has regressed by more than maxRegression or has no row
+//                                                     to compare against
+//
+// Checked in baseline results live in benchmarks/baseline/SustainedLoadHarness.csv, recorded with
+//   threads=1 --out baseline/SustainedLoadHarness.csv
+// Only rows with the same strategy, threads, shipments, seed and invalidRate are compared, and a run without a matching
+// row fails rather than passing unchecked, so pass the same threads= when comparing, and regenerate the baseline with
+// --out after changing any of them, or after an intentional performance change, on the same kind of machine the
+// previous one was recorded on.
+class SustainedLoadHarness {
+
+    private static final String CSV_HEADER = "strategy,threads,shipments,seed,invalidRate,opsPerSecond,rejected," +
+            "meanNanos,p50Nanos,p90Nanos,p99Nanos,p999Nanos,maxNanos,bytesPerOp,allocationMegabytesPerSecond," +
+            "gcCount,gcMillis";
+    private static final int KEY_COLUMNS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parameters = new LinkedHashMap<>(Map.of(
+                "strategies", "weight,mileage,ton_mile",
+                "threads", Integer.toString(Runtime.getRuntime().availableProcessors()),
+                "seconds", "30",
+                "warmupSeconds", "5",
+                "shipments", "10000",
+                "seed", "42",
+                "invalidRate", "0.01",
+                "maxRegression", "0.10"));
+        Path out = null;
+        Path baseline = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--out")) {
+                out = Path.of(args[++i]);
+            } else if(args[i].equals("--baseline")) {
+                baseline = Path.of(args[++i]);
+            } else {
+                String[] keyValue = args[i].split("=", 2);
+                if(keyValue.length != 2 || !parameters.containsKey(keyValue[0])) {
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+                parameters.put(keyValue[0], keyValue[1]);
+            }
+        }
+
+        int threads = Integer.parseInt(parameters.get("threads"));
+        int shipments = Integer.parseInt(parameters.get("shipments"));
+        long seed = Long.parseLong(parameters.get("seed"));
+        double invalidRate = Double.parseDouble(parameters.get("invalidRate"));
+        double maxRegression = Double.parseDouble(parameters.get("maxRegression"));
+        if(threads < 1 || shipments < 1) {
+            throw new IllegalArgumentException("Need at least one thread and one shipment");
+        }
+
+        WorkloadGenerator generator = WorkloadGenerator.DEFAULT.withInvalidRate(invalidRate);
+        List<ShipmentInvoice> population = generator.population(shipments, seed);
+        System.out.printf("%d shipments (%s), seed %d, %d threads%n", shipments, generator, seed, threads);
+
+        Map<String, String[]> baselineRows = baseline == null ? Map.of() : readCsv(baseline);
+        List<String> rows = new ArrayList<>();
+        List<String> regressions = new ArrayList<>();
+        for(String strategy : parameters.get("strategies").split(",")) {
+            CostAllocator allocator = AllocationStrategy.fromName(strategy).costAllocator();
+            run(allocator, population, threads, Long.parseLong(parameters.get("warmupSeconds")));
+            Result result = run(allocator, population, threads, Long.parseLong(parameters.get("seconds")));
+
+            String key = String.join(",", strategy, Integer.toString(threads), Integer.toString(shipments),
+                    Long.toString(seed), Double.toString(invalidRate));
+            LatencyHistogram.Snapshot latency = result.latency();
+            rows.add(String.format(Locale.ROOT, "%s,%.1f,%d,%.1f,%d,%d,%d,%d,%d,%.1f,%.1f,%d,%d", key,
+                    result.operationsPerSecond(), result.rejected(), latency.meanNanos(), latency.p50Nanos(),
+                    latency.p90Nanos(), latency.p99Nanos(), latency.p999Nanos(), latency.maxNanos(),
+                    result.bytesPerOperation(), result.allocationMegabytesPerSecond(), result.gcCount(),
+                    result.gcMillis()));
+
+            String comparison = "";
+            String[] baselineRow = baselineRows.get(key);
+            if(baseline != null && baselineRow == null) {
+                comparison = "   no baseline";
+                regressions.add(strategy + ": no row in " + baseline + " for strategy,threads,shipments,seed," +
+                        "invalidRate = " + key);
+            } else if(baselineRow != null) {
+                double change = result.operationsPerSecond() / Double.parseDouble(baselineRow[KEY_COLUMNS]) - 1;
+                comparison = String.format(Locale.ROOT, "   %+6.1f%% vs baseline", change * 100);
+                if(change < -maxRegression) {
+                    regressions.add(String.format(Locale.ROOT, "%s: %.1f ops/s, %.1f%% below the baseline's %s",
+                            strategy, result.operationsPerSecond(), -change * 100, baselineRow[KEY_COLUMNS]));
+                }
+            }
+            System.out.println(String.format("%-10s ", strategy) + result + comparison);
+        }
+
+        if(out != null) {
+            try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+                writer.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") +
+                        ", " + Runtime.getRuntime().availableProcessors() + " cpus, " + parameters);
+                writer.println(CSV_HEADER);
+                rows.forEach(writer::println);
+            }
+        }
+        if(!regressions.isEmpty()) {
+            regressions.forEach(regression -> System.out.println("FAILED " + regression));
+            System.exit(1);
+        }
+    }
+
+    record Result(long operations, long rejected, long elapsedNanos, LatencyHistogram.Snapshot latency,
+                  long allocatedBytes, long gcCount, long gcMillis) {
+
+        double operationsPerSecond() {
+            return operations * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        double bytesPerOperation() {
+            return operations == 0 ? 0.0 : (double) allocatedBytes / operations;
+        }
+
+        double allocationMegabytesPerSecond() {
+            return allocatedBytes * 1_000_000_000.0 / elapsedNanos / (1 << 20);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%12.1f ops/s %8d rejected   p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %9.1f us" +
+                            " %10.1f B/op %8.1f MB/s %5d gc %6d ms", operationsPerSecond(), rejected,
+                    latency.p50Nanos() / 1_000.0, latency.p99Nanos() / 1_000.0, latency.p999Nanos() / 1_000.0,
+                    latency.maxNanos() / 1_000.0, bytesPerOperation(), allocationMegabytesPerSecond(), gcCount,
+                    gcMillis);
+        }
+    }
+
+    // Each thread walks the population from its own starting point, reusing one OrderCostMap, until the deadline.
+    private static Result run(CostAllocator allocator, List<ShipmentInvoice> population, int threads, long seconds)
+            throws Exception {
+        LatencyHistogram latency = new LatencyHistogram();
+        long gcCountBefore = BenchmarkRunner.gcCount();
+        long gcMillisBefore = BenchmarkRunner.gcMillis();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+
+        long[] totals = new long[3];  // Operations, rejected, allocated bytes.
+        try(ExecutorService workers = Executors.newFixedThreadPool(threads)) {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                int first = (int) ((long) t * population.size() / threads);
+                futures.add(workers.submit(() -> {
+                    long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                    OrderCostMap costsByOrderId = new OrderCostMap();
+                    long operations = 0;
+                    long rejected = 0;
+                    int next = first;
+                    long now = System.nanoTime();
+                    while(now < deadline) {
+                        ShipmentInvoice shipmentInvoice = population.get(next);
+                        try {
+                            allocator.allocateCosts(shipmentInvoice.shipment(), shipmentInvoice.totalInvoicedAmount(),
+                                    costsByOrderId);
+                        } catch (IllegalArgumentException e) {
+                            rejected++;
+                        }
+                        long finished = System.nanoTime();
+                        latency.record(finished - now);
+                        operations++;
+                        now = finished;
+                        if(++next == population.size()) {
+                            next = 0;
+                        }
+                    }
+                    return new long[] {operations, rejected,
+                            THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore};
+                }));
+            }
+            for(Future<long[]> future : futures) {
+                long[] counts = future.get();
+                for(int i = 0; i < totals.length; i++) {
+                    totals[i] += counts[i];
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(totals[0], totals[1], elapsed, latency.snapshot(), totals[2],
+                BenchmarkRunner.gcCount() - gcCountBefore, BenchmarkRunner.gcMillis() - gcMillisBefore);
+    }
+
+    // Rows keyed by the strategy and workload columns.
+    private static Map<String, String[]> readCsv(Path path) throws IOException {
+        Map<String, String[]> rows = new HashMap<>();
+        for(String line : Files.readAllLines(path)) {
+            if(line.startsWith("#") || line.equals(CSV_HEADER) || line.isBlank()) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            rows.put(String.join(",", Arrays.copyOfRange(columns, 0, KEY_COLUMNS)), columns);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Builds valid synthetic shipments for benchmarks. Stops are numbered 1..stopCount and shuffled, so consumers have to
+// cope with out-of-order stops like MileageCostAllocatorTest.testStopsOutOfOrder. Line items are spread across
+// ordersPerShipment orders, and duplicateOrderRatio is the fraction of line items that repeat the route and weight of an
+// earlier line item on the same order (like "bears" and "ohmy" in the testDuplicates cases).
+record SyntheticShipmentGenerator(int stopCount, int lineItemCount, int ordersPerShipment, double duplicateOrderRatio) {
+
+    SyntheticShipmentGenerator {
+        if(stopCount < 2) {
+            throw new IllegalArgumentException("Synthetic shipments need at least two stops");
+        }
+        if(lineItemCount < 1 || ordersPerShipment < 1) {
+            throw new IllegalArgumentException("Synthetic shipments need at least one line item and one order");
+        }
+        if(duplicateOrderRatio < 0.0 || duplicateOrderRatio > 1.0) {
+            throw new IllegalArgumentException("Duplicate order ratio must be between 0 and 1");
+        }
+    }
+
+    Shipment generate(long shipmentId, Random random) {
+        List<ShipmentStop> stops = new ArrayList<>(stopCount);
+        stops.add(new ShipmentStop(1, "Stop 1", 0));
+        for(int sequenceNumber = 2; sequenceNumber <= stopCount; sequenceNumber++) {
+            stops.add(new ShipmentStop(sequenceNumber, "Stop " + sequenceNumber, 1 + random.nextInt(200)));
+        }
+        Collections.shuffle(stops, random);
+
+        List<ShipmentLineItem> lineItems = new ArrayList<>(lineItemCount);
+        for(int i = 0; i < lineItemCount; i++) {
+            if(i > 0 && random.nextDouble() < duplicateOrderRatio) {
+                ShipmentLineItem original = lineItems.get(random.nextInt(i));
+                lineItems.add(new ShipmentLineItem(original.orderId(), "Item " + i, original.qty(), original.weight(),
+                        original.pickupStopSequenceNumber(), original.dropOffStopSequenceNumber()));
+                continue;
+            }
+
+            int pickup = 1 + random.nextInt(stopCount - 1);
+            int dropOff = pickup + 1 + random.nextInt(stopCount - pickup);
+            long orderId = 1 + random.nextInt(ordersPerShipment);
+            lineItems.add(new ShipmentLineItem(orderId, "Item " + i, 1 + random.nextInt(10), 1 + random.nextInt(500),
+                    pickup, dropOff));
+        }
+        return new Shipment(shipmentId, stops, lineItems);
+    }
+
+    @Override
+    public String toString() {
+        return "stops=" + stopCount + " lineItems=" + lineItemCount + " orders=" + ordersPerShipment +
+                " duplicates=" + duplicateOrderRatio;
+    }
+}
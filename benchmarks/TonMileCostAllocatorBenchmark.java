@@ -0,0 +1,60 @@
+import java.util.Random;
+
+// Scalar against Vector API ton-mile kernels: the kernels alone on primitive arrays, and the whole allocation. Run with
+// --add-modules jdk.incubator.vector, otherwise only the scalar kernel is measured. The Vector API is only fast once
+// C2 has compiled it into SIMD instructions, which takes longer than for plain loops, hence the long warmup.
+class TonMileCostAllocatorBenchmark {
+
+    private static final int[] LINE_ITEM_COUNTS = {100, 10_000, 1_000_000};
+
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner(5_000, 2_000);
+        TonMileCostAllocator.TonMileKernel vectorKernel = TonMileCostAllocator.VECTOR_KERNEL;
+        if(vectorKernel == null) {
+            System.out.println("jdk.incubator.vector is not available, measuring the scalar kernel only");
+        }
+        OrderCostMap costs = new OrderCostMap();
+
+        for(int lineItemCount : LINE_ITEM_COUNTS) {
+            Random random = new Random(42);
+            double[] weights = new double[lineItemCount];
+            double[] miles = new double[lineItemCount];
+            for(int i = 0; i < lineItemCount; i++) {
+                weights[i] = 1 + random.nextDouble() * 1000;
+                miles[i] = 1 + random.nextDouble() * 3000;
+            }
+            double[] shares = new double[lineItemCount];
+            double[] lineItemCosts = new double[lineItemCount];
+            String label = lineItemCount + " line items";
+
+            System.out.println(runner.measure("kernel scalar     " + label, () -> kernel(
+                    TonMileCostAllocator.SCALAR_KERNEL, weights, miles, shares, lineItemCosts)));
+            if(vectorKernel != null) {
+                System.out.println(runner.measure("kernel vector     " + label, () -> kernel(
+                        vectorKernel, weights, miles, shares, lineItemCosts)));
+            }
+
+            ShipmentView shipment = ShipmentView.of(new SyntheticShipmentGenerator(50, lineItemCount,
+                    Math.max(1, lineItemCount / 10), 0.1).generate(1, new Random(42)));
+            TonMileCostAllocator scalar = new TonMileCostAllocator(TonMileCostAllocator.SCALAR_KERNEL);
+            System.out.println(runner.measure("allocation scalar " + label, () -> {
+                scalar.allocateCosts(shipment, 1234.34, costs);
+                return costs;
+            }));
+            if(vectorKernel != null) {
+                TonMileCostAllocator vector = new TonMileCostAllocator(vectorKernel);
+                System.out.println(runner.measure("allocation vector " + label, () -> {
+                    vector.allocateCosts(shipment, 1234.34, costs);
+                    return costs;
+                }));
+            }
+        }
+    }
+
+    private static double[] kernel(TonMileCostAllocator.TonMileKernel kernel, double[] weights, double[] miles,
+                                   double[] shares, double[] costs) {
+        double total = kernel.multiplyAndSum(weights, miles, shares, weights.length);
+        kernel.costs(shares, total, 1234.34, costs, weights.length);
+        return costs;
+    }
+}
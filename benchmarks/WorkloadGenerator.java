@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Seeded generator of production-like shipment populations for load runs, where SyntheticShipmentGenerator makes
+// uniform shipments of one fixed shape. The same seed always gives the same population.
+//
+//   - Most shipments are short hauls of 2 to 6 stops; milkRunRate of them are milk runs of 20 to maxMilkRunStops.
+//   - Line item counts are heavy tailed (log-normal around medianLineItems), up to maxLineItems.
+//   - Each shipment has 1 to maxOrders orders, Zipf distributed with exponent orderSkew, and line items are also spread
+//     over the orders by a Zipf draw, so a few orders carry most of the freight.
+//   - outOfOrderRate of shipments list their stops shuffled, and some of those also number them with gaps.
+//   - invalidRate of shipments are broken in one of the ways the allocators reject: a non-positive weight, a pickup at
+//     or after the drop-off, a zero-distance intermediate stop, a single stop, or no line items. Which ones a given
+//     allocator rejects depends on what it validates.
+//   - Addresses and item descriptions come from small shared pools, as they would for a real customer base.
+record WorkloadGenerator(int medianLineItems, int maxLineItems, int maxOrders, double orderSkew, double milkRunRate,
+                         int maxMilkRunStops, double outOfOrderRate, double invalidRate) {
+
+    static final WorkloadGenerator DEFAULT = new WorkloadGenerator(12, 2_000, 40, 1.2, 0.05, 120, 0.3, 0.01);
+
+    private static final int ADDRESS_POOL = 500;
+    private static final int DESCRIPTION_POOL = 2_000;
+
+    WorkloadGenerator {
+        if(medianLineItems < 1 || maxLineItems < medianLineItems) {
+            throw new IllegalArgumentException("Need 1 <= medianLineItems <= maxLineItems");
+        }
+        if(maxOrders < 1 || orderSkew <= 0.0) {
+            throw new IllegalArgumentException("Need at least one order and a positive order skew");
+        }
+        if(maxMilkRunStops < 20) {
+            throw new IllegalArgumentException("Milk runs have at least 20 stops");
+        }
+        for(double rate : new double[] {milkRunRate, outOfOrderRate, invalidRate}) {
+            if(rate < 0.0 || rate > 1.0) {
+                throw new IllegalArgumentException("Rates must be between 0 and 1");
+            }
+        }
+    }
+
+    WorkloadGenerator withInvalidRate(double invalidRate) {
+        return new WorkloadGenerator(medianLineItems, maxLineItems, maxOrders, orderSkew, milkRunRate, maxMilkRunStops,
+                outOfOrderRate, invalidRate);
+    }
+
+    List<ShipmentInvoice> population(int shipmentCount, long seed) {
+        Random random = new Random(seed);
+        List<ShipmentInvoice> shipmentInvoices = new ArrayList<>(shipmentCount);
+        for(int i = 0; i < shipmentCount; i++) {
+            Shipment shipment = generate(i + 1, random);
+            double invoice = 100.0 + random.nextInt(1_000_000) / 100.0;
+            shipmentInvoices.add(new ShipmentInvoice(shipment, invoice));
+        }
+        return shipmentInvoices;
+    }
+
+    Shipment generate(long shipmentId, Random random) {
+        int stopCount = random.nextDouble() < milkRunRate ? 20 + random.nextInt(maxMilkRunStops - 19)
+                : 2 + random.nextInt(5);
+        boolean outOfOrder = random.nextDouble() < outOfOrderRate;
+        int sequenceStride = outOfOrder && random.nextBoolean() ? 1 + random.nextInt(10) : 1;
+
+        List<ShipmentStop> stops = new ArrayList<>(stopCount);
+        for(int i = 0; i < stopCount; i++) {
+            stops.add(new ShipmentStop(1 + i * sequenceStride, "Warehouse " + random.nextInt(ADDRESS_POOL),
+                    i == 0 ? 0 : 1 + random.nextInt(250)));
+        }
+
+        int lineItemCount = (int) Math.min(maxLineItems, Math.max(1,
+                Math.round(medianLineItems * Math.exp(random.nextGaussian()))));
+        int orderCount = zipf(maxOrders, random);
+        List<ShipmentLineItem> lineItems = new ArrayList<>(lineItemCount);
+        for(int i = 0; i < lineItemCount; i++) {
+            int pickup = random.nextInt(stopCount - 1);
+            int dropOff = pickup + 1 + random.nextInt(stopCount - 1 - pickup);
+            lineItems.add(new ShipmentLineItem(shipmentId * 1_000 + zipf(orderCount, random),
+                    "Item " + random.nextInt(DESCRIPTION_POOL), 1 + random.nextInt(20),
+                    Math.round((0.5 + random.nextDouble() * random.nextDouble() * 1_000) * 10) / 10.0,
+                    1 + pickup * sequenceStride, 1 + dropOff * sequenceStride));
+        }
+
+        if(random.nextDouble() < invalidRate) {
+            breakShipment(stops, lineItems, random);
+        }
+        if(outOfOrder) {
+            Collections.shuffle(stops, random);
+        }
+        return new Shipment(shipmentId, stops, lineItems);
+    }
+
+    private static void breakShipment(List<ShipmentStop> stops, List<ShipmentLineItem> lineItems, Random random) {
+        int lineItem = random.nextInt(lineItems.size());
+        ShipmentLineItem original = lineItems.get(lineItem);
+        switch(random.nextInt(5)) {
+            case 0 -> lineItems.set(lineItem, new ShipmentLineItem(original.orderId(), original.itemDescription(),
+                    original.qty(), random.nextBoolean() ? 0.0 : -original.weight(),
+                    original.pickupStopSequenceNumber(), original.dropOffStopSequenceNumber()));
+            case 1 -> lineItems.set(lineItem, new ShipmentLineItem(original.orderId(), original.itemDescription(),
+                    original.qty(), original.weight(), original.dropOffStopSequenceNumber(),
+                    original.pickupStopSequenceNumber()));
+            case 2 -> {
+                int stop = stops.size() > 2 ? 1 + random.nextInt(stops.size() - 2) : stops.size() - 1;
+                ShipmentStop stopToBreak = stops.get(stop);
+                stops.set(stop, new ShipmentStop(stopToBreak.sequenceNumber(), stopToBreak.address(), 0));
+            }
+            case 3 -> stops.subList(1, stops.size()).clear();
+            default -> lineItems.clear();
+        }
+    }
+
+    // A rank in 1..n drawn with probability proportional to 1 / rank^orderSkew, by inverting the cumulative weights.
+    private int zipf(int n, Random random) {
+        double total = 0.0;
+        for(int rank = 1; rank <= n; rank++) {
+            total += Math.pow(rank, -orderSkew);
+        }
+        double target = random.nextDouble() * total;
+        for(int rank = 1; rank <= n; rank++) {
+            target -= Math.pow(rank, -orderSkew);
+            if(target <= 0.0) {
+                return rank;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "medianLineItems=" + medianLineItems + " maxLineItems=" + maxLineItems + " maxOrders=" + maxOrders +
+                " orderSkew=" + orderSkew + " milkRunRate=" + milkRunRate + " maxMilkRunStops=" + maxMilkRunStops +
+                " outOfOrderRate=" + outOfOrderRate + " invalidRate=" + invalidRate;
+    }
+}
@@ -0,0 +1,43 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// TonMileCostAllocator's kernels on the incubating Vector API, using the widest double vectors the CPU supports. Kept
+// out of src so that the rest of the code compiles without --add-modules jdk.incubator.vector; TonMileCostAllocator
+// loads it by name, and only when the module is present, so nothing else may refer to this class directly.
+//
+// The products and costs are computed lane by lane exactly as the scalar loops compute them. The sum accumulates one
+// partial sum per lane and adds the lanes up at the end, so it rounds differently from a left-to-right scalar sum.
+final class VectorTonMileKernel implements TonMileCostAllocator.TonMileKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double multiplyAndSum(double[] weights, double[] miles, double[] shares, int n) {
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for(int upperBound = SPECIES.loopBound(n); i < upperBound; i += SPECIES.length()) {
+            DoubleVector products = DoubleVector.fromArray(SPECIES, weights, i)
+                    .mul(DoubleVector.fromArray(SPECIES, miles, i));
+            products.intoArray(shares, i);
+            sums = sums.add(products);
+        }
+        double total = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < n; i++) {
+            shares[i] = weights[i] * miles[i];
+            total += shares[i];
+        }
+        return total;
+    }
+
+    @Override
+    public void costs(double[] shares, double totalShare, double totalInvoicedAmount, double[] costs, int n) {
+        int i = 0;
+        for(int upperBound = SPECIES.loopBound(n); i < upperBound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, shares, i).div(totalShare).mul(totalInvoicedAmount).intoArray(costs, i);
+        }
+        for(; i < n; i++) {
+            costs[i] = (shares[i] / totalShare) * totalInvoicedAmount;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Embedded HTTP API for cost allocation, served by the JDK's HttpServer with one virtual thread per request.
+//
+//   POST /allocate?strategy=weight|mileage|ton-mile          body: a shipment JSON object with totalInvoicedAmount
+//     200 {"shipmentId":1,"costsByOrderId":{"1":740.6,"2":493.74}}
+//     400 {"error":"..."} if the shipment can't be parsed or allocated
+//
+//   POST /allocate/batch?strategy=weight|mileage|ton-mile    body: a JSON array of shipment objects with totalInvoicedAmount
+//     200 an array with one result or {"shipmentId":2,"error":"..."} per shipment, in request order
+//
+// Request bodies larger than maxRequestBytes are rejected with 413 without being read in full.
+//
+// Creating a server doesn't change JVM-wide settings. Embedders should launch with -Dsun.net.httpserver.nodelay=true or
+// call enableNoDelay() before creating the first server, as main() does.
+class AllocationHttpServer {
+
+    static final int DEFAULT_MAX_REQUEST_BYTES = 1 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxRequestBytes;
+
+    AllocationHttpServer(InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_MAX_REQUEST_BYTES);
+    }
+
+    AllocationHttpServer(InetSocketAddress address, int maxRequestBytes) throws IOException {
+        if(maxRequestBytes < 1) {
+            throw new IllegalArgumentException("Maximum request size must be at least 1 byte");
+        }
+        this.maxRequestBytes = maxRequestBytes;
+        server = HttpServer.create(address, 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/allocate", this::handle);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.close();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try(exchange) {
+            String path = exchange.getRequestURI().getPath();
+            boolean batch = path.equals("/allocate/batch");
+            if(!batch && !path.equals("/allocate")) {
+                sendError(exchange, 404, "Not found: " + path);
+                return;
+            }
+            if(!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Use POST");
+                return;
+            }
+
+            String body = readBody(exchange);
+            if(body == null) {
+                sendError(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+                return;
+            }
+
+            StringBuilder response = new StringBuilder();
+            try {
+                CostAllocator costAllocator = AllocationStrategy.fromName(strategy(exchange)).costAllocator();
+                if(batch) {
+                    List<ShipmentInvoice> shipmentInvoices = ShipmentJson.parseShipmentInvoices(body);
+                    List<AllocationOutcome> outcomes = new BatchCostAllocator(costAllocator).allocateCosts(shipmentInvoices);
+                    response.append('[');
+                    for(int i = 0; i < outcomes.size(); i++) {
+                        if(i > 0) {
+                            response.append(',');
+                        }
+                        AllocationOutcome outcome = outcomes.get(i);
+                        if(outcome.isSuccess()) {
+                            ShipmentJson.writeResult(outcome.result(), response);
+                        } else {
+                            ShipmentJson.writeError(outcome.shipmentId(), outcome.errorMessage(), response);
+                        }
+                    }
+                    response.append(']');
+                } else {
+                    ShipmentInvoice shipmentInvoice = ShipmentJson.parseShipmentInvoice(body);
+                    ShipmentJson.writeResult(costAllocator.allocateCosts(shipmentInvoice.shipment(),
+                            shipmentInvoice.totalInvoicedAmount()), response);
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            send(exchange, 200, response.toString());
+        }
+    }
+
+    private static String strategy(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query != null) {
+            for(String parameter : query.split("&")) {
+                String[] keyValue = parameter.split("=", 2);
+                if(keyValue[0].equals("strategy") && keyValue.length == 2) {
+                    return URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Missing strategy parameter, expected weight, mileage or ton-mile");
+    }
+
+    // Returns null if the body is larger than maxRequestBytes.
+    private String readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if(contentLength != null) {
+            try {
+                if(Long.parseLong(contentLength.trim()) > maxRequestBytes) {
+                    return null;
+                }
+            } catch (NumberFormatException ignored) {
+                // Let the bounded read below decide.
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        InputStream in = exchange.getRequestBody();
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            if(body.size() + read > maxRequestBytes) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder response = new StringBuilder("{\"error\":");
+        ShipmentJson.writeString(message, response);
+        send(exchange, status, response.append('}').toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // HttpServer writes the response headers and body separately, and with Nagle's algorithm on each response then waits
+    // out the client's delayed ACK (tens of milliseconds). The JVM-wide property is read once, when the first server is
+    // created, so launchers call this before creating one; an explicit -D setting still wins.
+    static void enableNoDelay() {
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Usage: AllocationHttpServer [port]
+    public static void main(String[] args) throws IOException {
+        enableNoDelay();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        AllocationHttpServer server = new AllocationHttpServer(new InetSocketAddress(port));
+        server.start();
+        System.out.println("Listening on port " + server.port());
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Receives metrics snapshots, e.g. from AllocationMetrics.startExporting().
+@FunctionalInterface
+interface MetricsExporter {
+    void export(AllocationMetrics.Snapshot snapshot) throws IOException;
+
+    // Appends each snapshot to the file as one line of JSON.
+    static MetricsExporter toFile(Path path) {
+        return snapshot -> {
+            try(Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)) {
+                snapshot.writeJson(out);
+                out.write('\n');
+            }
+        };
+    }
+
+    static MetricsExporter toLogger(System.Logger logger) {
+        return snapshot -> {
+            StringBuilder json = new StringBuilder();
+            snapshot.writeJson(json);
+            logger.log(System.Logger.Level.INFO, json.toString());
+        };
+    }
+}
+
+// Metrics recorded by InstrumentedCostAllocators: per strategy, allocation and failure counts, line items and orders
+// processed, failures by rejection reason, and latency histograms split by the shipment's stop and line item counts
+// (power-of-two size buckets). Counters are LongAdders and histograms are lock-free, so recording from many threads
+// doesn't contend. While disabled, InstrumentedCostAllocators call straight through without touching any of this.
+final class AllocationMetrics {
+
+    // Bucket i > 0 holds sizes in [2^(i - 1), 2^i); the last bucket also holds everything larger.
+    static final int SIZE_BUCKETS = 16;
+
+    // Rejection reasons are the exception message up to the first ": ", which drops the address or item description
+    // some messages end with. Past this many distinct reasons the rest are counted as "other".
+    static final int MAX_REJECTION_REASONS = 64;
+
+    record LatencySnapshot(String stops, String lineItems, LatencyHistogram.Snapshot latency) {}
+
+    record StrategySnapshot(String strategy, long allocations, long failures, long lineItems, long orders,
+                            Map<String, Long> rejectionsByReason, List<LatencySnapshot> latencies) {}
+
+    record Snapshot(long timestampMillis, List<StrategySnapshot> strategies) {
+
+        void writeJson(Appendable out) throws IOException {
+            out.append("{\"timestampMillis\":").append(Long.toString(timestampMillis)).append(",\"strategies\":[");
+            for(int i = 0; i < strategies.size(); i++) {
+                StrategySnapshot strategy = strategies.get(i);
+                out.append(i > 0 ? ",{\"strategy\":" : "{\"strategy\":");
+                ShipmentJson.writeString(strategy.strategy(), out);
+                out.append(",\"allocations\":").append(Long.toString(strategy.allocations()))
+                        .append(",\"failures\":").append(Long.toString(strategy.failures()))
+                        .append(",\"lineItems\":").append(Long.toString(strategy.lineItems()))
+                        .append(",\"orders\":").append(Long.toString(strategy.orders()))
+                        .append(",\"rejectionsByReason\":{");
+                boolean first = true;
+                for(var rejections : strategy.rejectionsByReason().entrySet()) {
+                    if(!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    ShipmentJson.writeString(rejections.getKey(), out);
+                    out.append(':').append(Long.toString(rejections.getValue()));
+                }
+                out.append("},\"latencies\":[");
+                for(int j = 0; j < strategy.latencies().size(); j++) {
+                    LatencySnapshot latency = strategy.latencies().get(j);
+                    LatencyHistogram.Snapshot histogram = latency.latency();
+                    out.append(j > 0 ? ",{\"stops\":\"" : "{\"stops\":\"").append(latency.stops())
+                            .append("\",\"lineItems\":\"").append(latency.lineItems())
+                            .append("\",\"count\":").append(Long.toString(histogram.count()))
+                            .append(",\"meanNanos\":").append(Long.toString(Math.round(histogram.meanNanos())))
+                            .append(",\"p50Nanos\":").append(Long.toString(histogram.p50Nanos()))
+                            .append(",\"p90Nanos\":").append(Long.toString(histogram.p90Nanos()))
+                            .append(",\"p99Nanos\":").append(Long.toString(histogram.p99Nanos()))
+                            .append(",\"p999Nanos\":").append(Long.toString(histogram.p999Nanos()))
+                            .append(",\"maxNanos\":").append(Long.toString(histogram.maxNanos())).append('}');
+                }
+                out.append("]}");
+            }
+            out.append("]}");
+        }
+    }
+
+    private static final System.Logger LOGGER = System.getLogger(AllocationMetrics.class.getName());
+
+    private final ConcurrentHashMap<String, StrategyMetrics> strategies = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    AllocationMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    StrategyMetrics strategy(String strategy) {
+        return strategies.computeIfAbsent(strategy, StrategyMetrics::new);
+    }
+
+    Snapshot snapshot() {
+        List<StrategySnapshot> snapshots = new ArrayList<>();
+        new TreeMap<>(strategies).values().forEach(strategy -> snapshots.add(strategy.snapshot()));
+        return new Snapshot(System.currentTimeMillis(), snapshots);
+    }
+
+    // Exports a snapshot every periodMillis on a daemon thread, and once more when the returned Closeable is closed.
+    // Export failures are logged and don't stop later exports.
+    Closeable startExporting(MetricsExporter exporter, long periodMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "allocation-metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runnable export = () -> {
+            try {
+                exporter.export(snapshot());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Failed to export allocation metrics", e);
+            }
+        };
+        scheduler.scheduleAtFixedRate(export, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return () -> {
+            scheduler.shutdownNow();
+            export.run();
+        };
+    }
+
+    static int sizeBucket(int size) {
+        return Math.min(SIZE_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(Math.max(0, size)));
+    }
+
+    static String sizeBucketLabel(int bucket) {
+        if(bucket == 0) {
+            return "0";
+        }
+        int low = 1 << (bucket - 1);
+        if(bucket == SIZE_BUCKETS - 1) {
+            return low + "+";
+        }
+        int high = (1 << bucket) - 1;
+        return low == high ? Integer.toString(low) : low + "-" + high;
+    }
+
+    static final class StrategyMetrics {
+        private final String strategy;
+        private final LongAdder allocations = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder lineItems = new LongAdder();
+        private final LongAdder orders = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> rejectionsByReason = new ConcurrentHashMap<>();
+        // Indexed by stop bucket * SIZE_BUCKETS + line item bucket, created on first use.
+        private final AtomicReferenceArray<LatencyHistogram> latencies =
+                new AtomicReferenceArray<>(SIZE_BUCKETS * SIZE_BUCKETS);
+
+        private StrategyMetrics(String strategy) {
+            this.strategy = strategy;
+        }
+
+        void recordSuccess(int stopCount, int lineItemCount, int orderCount, long elapsedNanos) {
+            allocations.increment();
+            lineItems.add(lineItemCount);
+            orders.add(orderCount);
+            histogram(sizeBucket(stopCount) * SIZE_BUCKETS + sizeBucket(lineItemCount)).record(elapsedNanos);
+        }
+
+        void recordFailure(int lineItemCount, IllegalArgumentException e) {
+            failures.increment();
+            lineItems.add(lineItemCount);
+            String reason = rejectionReason(e.getMessage());
+            LongAdder rejections = rejectionsByReason.get(reason);
+            if(rejections == null) {
+                rejections = rejectionsByReason.size() < MAX_REJECTION_REASONS
+                        ? rejectionsByReason.computeIfAbsent(reason, r -> new LongAdder())
+                        : rejectionsByReason.computeIfAbsent("other", r -> new LongAdder());
+            }
+            rejections.increment();
+        }
+
+        private LatencyHistogram histogram(int index) {
+            LatencyHistogram histogram = latencies.get(index);
+            if(histogram == null) {
+                latencies.compareAndSet(index, null, new LatencyHistogram());
+                histogram = latencies.get(index);
+            }
+            return histogram;
+        }
+
+        private StrategySnapshot snapshot() {
+            Map<String, Long> rejections = new LinkedHashMap<>();
+            new TreeMap<>(rejectionsByReason).forEach((reason, count) -> rejections.put(reason, count.sum()));
+            List<LatencySnapshot> latencySnapshots = new ArrayList<>();
+            for(int i = 0; i < latencies.length(); i++) {
+                LatencyHistogram histogram = latencies.get(i);
+                if(histogram != null) {
+                    latencySnapshots.add(new LatencySnapshot(sizeBucketLabel(i / SIZE_BUCKETS),
+                            sizeBucketLabel(i % SIZE_BUCKETS), histogram.snapshot()));
+                }
+            }
+            return new StrategySnapshot(strategy, allocations.sum(), failures.sum(), lineItems.sum(), orders.sum(),
+                    rejections, latencySnapshots);
+        }
+
+        private static String rejectionReason(String message) {
+            if(message == null) {
+                return "unknown";
+            }
+            int end = message.indexOf(": ");
+            return end < 0 ? message : message.substring(0, end);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A Flow stage that allocates a stream of shipment invoices, e.g. from a dispatch event feed, and publishes one
+// AllocationOutcome per shipment to a single subscriber. A shipment the allocator rejects produces a failed outcome, as
+// in BatchCostAllocator, rather than an error signal.
+//
+// Shipments are gathered into micro-batches that go to the worker executor once they reach maxBatchSize, or once the
+// oldest shipment in the batch has waited maxBatchDelayMillis, so a slow trickle isn't held back waiting for a full
+// batch. Outcomes are published either in the order the shipments arrived (INPUT_ORDER, holding back batches that
+// finish early) or as soon as each batch finishes (COMPLETION_ORDER).
+//
+// Backpressure: at most capacity shipments are ever requested from upstream but not yet published downstream, counting
+// those waiting in a batch, being allocated, and allocated but waiting for downstream demand. The stage requests
+// capacity up front and then one more for each outcome the subscriber takes, so a burst upstream can't make it buffer
+// more than capacity shipments and a slow subscriber slows the whole stream down to its own pace.
+//
+// When upstream completes or fails, the partial batch is flushed and every shipment already received is published
+// before onComplete or onError is passed on. Cancelling downstream cancels upstream and drops whatever is buffered.
+final class AllocationProcessor implements Flow.Processor<ShipmentInvoice, AllocationOutcome>, AutoCloseable {
+
+    enum Ordering { INPUT_ORDER, COMPLETION_ORDER }
+
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 10;
+
+    private final CostAllocator costAllocator;
+    private final Executor workers;
+    private final ExecutorService ownedWorkers;  // Null if the executor was passed in.
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMillis;
+    private final Ordering ordering;
+    private final ScheduledExecutorService batchTimer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Serializes the delivery of signals downstream: whoever raises it from 0 drains, anyone else just asks for
+    // another pass.
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    // Guarded by lock.
+    private Flow.Subscription upstream;
+    private boolean subscribed;
+    private Flow.Subscriber<? super AllocationOutcome> downstream;  // Set once onSubscribe has returned.
+    private List<ShipmentInvoice> batch = new ArrayList<>();
+    private ScheduledFuture<?> batchDeadline;
+    private long nextBatchSequence;
+    private long nextPublishedBatchSequence;
+    private final Map<Long, List<AllocationOutcome>> finishedOutOfOrder = new HashMap<>();
+    private final ArrayDeque<AllocationOutcome> ready = new ArrayDeque<>();
+    private int batchesInFlight;
+    private long demand;
+    private int publishedSinceRequest;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private boolean failed;  // Batches still in flight are counted down but their outcomes dropped.
+    private boolean cancelled;
+    private boolean terminated;
+
+    AllocationProcessor(CostAllocator costAllocator, int workerThreads) {
+        this(costAllocator, null, workerThreads, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MILLIS,
+                Ordering.INPUT_ORDER);
+    }
+
+    AllocationProcessor(CostAllocator costAllocator, int workerThreads, int capacity, int maxBatchSize,
+                        long maxBatchDelayMillis, Ordering ordering) {
+        this(costAllocator, null, workerThreads, capacity, maxBatchSize, maxBatchDelayMillis, ordering);
+    }
+
+    // Allocates on the given executor, which the processor doesn't shut down.
+    AllocationProcessor(CostAllocator costAllocator, Executor workers, int capacity, int maxBatchSize,
+                        long maxBatchDelayMillis, Ordering ordering) {
+        this(costAllocator, workers, 0, capacity, maxBatchSize, maxBatchDelayMillis, ordering);
+    }
+
+    private AllocationProcessor(CostAllocator costAllocator, Executor workers, int workerThreads, int capacity,
+                                int maxBatchSize, long maxBatchDelayMillis, Ordering ordering) {
+        if(workers == null && workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        if(maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        if(capacity < maxBatchSize) {
+            throw new IllegalArgumentException("Capacity must be at least the batch size");
+        }
+        if(maxBatchDelayMillis < 0) {
+            throw new IllegalArgumentException("Batch delay can't be negative");
+        }
+        this.costAllocator = costAllocator;
+        this.ownedWorkers = workers != null ? null
+                : Executors.newFixedThreadPool(workerThreads, daemonThreads("allocation-worker"));
+        this.workers = workers == null ? ownedWorkers : workers;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        this.ordering = ordering;
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("allocation-batch-timer"));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        lock.lock();
+        try {
+            if(upstream != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        } finally {
+            lock.unlock();
+        }
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(ShipmentInvoice shipmentInvoice) {
+        List<ShipmentInvoice> fullBatch = null;
+        long sequence = 0;
+        lock.lock();
+        try {
+            if(cancelled || upstreamDone) {
+                return;
+            }
+            batch.add(shipmentInvoice);
+            if(batch.size() >= maxBatchSize) {
+                sequence = nextBatchSequence;
+                fullBatch = takeBatch();
+            } else if(batch.size() == 1) {
+                List<ShipmentInvoice> waiting = batch;
+                batchDeadline = batchTimer.schedule(() -> flushIfWaiting(waiting), maxBatchDelayMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(fullBatch != null) {
+            dispatch(sequence, fullBatch);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        finishUpstream(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        finishUpstream(null);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super AllocationOutcome> subscriber) {
+        boolean accepted;
+        lock.lock();
+        try {
+            accepted = !subscribed;
+            subscribed = true;
+        } finally {
+            lock.unlock();
+        }
+        if(!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("AllocationProcessor only supports one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requestOutcomes(n);
+            }
+
+            @Override
+            public void cancel() {
+                cancelAll();
+            }
+        });
+        lock.lock();
+        try {
+            downstream = subscriber;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    // Cancels upstream and stops the processor's own threads. Outcomes not yet published are dropped.
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    private void requestOutcomes(long n) {
+        if(n <= 0) {
+            fail(new IllegalArgumentException("Subscribers must request a positive number of outcomes, got " + n));
+            return;
+        }
+        lock.lock();
+        try {
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    private void finishUpstream(Throwable throwable) {
+        List<ShipmentInvoice> partialBatch = null;
+        long sequence = 0;
+        lock.lock();
+        try {
+            if(upstreamDone) {
+                return;
+            }
+            upstreamDone = true;
+            upstreamError = throwable;
+            if(!batch.isEmpty()) {
+                sequence = nextBatchSequence;
+                partialBatch = takeBatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(partialBatch != null) {
+            dispatch(sequence, partialBatch);
+        }
+        drain();
+    }
+
+    private void flushIfWaiting(List<ShipmentInvoice> waiting) {
+        List<ShipmentInvoice> partialBatch = null;
+        long sequence = 0;
+        lock.lock();
+        try {
+            // The batch may have filled up, or been flushed by completion, since the deadline was set.
+            if(batch == waiting && !batch.isEmpty() && !cancelled) {
+                sequence = nextBatchSequence;
+                partialBatch = takeBatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(partialBatch != null) {
+            dispatch(sequence, partialBatch);
+        }
+    }
+
+    // Called with the lock held.
+    private List<ShipmentInvoice> takeBatch() {
+        List<ShipmentInvoice> taken = batch;
+        batch = new ArrayList<>(Math.min(maxBatchSize, 64));
+        if(batchDeadline != null) {
+            batchDeadline.cancel(false);
+            batchDeadline = null;
+        }
+        nextBatchSequence++;
+        batchesInFlight++;
+        return taken;
+    }
+
+    private void dispatch(long sequence, List<ShipmentInvoice> shipmentInvoices) {
+        try {
+            workers.execute(() -> allocate(sequence, shipmentInvoices));
+        } catch (RejectedExecutionException e) {
+            fail(e);
+            finishBatch(sequence, List.of());
+        }
+    }
+
+    private void allocate(long sequence, List<ShipmentInvoice> shipmentInvoices) {
+        List<AllocationOutcome> outcomes = new ArrayList<>(shipmentInvoices.size());
+        try {
+            for(ShipmentInvoice shipmentInvoice : shipmentInvoices) {
+                Shipment shipment = shipmentInvoice.shipment();
+                try {
+                    outcomes.add(AllocationOutcome.success(
+                            costAllocator.allocateCosts(shipment, shipmentInvoice.totalInvoicedAmount())));
+                } catch (IllegalArgumentException e) {
+                    outcomes.add(AllocationOutcome.failure(shipment.shipmentId(), e.getMessage()));
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+        finishBatch(sequence, outcomes);
+    }
+
+    // Counts the batch as done and, unless the stream has failed, queues its outcomes for publishing.
+    private void finishBatch(long sequence, List<AllocationOutcome> outcomes) {
+        lock.lock();
+        try {
+            if(cancelled || terminated) {
+                return;
+            }
+            batchesInFlight--;
+            if(!failed && ordering == Ordering.COMPLETION_ORDER) {
+                ready.addAll(outcomes);
+            } else if(!failed) {
+                finishedOutOfOrder.put(sequence, outcomes);
+                List<AllocationOutcome> next;
+                while((next = finishedOutOfOrder.remove(nextPublishedBatchSequence)) != null) {
+                    ready.addAll(next);
+                    nextPublishedBatchSequence++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    // Anything other than a rejected shipment is a bug or a broken executor, so the stream fails: nothing more is
+    // published, and onError is passed on once the batches still being allocated have finished.
+    private void fail(Throwable throwable) {
+        lock.lock();
+        try {
+            if(!terminated && !failed) {
+                failed = true;
+                ready.clear();
+                finishedOutOfOrder.clear();
+                batch = new ArrayList<>();
+                if(batchDeadline != null) {
+                    batchDeadline.cancel(false);
+                    batchDeadline = null;
+                }
+                upstreamDone = true;
+                upstreamError = throwable;
+            }
+        } finally {
+            lock.unlock();
+        }
+        cancelUpstream();
+        drain();
+    }
+
+    private void cancelAll() {
+        lock.lock();
+        try {
+            cancelled = true;
+            ready.clear();
+            finishedOutOfOrder.clear();
+            batch = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+        cancelUpstream();
+        shutdownThreads();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription;
+        lock.lock();
+        try {
+            subscription = upstream;
+        } finally {
+            lock.unlock();
+        }
+        if(subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private void shutdownThreads() {
+        batchTimer.shutdownNow();
+        if(ownedWorkers != null) {
+            ownedWorkers.shutdown();
+        }
+    }
+
+    // Publishes whatever is ready and the subscriber has asked for, tops up the upstream request by as many, and
+    // passes on completion once everything received has been published.
+    private void drain() {
+        if(drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while(true) {
+            while(true) {
+                Flow.Subscriber<? super AllocationOutcome> subscriber;
+                AllocationOutcome outcome;
+                lock.lock();
+                try {
+                    if(cancelled || terminated || downstream == null || demand == 0 || ready.isEmpty()) {
+                        break;
+                    }
+                    subscriber = downstream;
+                    outcome = ready.poll();
+                    if(demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    publishedSinceRequest++;
+                } finally {
+                    lock.unlock();
+                }
+                subscriber.onNext(outcome);
+            }
+
+            Flow.Subscriber<? super AllocationOutcome> subscriber = null;
+            Flow.Subscription subscription = null;
+            int toRequest = 0;
+            Throwable error = null;
+            lock.lock();
+            try {
+                if(!cancelled && !terminated) {
+                    if(!upstreamDone && publishedSinceRequest > 0) {
+                        subscription = upstream;
+                        toRequest = publishedSinceRequest;
+                    }
+                    publishedSinceRequest = 0;
+                    if(upstreamDone && downstream != null && batch.isEmpty() && batchesInFlight == 0 && ready.isEmpty()) {
+                        terminated = true;
+                        subscriber = downstream;
+                        error = upstreamError;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if(subscription != null) {
+                subscription.request(toRequest);
+            }
+            if(subscriber != null) {
+                shutdownThreads();
+                if(error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+
+            missed = drainRequests.addAndGet(-missed);
+            if(missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// A size-bounded LRU cache of allocation results, with an optional time to live, that can be shared by several
+// CachingCostAllocators. Entries are spread over independently locked segments by key hash, so concurrent requests
+// only contend when they land in the same segment; each segment evicts its own least recently used entry once it holds
+// maximumSize / segments entries. Cached results are immutable, so they can be handed to any number of callers.
+class AllocationResultCache {
+
+    static final int DEFAULT_SEGMENTS = 16;
+
+    record Key(long shipmentId, long contentFingerprint, String strategy, double totalInvoicedAmount) {}
+
+    record Stats(long hits, long misses, long evictions, long expirations, long size) {
+
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+
+    private record Entry(CostAllocationResult result, long expiresAtNanos) {}
+
+    private final Segment[] segments;
+    private final long timeToLiveNanos;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // A timeToLiveNanos of 0 keeps entries until they are evicted.
+    AllocationResultCache(int maximumSize, long timeToLiveNanos) {
+        this(maximumSize, timeToLiveNanos, DEFAULT_SEGMENTS, System::nanoTime);
+    }
+
+    AllocationResultCache(int maximumSize, long timeToLiveNanos, int segmentCount, LongSupplier nanoClock) {
+        if(maximumSize < 1 || segmentCount < 1) {
+            throw new IllegalArgumentException("Cache size and segment count must be at least 1");
+        }
+        if(timeToLiveNanos < 0) {
+            throw new IllegalArgumentException("Time to live can't be negative");
+        }
+        int segmentsUsed = Math.min(segmentCount, maximumSize);
+        segments = new Segment[segmentsUsed];
+        for(int i = 0; i < segmentsUsed; i++) {
+            // Spread the remainder so the segment capacities add up to maximumSize.
+            segments[i] = new Segment(maximumSize / segmentsUsed + (i < maximumSize % segmentsUsed ? 1 : 0));
+        }
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    // Returns null on a miss.
+    CostAllocationResult get(Key key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry entry = segment.entries.get(key);
+            if(entry != null && timeToLiveNanos > 0 && nanoClock.getAsLong() - entry.expiresAtNanos() >= 0) {
+                segment.entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+            if(entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.result();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Caches an immutable copy of the result and returns it.
+    CostAllocationResult put(Key key, CostAllocationResult result) {
+        CostAllocationResult immutableResult = immutable(result);
+        Entry entry = new Entry(immutableResult, nanoClock.getAsLong() + timeToLiveNanos);
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.entries.put(key, entry);
+            if(segment.entries.size() > segment.capacity) {
+                Iterator<Map.Entry<Key, Entry>> eldest = segment.entries.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        return immutableResult;
+    }
+
+    void invalidateAll() {
+        for(Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.entries.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for(Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size());
+    }
+
+    private Segment segmentFor(Key key) {
+        int hash = key.hashCode();
+        return segments[Math.floorMod(hash ^ (hash >>> 16), segments.length)];
+    }
+
+    private static CostAllocationResult immutable(CostAllocationResult result) {
+        if(result.costsByOrderId() instanceof OrderCostMap costs) {
+            return costs.isImmutable() ? result : new CostAllocationResult(result.shipmentId(), costs.immutableCopy());
+        }
+        OrderCostMap costs = new OrderCostMap(result.costsByOrderId().size());
+        result.costsByOrderId().forEach(costs::add);
+        return new CostAllocationResult(result.shipmentId(), costs.immutableCopy());
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Contract-specific allocation rules per customer, read from a properties file such as
+//
+//     acme.mix=weight:0.7, mileage:0.3
+//     acme.weightFloor=50
+//     acme.minCharge=25.00
+//     acme.maxCharge=400.00
+//     default.mix=weight
+//
+// where each key is <customerId>.<rule>. The rules are:
+//     mix          Strategies and the fraction of the invoice each allocates, which must add up to 1. A strategy
+//                  without a fraction takes the whole invoice. Required.
+//     weightFloor  Weight-based strategies (weight and ton-mile) bill each line item as at least this weight.
+//     minCharge    Every order is charged at least this much.
+//     maxCharge    No order is charged more than this.
+// Orders raised to the minimum or held at the cap are paid for by scaling every other order's charge by the same factor,
+// so the charges still add up to the invoice. Unknown rules, malformed values and invoices that can't satisfy the
+// minimum or the cap throw an IllegalArgumentException.
+//
+// Rules are checked when the file is loaded and compiled into a CostAllocator the first time a customer is looked up;
+// the compiled allocators are cached per rule set. A customer with no rules of its own gets the "default" rules, and
+// allocator, if there are any.
+final class AllocationRules {
+
+    static final String DEFAULT_CUSTOMER = "default";
+
+    private final Map<String, AllocationRuleSet> ruleSets;
+    private final ConcurrentHashMap<String, CostAllocator> compiled = new ConcurrentHashMap<>();
+
+    private AllocationRules(Map<String, AllocationRuleSet> ruleSets) {
+        this.ruleSets = ruleSets;
+    }
+
+    static AllocationRules load(Path path) throws IOException {
+        try(Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Properties properties = new Properties();
+            properties.load(reader);
+            return parse(properties);
+        }
+    }
+
+    static AllocationRules parse(Properties properties) {
+        Map<String, Map<String, String>> rulesByCustomer = new TreeMap<>();
+        for(String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if(dot <= 0 || dot == key.length() - 1) {
+                throw new IllegalArgumentException("Expected <customerId>.<rule>, got: " + key);
+            }
+            rulesByCustomer.computeIfAbsent(key.substring(0, dot), customerId -> new TreeMap<>())
+                    .put(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+
+        Map<String, AllocationRuleSet> ruleSets = new TreeMap<>();
+        rulesByCustomer.forEach((customerId, rules) -> ruleSets.put(customerId, AllocationRuleSet.parse(customerId, rules)));
+        return new AllocationRules(Collections.unmodifiableMap(ruleSets));
+    }
+
+    Map<String, AllocationRuleSet> ruleSets() {
+        return ruleSets;
+    }
+
+    CostAllocator forCustomer(String customerId) {
+        AllocationRuleSet ruleSet = ruleSets.getOrDefault(customerId, ruleSets.get(DEFAULT_CUSTOMER));
+        if(ruleSet == null) {
+            throw new IllegalArgumentException("No allocation rules for customer: " + customerId);
+        }
+        // Keyed by the rule set rather than the customer asked for, so the cache holds at most one allocator per rule
+        // set however many distinct customers fall back to the default.
+        CostAllocator costAllocator = compiled.get(ruleSet.customerId());
+        if(costAllocator != null) {
+            return costAllocator;
+        }
+        return compiled.computeIfAbsent(ruleSet.customerId(), id -> ruleSet.compile());
+    }
+}
+
+// One customer's rules, validated but not yet compiled. mix maps each strategy to the fraction of the invoice it
+// allocates; weightFloor and minCharge are 0.0 and maxCharge is infinite when not set.
+record AllocationRuleSet(String customerId, Map<AllocationStrategy, Double> mix, double weightFloor, double minCharge,
+                         double maxCharge) {
+
+    // How far the mix fractions may be from adding up to 1, e.g. for 0.1 + 0.2 + 0.7.
+    private static final double MIX_TOLERANCE = 1e-9;
+
+    AllocationRuleSet {
+        if(mix.isEmpty()) {
+            throw new IllegalArgumentException("No allocation mix for customer: " + customerId);
+        }
+        double total = 0.0;
+        for(double fraction : mix.values()) {
+            if(!(fraction > 0.0 && fraction <= 1.0)) {
+                throw new IllegalArgumentException("Mix fractions must be in (0, 1] for customer: " + customerId);
+            }
+            total += fraction;
+        }
+        if(Math.abs(total - 1.0) > MIX_TOLERANCE) {
+            throw new IllegalArgumentException("Mix fractions must add up to 1 for customer: " + customerId);
+        }
+        if(!(weightFloor >= 0.0 && weightFloor < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid weightFloor for customer: " + customerId);
+        }
+        if(!(minCharge >= 0.0 && minCharge < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid minCharge for customer: " + customerId);
+        }
+        if(!(maxCharge > 0.0 && maxCharge >= minCharge)) {
+            throw new IllegalArgumentException("Invalid maxCharge for customer: " + customerId);
+        }
+        mix = Collections.unmodifiableMap(new EnumMap<>(mix));
+    }
+
+    static AllocationRuleSet parse(String customerId, Map<String, String> rules) {
+        Map<AllocationStrategy, Double> mix = new EnumMap<>(AllocationStrategy.class);
+        double weightFloor = 0.0;
+        double minCharge = 0.0;
+        double maxCharge = Double.POSITIVE_INFINITY;
+        for(Map.Entry<String, String> rule : rules.entrySet()) {
+            String value = rule.getValue();
+            switch(rule.getKey()) {
+                case "mix" -> {
+                    for(String term : value.split(",")) {
+                        String[] strategyAndFraction = term.split(":", 2);
+                        AllocationStrategy strategy = AllocationStrategy.fromName(strategyAndFraction[0].trim());
+                        double fraction = strategyAndFraction.length == 1 ? 1.0 : number(customerId, "mix", strategyAndFraction[1]);
+                        if(mix.put(strategy, fraction) != null) {
+                            throw new IllegalArgumentException("Strategy " + strategy.name().toLowerCase(Locale.ROOT)
+                                    + " appears twice in the mix for customer: " + customerId);
+                        }
+                    }
+                }
+                case "weightFloor" -> weightFloor = number(customerId, rule.getKey(), value);
+                case "minCharge" -> minCharge = number(customerId, rule.getKey(), value);
+                case "maxCharge" -> maxCharge = number(customerId, rule.getKey(), value);
+                default -> throw new IllegalArgumentException("Unknown allocation rule: " + customerId + "." + rule.getKey());
+            }
+        }
+        return new AllocationRuleSet(customerId, mix, weightFloor, minCharge, maxCharge);
+    }
+
+    CostAllocator compile() {
+        return RuleSetCostAllocator.compile(this);
+    }
+
+    private static double number(String customerId, String rule, String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + rule + " for customer: " + customerId);
+        }
+    }
+}
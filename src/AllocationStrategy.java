@@ -0,0 +1,29 @@
+import java.util.Locale;
+
+// The cost allocation strategies that can be selected by name, e.g. from a request or the command line.
+enum AllocationStrategy {
+    WEIGHT(new WeightCostAllocator()),
+    MILEAGE(new MileageCostAllocator()),
+    TON_MILE(new TonMileCostAllocator());
+
+    private final ProportionalCostAllocator costAllocator;
+
+    AllocationStrategy(ProportionalCostAllocator costAllocator) {
+        this.costAllocator = costAllocator;
+    }
+
+    ProportionalCostAllocator costAllocator() {
+        return costAllocator;
+    }
+
+    // Accepts e.g. "weight", "TON_MILE" and "ton-mile".
+    static AllocationStrategy fromName(String name) {
+        String normalizedName = name.toUpperCase(Locale.ROOT).replace('-', '_');
+        for(AllocationStrategy strategy : values()) {
+            if(strategy.name().equals(normalizedName)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown allocation strategy: " + name);
+    }
+}
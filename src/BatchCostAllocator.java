@@ -0,0 +1,91 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Outcome of allocating a single shipment within a batch. Exactly one of result and errorMessage is set.
+record AllocationOutcome(long shipmentId, CostAllocationResult result, String errorMessage) {
+
+    static AllocationOutcome success(CostAllocationResult result) {
+        return new AllocationOutcome(result.shipmentId(), result, null);
+    }
+
+    static AllocationOutcome failure(long shipmentId, String errorMessage) {
+        return new AllocationOutcome(shipmentId, null, errorMessage);
+    }
+
+    boolean isSuccess() {
+        return result != null;
+    }
+}
+
+// Runs a CostAllocator over many shipment/invoice pairs, splitting the work across a ForkJoinPool. Outcomes are
+// returned in the same order as the input no matter how many threads are used, and each shipment is allocated by the
+// same single-threaded allocator so the values don't depend on the split either. A shipment the allocator rejects with
+// an IllegalArgumentException produces a failed outcome instead of aborting the batch.
+class BatchCostAllocator {
+
+    static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final CostAllocator costAllocator;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    BatchCostAllocator(CostAllocator costAllocator) {
+        this(costAllocator, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    BatchCostAllocator(CostAllocator costAllocator, ForkJoinPool pool, int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.costAllocator = costAllocator;
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    List<AllocationOutcome> allocateCosts(List<ShipmentInvoice> shipmentInvoices) {
+        ShipmentInvoice[] inputs = shipmentInvoices.toArray(new ShipmentInvoice[0]);
+        AllocationOutcome[] outcomes = new AllocationOutcome[inputs.length];
+        pool.invoke(new AllocationTask(inputs, outcomes, 0, inputs.length));
+        return Arrays.asList(outcomes);
+    }
+
+    AllocationOutcome allocateCosts(ShipmentInvoice shipmentInvoice) {
+        Shipment shipment = shipmentInvoice.shipment();
+        try {
+            return AllocationOutcome.success(costAllocator.allocateCosts(shipment, shipmentInvoice.totalInvoicedAmount()));
+        } catch (IllegalArgumentException e) {
+            return AllocationOutcome.failure(shipment.shipmentId(), e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("serial")  // Never serialized.
+    private class AllocationTask extends RecursiveAction {
+
+        private final ShipmentInvoice[] inputs;
+        private final AllocationOutcome[] outcomes;
+        private final int from;
+        private final int to;
+
+        AllocationTask(ShipmentInvoice[] inputs, AllocationOutcome[] outcomes, int from, int to) {
+            this.inputs = inputs;
+            this.outcomes = outcomes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= batchSize) {
+                for(int i = from; i < to; i++) {
+                    outcomes[i] = allocateCosts(inputs[i]);
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new AllocationTask(inputs, outcomes, from, mid), new AllocationTask(inputs, outcomes, mid, to));
+        }
+    }
+}
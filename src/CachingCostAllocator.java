@@ -0,0 +1,64 @@
+// Caches the results of another CostAllocator in an AllocationResultCache. The cache key is the shipmentId, a 64-bit
+// fingerprint of the stop and line item values the allocation depends on, the strategy name and the invoice amount, so a
+// shipment that changes in any way that could change its allocation misses the cache. Addresses and item descriptions
+// only appear in error messages and aren't part of the fingerprint; failed allocations are never cached.
+class CachingCostAllocator implements CostAllocator {
+
+    private final String strategy;
+    private final CostAllocator delegate;
+    private final AllocationResultCache cache;
+
+    CachingCostAllocator(AllocationStrategy strategy, AllocationResultCache cache) {
+        this(strategy.name(), strategy.costAllocator(), cache);
+    }
+
+    // The strategy name distinguishes results of different allocators sharing one cache.
+    CachingCostAllocator(String strategy, CostAllocator delegate, AllocationResultCache cache) {
+        this.strategy = strategy;
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    // The returned result is shared with other callers and its costs can't be modified.
+    @Override
+    public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        AllocationResultCache.Key key = new AllocationResultCache.Key(shipment.shipmentId(),
+                fingerprint(ShipmentView.of(shipment)), strategy, totalInvoicedAmount);
+        CostAllocationResult result = cache.get(key);
+        if(result == null) {
+            result = cache.put(key, delegate.allocateCosts(shipment, totalInvoicedAmount));
+        }
+        return result;
+    }
+
+    AllocationResultCache cache() {
+        return cache;
+    }
+
+    static long fingerprint(ShipmentView shipment) {
+        long hash = mix(shipment.stopCount(), shipment.lineItemCount());
+        for(int i = 0; i < shipment.stopCount(); i++) {
+            hash = mix(hash, shipment.stopSequenceNumber(i));
+            hash = mix(hash, Double.doubleToLongBits(shipment.stopMilesFromPreviousStop(i)));
+        }
+        for(int i = 0; i < shipment.lineItemCount(); i++) {
+            hash = mix(hash, shipment.lineItemOrderId(i));
+            hash = mix(hash, Double.doubleToLongBits(shipment.lineItemWeight(i)));
+            hash = mix(hash, shipment.lineItemQty(i));
+            hash = mix(hash, ((long) shipment.lineItemPickupStopSequenceNumber(i) << 32) |
+                    (shipment.lineItemDropOffStopSequenceNumber(i) & 0xffffffffL));
+        }
+        return hash;
+    }
+
+    // Order-sensitive 64-bit mixing step (MurmurHash3 finalizer over the combined value).
+    private static long mix(long hash, long value) {
+        long h = hash * 0x9e3779b97f4a7c15L + value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
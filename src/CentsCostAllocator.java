@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+// An allocation in whole cents. centsByOrder[i] is the cost of orderIds[i], and the cents always add up to the invoice.
+record CentsAllocation(long shipmentId, long[] orderIds, long[] centsByOrder) {
+
+    long totalCents() {
+        long total = 0;
+        for(long cents : centsByOrder) {
+            total += cents;
+        }
+        return total;
+    }
+}
+
+// Allocates in whole cents, so per-order costs add up exactly to the invoice (USD amounts only have two decimals).
+// Orders are first given the whole cents of their proportional share from the wrapped strategy, then the cents left
+// over are handed out one at a time to the orders with the largest fractional remainders (the largest remainder
+// method). Remainders are compared to 2^-31 of a cent; ties go to the order whose first line item comes first in the
+// shipment, so the result is deterministic. Everything is done in long and double arithmetic, without BigDecimal.
+class CentsCostAllocator implements CostAllocator {
+
+    private final ProportionalCostAllocator shareAllocator;
+
+    CentsCostAllocator(ProportionalCostAllocator shareAllocator) {
+        this.shareAllocator = shareAllocator;
+    }
+
+    CentsCostAllocator(AllocationStrategy strategy) {
+        this(strategy.costAllocator());
+    }
+
+    @Override
+    public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    // Costs are reported in dollars, each the exact double nearest to a two-decimal amount.
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        CentsAllocation allocation = allocateCents(shipment, toCents(totalInvoicedAmount));
+        costsByOrderId.reset();
+        for(int i = 0; i < allocation.orderIds().length; i++) {
+            costsByOrderId.add(allocation.orderIds()[i], allocation.centsByOrder()[i] / 100.0);
+        }
+    }
+
+    CentsAllocation allocateCents(Shipment shipment, long totalInvoicedCents) {
+        return allocateCents(ShipmentView.of(shipment), totalInvoicedCents);
+    }
+
+    CentsAllocation allocateCents(ShipmentView shipment, long totalInvoicedCents) {
+        OrderCostMap sharesByOrderId = new OrderCostMap();
+        double totalShares = shareAllocator.orderShares(shipment, sharesByOrderId);
+        if(totalShares == 0.0 || !Double.isFinite(totalShares)) {
+            throw new IllegalArgumentException("Shipment has no share to allocate the invoice by");
+        }
+
+        int orderCount = sharesByOrderId.size();
+        long[] orderIds = new long[orderCount];
+        long[] cents = new long[orderCount];
+        // Sort keys: the complement of the fractional remainder, quantized to 31 bits, in the high word so that larger
+        // remainders sort first (and the key stays positive), and the order's position in the low word to break ties.
+        long[] remainderKeys = new long[orderCount];
+        long allocatedCents = 0;
+        for(int i = 0; i < orderCount; i++) {
+            double exactCents = totalInvoicedCents * (sharesByOrderId.costAt(i) / totalShares);
+            double wholeCents = Math.floor(exactCents);
+            long quantizedRemainder = Math.min((long) ((exactCents - wholeCents) * 0x1p31), 0x7fffffffL);
+            orderIds[i] = sharesByOrderId.orderIdAt(i);
+            cents[i] = (long) wholeCents;
+            remainderKeys[i] = ((0x7fffffffL - quantizedRemainder) << 32) | i;
+            allocatedCents += cents[i];
+        }
+
+        Arrays.sort(remainderKeys);
+        long leftoverCents = totalInvoicedCents - allocatedCents;
+        // Rounding in the double arithmetic can leave us a few cents over as well as under; in that case take them back
+        // from the orders with the smallest remainders.
+        for(int i = 0; leftoverCents > 0; i = (i + 1) % orderCount, leftoverCents--) {
+            cents[(int) remainderKeys[i]]++;
+        }
+        for(int i = orderCount - 1; leftoverCents < 0; i = (i + orderCount - 1) % orderCount, leftoverCents++) {
+            cents[(int) remainderKeys[i]]--;
+        }
+
+        return new CentsAllocation(shipment.shipmentId(), orderIds, cents);
+    }
+
+    static long toCents(double amount) {
+        if(!Double.isFinite(amount) || Math.abs(amount) >= Long.MAX_VALUE / 100.0) {
+            throw new IllegalArgumentException("Invalid invoice amount: " + amount);
+        }
+        return Math.round(amount * 100.0);
+    }
+}
@@ -0,0 +1,118 @@
+// A shipment held as a handful of primitive arrays, with the stop addresses and item descriptions replaced by codes
+// in a shared SymbolTable. Allocators only read the strings for error messages, so they are decoded on demand and the
+// shipment itself holds no String or per stop/line item objects: 5 arrays in all, against 2 lists plus a record and a
+// String per stop and line item for a Shipment.
+final class EncodedShipment implements ShipmentView {
+
+    // Per stop: sequence number and address code. Per line item: description code, qty, pickup and drop-off.
+    private static final int STOP_INTS = 2;
+    private static final int LINE_ITEM_INTS = 4;
+
+    private final long shipmentId;
+    private final SymbolTable symbols;
+    private final int[] stopInts;
+    private final double[] stopMiles;
+    private final long[] orderIds;
+    private final int[] lineItemInts;
+    private final double[] weights;
+
+    private EncodedShipment(long shipmentId, SymbolTable symbols, int[] stopInts, double[] stopMiles, long[] orderIds,
+                            int[] lineItemInts, double[] weights) {
+        this.shipmentId = shipmentId;
+        this.symbols = symbols;
+        this.stopInts = stopInts;
+        this.stopMiles = stopMiles;
+        this.orderIds = orderIds;
+        this.lineItemInts = lineItemInts;
+        this.weights = weights;
+    }
+
+    static EncodedShipment encode(Shipment shipment, SymbolTable symbols) {
+        return encode(ShipmentView.of(shipment), symbols);
+    }
+
+    static EncodedShipment encode(ShipmentView shipment, SymbolTable symbols) {
+        int stopCount = shipment.stopCount();
+        int[] stopInts = new int[stopCount * STOP_INTS];
+        double[] stopMiles = new double[stopCount];
+        for(int i = 0; i < stopCount; i++) {
+            stopInts[i * STOP_INTS] = shipment.stopSequenceNumber(i);
+            stopInts[i * STOP_INTS + 1] = symbols.encode(shipment.stopAddress(i));
+            stopMiles[i] = shipment.stopMilesFromPreviousStop(i);
+        }
+
+        int lineItemCount = shipment.lineItemCount();
+        long[] orderIds = new long[lineItemCount];
+        int[] lineItemInts = new int[lineItemCount * LINE_ITEM_INTS];
+        double[] weights = new double[lineItemCount];
+        for(int i = 0; i < lineItemCount; i++) {
+            orderIds[i] = shipment.lineItemOrderId(i);
+            lineItemInts[i * LINE_ITEM_INTS] = symbols.encode(shipment.lineItemDescription(i));
+            lineItemInts[i * LINE_ITEM_INTS + 1] = shipment.lineItemQty(i);
+            lineItemInts[i * LINE_ITEM_INTS + 2] = shipment.lineItemPickupStopSequenceNumber(i);
+            lineItemInts[i * LINE_ITEM_INTS + 3] = shipment.lineItemDropOffStopSequenceNumber(i);
+            weights[i] = shipment.lineItemWeight(i);
+        }
+        return new EncodedShipment(shipment.shipmentId(), symbols, stopInts, stopMiles, orderIds, lineItemInts, weights);
+    }
+
+    @Override
+    public long shipmentId() {
+        return shipmentId;
+    }
+
+    @Override
+    public int stopCount() {
+        return stopMiles.length;
+    }
+
+    @Override
+    public int stopSequenceNumber(int stop) {
+        return stopInts[stop * STOP_INTS];
+    }
+
+    @Override
+    public String stopAddress(int stop) {
+        return symbols.decode(stopInts[stop * STOP_INTS + 1]);
+    }
+
+    @Override
+    public double stopMilesFromPreviousStop(int stop) {
+        return stopMiles[stop];
+    }
+
+    @Override
+    public int lineItemCount() {
+        return orderIds.length;
+    }
+
+    @Override
+    public long lineItemOrderId(int lineItem) {
+        return orderIds[lineItem];
+    }
+
+    @Override
+    public String lineItemDescription(int lineItem) {
+        return symbols.decode(lineItemInts[lineItem * LINE_ITEM_INTS]);
+    }
+
+    @Override
+    public int lineItemQty(int lineItem) {
+        return lineItemInts[lineItem * LINE_ITEM_INTS + 1];
+    }
+
+    @Override
+    public double lineItemWeight(int lineItem) {
+        return weights[lineItem];
+    }
+
+    @Override
+    public int lineItemPickupStopSequenceNumber(int lineItem) {
+        return lineItemInts[lineItem * LINE_ITEM_INTS + 2];
+    }
+
+    @Override
+    public int lineItemDropOffStopSequenceNumber(int lineItem) {
+        return lineItemInts[lineItem * LINE_ITEM_INTS + 3];
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.Locale;
+
+// Records latency, throughput and rejections of another CostAllocator in an AllocationMetrics under a strategy name.
+// Only IllegalArgumentExceptions count as rejections; they are recorded and rethrown. While the metrics are disabled
+// every call costs one volatile read on top of the delegate.
+class InstrumentedCostAllocator implements CostAllocator {
+
+    private final CostAllocator delegate;
+    private final AllocationMetrics metrics;
+    private final AllocationMetrics.StrategyMetrics strategyMetrics;
+
+    InstrumentedCostAllocator(AllocationStrategy strategy, AllocationMetrics metrics) {
+        this(strategy.name().toLowerCase(Locale.ROOT), strategy.costAllocator(), metrics);
+    }
+
+    InstrumentedCostAllocator(String strategy, CostAllocator delegate, AllocationMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        strategyMetrics = metrics.strategy(strategy);
+    }
+
+    @Override
+    public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        if(!metrics.isEnabled()) {
+            return delegate.allocateCosts(shipment, totalInvoicedAmount);
+        }
+        int stopCount = shipment.shipmentStops().size();
+        int lineItemCount = shipment.shipmentLineItems().size();
+        long start = System.nanoTime();
+        try {
+            CostAllocationResult result = delegate.allocateCosts(shipment, totalInvoicedAmount);
+            strategyMetrics.recordSuccess(stopCount, lineItemCount, result.costsByOrderId().size(),
+                    System.nanoTime() - start);
+            return result;
+        } catch (IllegalArgumentException e) {
+            strategyMetrics.recordFailure(lineItemCount, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        if(!metrics.isEnabled()) {
+            delegate.allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+            return;
+        }
+        int stopCount = shipment.stopCount();
+        int lineItemCount = shipment.lineItemCount();
+        long start = System.nanoTime();
+        try {
+            delegate.allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+            strategyMetrics.recordSuccess(stopCount, lineItemCount, costsByOrderId.size(), System.nanoTime() - start);
+        } catch (IllegalArgumentException e) {
+            strategyMetrics.recordFailure(lineItemCount, e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// A concurrent log-linear histogram of nanosecond latencies in the style of HdrHistogram: values below 32 get a bucket
+// each, and every power of two above that is split into 32 equal buckets, so any recorded value is reported within
+// about 3% of its true value across the whole range of a long. Recording is an array index computation and a few
+// lock-free increments, with no allocation.
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    record Snapshot(long count, double meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos,
+                    long maxNanos) {}
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    // Recording can continue while the snapshot is taken, so the percentiles and the count may be a few values apart.
+    Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            bucketCounts[i] = counts.get(i);
+            total += bucketCounts[i];
+        }
+        long max = maxNanos.get();
+        return new Snapshot(total, total == 0 ? 0.0 : (double) totalNanos.sum() / count.sum(),
+                valueAtPercentile(bucketCounts, total, 50, max), valueAtPercentile(bucketCounts, total, 90, max),
+                valueAtPercentile(bucketCounts, total, 99, max), valueAtPercentile(bucketCounts, total, 99.9, max), max);
+    }
+
+    static int bucketIndex(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // value >>> shift keeps the leading one bit and the next SUB_BUCKET_BITS bits, so it lies in [32, 64).
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // The largest value that lands in the bucket.
+    static long highestValueInBucket(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - (long) shift * SUB_BUCKETS;
+        long highest = ((subBucket + 1) << shift) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;  // The top bucket ends at 2^64 - 1.
+    }
+
+    private static long valueAtPercentile(long[] bucketCounts, long total, double percentile, long max) {
+        if(total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for(int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if(seen >= target) {
+                return Math.min(highestValueInBucket(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// What is on board for one leg of a shipment, from the stop with fromSequenceNumber to the next stop toSequenceNumber.
+// orderIds lists every order with at least one line item on board, once each and in no particular order.
+record LegLoad(int fromSequenceNumber, int toSequenceNumber, double miles, double weight, long qty, long[] orderIds) {
+
+    // Fraction of the given weight capacity used on this leg; above 1.0 means the leg is overloaded.
+    double utilization(double weightCapacity) {
+        if(weightCapacity <= 0.0) {
+            throw new IllegalArgumentException("Weight capacity must be positive");
+        }
+        return weight / weightCapacity;
+    }
+}
+
+// Per-leg loads of a single shipment within a batch. Exactly one of legs and errorMessage is set.
+record LegUtilization(long shipmentId, List<LegLoad> legs, String errorMessage) {
+
+    static LegUtilization success(long shipmentId, List<LegLoad> legs) {
+        return new LegUtilization(shipmentId, legs, null);
+    }
+
+    static LegUtilization failure(long shipmentId, String errorMessage) {
+        return new LegUtilization(shipmentId, null, errorMessage);
+    }
+
+    boolean isSuccess() {
+        return legs != null;
+    }
+
+    // The leg carrying the most weight (the first one on a tie), or null if the shipment has no legs.
+    LegLoad peakLeg() {
+        LegLoad peak = null;
+        for(LegLoad leg : legs) {
+            if(peak == null || leg.weight() > peak.weight()) {
+                peak = leg;
+            }
+        }
+        return peak;
+    }
+
+    // Sum of weight times miles over the legs, which equals the sum of weight times miles travelled over line items.
+    double weightMiles() {
+        double weightMiles = 0.0;
+        for(LegLoad leg : legs) {
+            weightMiles += leg.weight() * leg.miles();
+        }
+        return weightMiles;
+    }
+}
+
+// Works out, for each leg between consecutive stops, the weight, units and orders on board.
+//
+// Legs run between consecutive distinct stop sequence numbers in ascending order, whatever order the stops arrive in,
+// and a leg's miles are the milesFromPreviousStop of the stop(s) it ends at. A line item is on board for every leg
+// whose end stop has pickup < sequenceNumber <= dropOff, the same stops MileageIndex charges it for, so summing weight
+// times miles over the legs gives the ton-miles of the line items. Rather than testing every line item against every
+// leg, each line item becomes a boarding event at its first leg and an alighting event after its last, bucketed by leg
+// in two counting passes, and one sweep over the legs applies them to running totals: O(stops + line items) plus the
+// size of the order lists produced. Weights are running sums, so a leg's weight can differ from adding up the weights
+// on board by rounding; a leg with nothing on board always reports exactly zero.
+//
+// analyzeAll splits a batch across a ForkJoinPool the same way BatchCostAllocator does, returning results in input
+// order. A shipment with an invalid pickup/drop-off pair produces a failed result instead of aborting the batch.
+class LegUtilizationAnalyzer {
+
+    static final int DEFAULT_BATCH_SIZE = 64;
+
+    // As in MileageIndex: a flat table over the sequence number range unless the numbering has large gaps.
+    private static final int MAX_SPARSE_FACTOR = 4;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    LegUtilizationAnalyzer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    LegUtilizationAnalyzer(ForkJoinPool pool, int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    List<LegUtilization> analyzeAll(List<? extends ShipmentView> shipments) {
+        ShipmentView[] inputs = shipments.toArray(new ShipmentView[0]);
+        LegUtilization[] results = new LegUtilization[inputs.length];
+        pool.invoke(new AnalysisTask(inputs, results, 0, inputs.length));
+        return Arrays.asList(results);
+    }
+
+    LegUtilization analyze(Shipment shipment) {
+        return analyze(ShipmentView.of(shipment));
+    }
+
+    LegUtilization analyze(ShipmentView shipment) {
+        try {
+            return LegUtilization.success(shipment.shipmentId(), legLoads(shipment));
+        } catch (IllegalArgumentException e) {
+            return LegUtilization.failure(shipment.shipmentId(), e.getMessage());
+        }
+    }
+
+    // The loads of every leg in stop order; empty if the shipment has fewer than two distinct stops.
+    static List<LegLoad> legLoads(ShipmentView shipment) {
+        StopSequence stops = StopSequence.of(shipment);
+        int legCount = Math.max(0, stops.size() - 1);
+        int lineItemCount = shipment.lineItemCount();
+
+        // Leg i ends at stops.sequenceNumbers[i + 1]. An item boards at firstLegs[i] and alights before
+        // lastLegs[i] + 1; items riding no leg at all get lastLegs[i] < firstLegs[i] and no events.
+        int[] firstLegs = new int[lineItemCount];
+        int[] lastLegs = new int[lineItemCount];
+        int[] orderIndexes = new int[lineItemCount];
+        int[] eventOffsets = new int[legCount + 2];
+        OrderCostMap orders = new OrderCostMap();
+        for(int i = 0; i < lineItemCount; i++) {
+            int pickup = shipment.lineItemPickupStopSequenceNumber(i);
+            int dropOff = shipment.lineItemDropOffStopSequenceNumber(i);
+            if(pickup >= dropOff) {
+                throw new IllegalArgumentException("Invalid pickup/dropoff sequence in line item: " + shipment.lineItemDescription(i));
+            }
+            firstLegs[i] = Math.max(0, stops.stopsUpTo(pickup) - 1);
+            lastLegs[i] = stops.stopsUpTo(dropOff) - 2;
+            orderIndexes[i] = orders.addOrder(shipment.lineItemOrderId(i));
+            if(firstLegs[i] <= lastLegs[i]) {
+                eventOffsets[firstLegs[i] + 1]++;
+                eventOffsets[lastLegs[i] + 2]++;
+            }
+        }
+        for(int leg = 1; leg < eventOffsets.length; leg++) {
+            eventOffsets[leg] += eventOffsets[leg - 1];
+        }
+
+        // Alighting events (stored as ~lineItem) are filled before boarding events, so within a leg's bucket they come
+        // first and an order that swaps one line item for another at a stop stays on board throughout.
+        int[] events = new int[eventOffsets[legCount + 1]];
+        int[] nextEvent = Arrays.copyOf(eventOffsets, legCount + 1);
+        for(int i = 0; i < lineItemCount; i++) {
+            if(firstLegs[i] <= lastLegs[i]) {
+                events[nextEvent[lastLegs[i] + 1]++] = ~i;
+            }
+        }
+        for(int i = 0; i < lineItemCount; i++) {
+            if(firstLegs[i] <= lastLegs[i]) {
+                events[nextEvent[firstLegs[i]]++] = i;
+            }
+        }
+
+        // Orders on board are kept in a dense array with each order's position in it, for O(1) insertion and removal.
+        int[] lineItemsOnBoard = new int[orders.size()];
+        int[] onBoard = new int[orders.size()];
+        int[] onBoardPosition = new int[orders.size()];
+        int onBoardCount = 0;
+        int lineItemsAboard = 0;
+        double weight = 0.0;
+        long qty = 0;
+
+        List<LegLoad> legs = new ArrayList<>(legCount);
+        for(int leg = 0; leg < legCount; leg++) {
+            for(int e = eventOffsets[leg]; e < eventOffsets[leg + 1]; e++) {
+                int event = events[e];
+                if(event < 0) {
+                    int lineItem = ~event;
+                    weight -= shipment.lineItemWeight(lineItem);
+                    qty -= shipment.lineItemQty(lineItem);
+                    lineItemsAboard--;
+                    int order = orderIndexes[lineItem];
+                    if(--lineItemsOnBoard[order] == 0) {
+                        int last = onBoard[--onBoardCount];
+                        onBoard[onBoardPosition[order]] = last;
+                        onBoardPosition[last] = onBoardPosition[order];
+                    }
+                } else {
+                    weight += shipment.lineItemWeight(event);
+                    qty += shipment.lineItemQty(event);
+                    lineItemsAboard++;
+                    int order = orderIndexes[event];
+                    if(lineItemsOnBoard[order]++ == 0) {
+                        onBoard[onBoardCount] = order;
+                        onBoardPosition[order] = onBoardCount++;
+                    }
+                }
+            }
+            if(lineItemsAboard == 0) {
+                weight = 0.0;
+            }
+
+            long[] orderIds = new long[onBoardCount];
+            for(int j = 0; j < onBoardCount; j++) {
+                orderIds[j] = orders.orderIdAt(onBoard[j]);
+            }
+            legs.add(new LegLoad(stops.sequenceNumbers[leg], stops.sequenceNumbers[leg + 1], stops.miles[leg + 1],
+                    weight, qty, orderIds));
+        }
+        return Collections.unmodifiableList(legs);
+    }
+
+    // The distinct stop sequence numbers of a shipment in ascending order, the miles into each, and the number of them
+    // at or below any given sequence number.
+    private static final class StopSequence {
+        private final int[] sequenceNumbers;
+        private final double[] miles;
+        private final int[] stopsUpToTable;  // Indexed by sequenceNumber - first; null when the numbering is sparse.
+
+        private StopSequence(int[] sequenceNumbers, double[] miles, int[] stopsUpToTable) {
+            this.sequenceNumbers = sequenceNumbers;
+            this.miles = miles;
+            this.stopsUpToTable = stopsUpToTable;
+        }
+
+        static StopSequence of(ShipmentView shipment) {
+            int stopCount = shipment.stopCount();
+            if(stopCount == 0) {
+                return new StopSequence(new int[0], new double[0], null);
+            }
+
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+            for(int i = 0; i < stopCount; i++) {
+                first = Math.min(first, shipment.stopSequenceNumber(i));
+                last = Math.max(last, shipment.stopSequenceNumber(i));
+            }
+
+            long span = (long) last - first + 1;
+            if(span <= (long) stopCount * MAX_SPARSE_FACTOR) {
+                boolean[] present = new boolean[(int) span];
+                double[] milesAt = new double[(int) span];
+                for(int i = 0; i < stopCount; i++) {
+                    present[shipment.stopSequenceNumber(i) - first] = true;
+                    milesAt[shipment.stopSequenceNumber(i) - first] += shipment.stopMilesFromPreviousStop(i);
+                }
+                int[] sequenceNumbers = new int[stopCount];
+                double[] miles = new double[stopCount];
+                int[] stopsUpTo = new int[(int) span];
+                int distinct = 0;
+                for(int offset = 0; offset < span; offset++) {
+                    if(present[offset]) {
+                        sequenceNumbers[distinct] = first + offset;
+                        miles[distinct++] = milesAt[offset];
+                    }
+                    stopsUpTo[offset] = distinct;
+                }
+                return new StopSequence(Arrays.copyOf(sequenceNumbers, distinct), Arrays.copyOf(miles, distinct), stopsUpTo);
+            }
+
+            // Sort (sequenceNumber, stop index) pairs packed into longs so we don't need a boxed comparator.
+            long[] sortedStops = new long[stopCount];
+            for(int i = 0; i < stopCount; i++) {
+                sortedStops[i] = ((long) shipment.stopSequenceNumber(i) << 32) | i;
+            }
+            Arrays.sort(sortedStops);
+            int[] sequenceNumbers = new int[stopCount];
+            double[] miles = new double[stopCount];
+            int distinct = 0;
+            for(long sortedStop : sortedStops) {
+                int stop = (int) sortedStop;
+                int sequenceNumber = shipment.stopSequenceNumber(stop);
+                if(distinct == 0 || sequenceNumbers[distinct - 1] != sequenceNumber) {
+                    sequenceNumbers[distinct++] = sequenceNumber;
+                }
+                miles[distinct - 1] += shipment.stopMilesFromPreviousStop(stop);
+            }
+            return new StopSequence(Arrays.copyOf(sequenceNumbers, distinct), Arrays.copyOf(miles, distinct), null);
+        }
+
+        int size() {
+            return sequenceNumbers.length;
+        }
+
+        // Number of distinct stops with sequenceNumber <= the given sequence number.
+        int stopsUpTo(int sequenceNumber) {
+            if(sequenceNumbers.length == 0 || sequenceNumber < sequenceNumbers[0]) {
+                return 0;
+            }
+            if(sequenceNumber >= sequenceNumbers[sequenceNumbers.length - 1]) {
+                return sequenceNumbers.length;
+            }
+            if(stopsUpToTable != null) {
+                return stopsUpToTable[sequenceNumber - sequenceNumbers[0]];
+            }
+
+            int low = 0;
+            int high = sequenceNumbers.length - 1;
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(sequenceNumbers[mid] <= sequenceNumber) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low + 1;
+        }
+    }
+
+    @SuppressWarnings("serial")  // Never serialized.
+    private class AnalysisTask extends RecursiveAction {
+
+        private final ShipmentView[] inputs;
+        private final LegUtilization[] results;
+        private final int from;
+        private final int to;
+
+        AnalysisTask(ShipmentView[] inputs, LegUtilization[] results, int from, int to) {
+            this.inputs = inputs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= batchSize) {
+                for(int i = from; i < to; i++) {
+                    results[i] = analyze(inputs[i]);
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new AnalysisTask(inputs, results, from, mid), new AnalysisTask(inputs, results, mid, to));
+        }
+    }
+}
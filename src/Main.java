@@ -1,6 +1,7 @@
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
 
 record Shipment(long shipmentId, List<ShipmentStop> shipmentStops, List<ShipmentLineItem> shipmentLineItems) {}
 
@@ -11,77 +12,213 @@ record ShipmentLineItem(long orderId, String itemDescription, int qty, double we
 
 record CostAllocationResult(long shipmentId, Map<Long, Double> costsByOrderId) {}
 
+record ShipmentInvoice(Shipment shipment, double totalInvoicedAmount) {}
+
 interface CostAllocator {
     CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount);
+
+    // Allocates into a caller supplied map, which is reset first, so one map can be reused across many shipments.
+    default void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        costsByOrderId.reset();
+        allocateCosts(shipment, totalInvoicedAmount).costsByOrderId().forEach(costsByOrderId::add);
+    }
+
+    // Allocates straight from a ShipmentView, e.g. a MappedShipment, without materializing the Shipment records.
+    default void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(shipment.toShipment(), totalInvoicedAmount, costsByOrderId);
+    }
+}
+
+// An allocator that splits the invoice in proportion to a per-line-item share such as weight or miles.
+interface ProportionalCostAllocator extends CostAllocator {
+
+    // Validates the shipment the same way allocateCosts does, writes each order's total share into sharesByOrderId
+    // (which is reset first) and returns the shipment's total share.
+    double orderShares(ShipmentView shipment, OrderCostMap sharesByOrderId);
+
+    // Returns a function giving the share of a line item added to the shipment, which throws if the line item would
+    // fail allocateCosts' validation. The shipment's own stops and line items aren't validated here.
+    ToDoubleFunction<ShipmentLineItem> lineItemShareFunction(ShipmentView shipment);
+
+    // Validates the shipment the same way allocateCosts does, writes each line item's share into sharesByLineItem and
+    // returns the total share, summed exactly as allocateCosts sums it.
+    double lineItemShares(ShipmentView shipment, double[] sharesByLineItem);
 }
 
-class WeightCostAllocator implements CostAllocator {
+class WeightCostAllocator implements ProportionalCostAllocator {
 
     @Override
     public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
-        if(shipment.shipmentLineItems().isEmpty()) {
-            throw new IllegalArgumentException("Shipment has no line items");
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        double totalWeight = totalWeight(shipment);
+
+        costsByOrderId.reset();
+        for (int i = 0; i < shipment.lineItemCount(); i++) {
+            double cost = (shipment.lineItemWeight(i) / totalWeight) * totalInvoicedAmount;
+            costsByOrderId.add(shipment.lineItemOrderId(i), cost);
         }
-        if(shipment.shipmentLineItems().stream().mapToDouble(ShipmentLineItem::weight).min().getAsDouble() <= 0.0) {
-            throw new IllegalArgumentException("Invalid weight in shipment");
+    }
+
+    @Override
+    public double orderShares(ShipmentView shipment, OrderCostMap sharesByOrderId) {
+        double totalWeight = totalWeight(shipment);
+
+        sharesByOrderId.reset();
+        for (int i = 0; i < shipment.lineItemCount(); i++) {
+            sharesByOrderId.add(shipment.lineItemOrderId(i), shipment.lineItemWeight(i));
         }
+        return totalWeight;
+    }
 
-        double totalWeight = shipment.shipmentLineItems().stream().mapToDouble(ShipmentLineItem::weight).sum();
+    @Override
+    public double lineItemShares(ShipmentView shipment, double[] sharesByLineItem) {
+        double totalWeight = totalWeight(shipment);
 
-        Map<Long, Double> costsByOrderId = new HashMap<>();
-        for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
-            double cost = (lineItem.weight() / totalWeight) * totalInvoicedAmount;
-            costsByOrderId.merge(lineItem.orderId(), cost, Double::sum);
+        for (int i = 0; i < shipment.lineItemCount(); i++) {
+            sharesByLineItem[i] = shipment.lineItemWeight(i);
         }
+        return totalWeight;
+    }
 
-        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    @Override
+    public ToDoubleFunction<ShipmentLineItem> lineItemShareFunction(ShipmentView shipment) {
+        return lineItem -> {
+            if(lineItem.weight() <= 0.0) {
+                throw new IllegalArgumentException("Invalid weight in shipment");
+            }
+            return lineItem.weight();
+        };
+    }
+
+    private static double totalWeight(ShipmentView shipment) {
+        int lineItemCount = shipment.lineItemCount();
+        if(lineItemCount == 0) {
+            throw new IllegalArgumentException("Shipment has no line items");
+        }
+        if(IntStream.range(0, lineItemCount).mapToDouble(shipment::lineItemWeight).min().getAsDouble() <= 0.0) {
+            throw new IllegalArgumentException("Invalid weight in shipment");
+        }
+
+        return IntStream.range(0, lineItemCount).mapToDouble(shipment::lineItemWeight).sum();
     }
 }
 
-class MileageCostAllocator implements CostAllocator {
+class MileageCostAllocator implements ProportionalCostAllocator {
 
     @Override
     public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
-        if(shipment.shipmentStops().isEmpty() || shipment.shipmentLineItems().isEmpty()) {
-            throw new IllegalArgumentException("Empty shipment provided");
-        }
-        if(shipment.shipmentStops().size() == 1) {
-            throw new IllegalArgumentException("Cannot calculate cost by mileage with only one stop");
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        double[] lineItemMiles = lineItemMiles(shipment);
+        double totalMiles = 0.0;
+        for (double miles : lineItemMiles) {
+            totalMiles += miles;
         }
-        for(ShipmentStop stop : shipment.shipmentStops()) {
-            if(stop.milesFromPreviousStop() == 0.0 && stop.sequenceNumber() > 1) {
-                throw new IllegalArgumentException("Intermediate stop with zero distance from previous stop: " + stop.address());
-            }
+
+        costsByOrderId.reset();
+        for (int i = 0; i < lineItemMiles.length; i++) {
+            double cost = (lineItemMiles[i] / totalMiles) * totalInvoicedAmount;
+            costsByOrderId.add(shipment.lineItemOrderId(i), cost);
         }
+    }
 
-        // Could sort list of stops here and then check if they're sequential or not to avoid errors with invalid stops.
+    @Override
+    public double orderShares(ShipmentView shipment, OrderCostMap sharesByOrderId) {
+        double[] lineItemMiles = lineItemMiles(shipment);
+        double totalMiles = 0.0;
 
+        sharesByOrderId.reset();
+        for (int i = 0; i < lineItemMiles.length; i++) {
+            totalMiles += lineItemMiles[i];
+            sharesByOrderId.add(shipment.lineItemOrderId(i), lineItemMiles[i]);
+        }
+        return totalMiles;
+    }
+
+    @Override
+    public double lineItemShares(ShipmentView shipment, double[] sharesByLineItem) {
+        lineItemMiles(shipment, sharesByLineItem);
         double totalMiles = 0.0;
+        for (int i = 0; i < shipment.lineItemCount(); i++) {
+            totalMiles += sharesByLineItem[i];
+        }
+        return totalMiles;
+    }
 
-        // Could cache results here if there are a very large number of line items to prevent lookups of known mileage later.
-        for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
+    @Override
+    public ToDoubleFunction<ShipmentLineItem> lineItemShareFunction(ShipmentView shipment) {
+        MileageIndex mileageIndex = MileageIndex.of(shipment);
+        return lineItem -> {
             if(lineItem.pickupStopSequenceNumber() >= lineItem.dropOffStopSequenceNumber()) {
                 throw new IllegalArgumentException("Invalid pickup/dropoff sequence in line item: " + lineItem.itemDescription());
             }
+            return mileageIndex.milesBetween(lineItem.pickupStopSequenceNumber(), lineItem.dropOffStopSequenceNumber());
+        };
+    }
+
+    // Validates the shipment and returns the miles travelled by each line item.
+    private static double[] lineItemMiles(ShipmentView shipment) {
+        return lineItemMiles(shipment, new double[shipment.lineItemCount()]);
+    }
 
-            totalMiles += shipment.shipmentStops().stream()
-                    .filter(stop -> stop.sequenceNumber() > lineItem.pickupStopSequenceNumber() &&
-                            stop.sequenceNumber() <= lineItem.dropOffStopSequenceNumber())
-                    .mapToDouble(ShipmentStop::milesFromPreviousStop)
-                    .sum();
+    // Also used by TonMileCostAllocator, which validates stops and pickup/dropoff sequences the same way.
+    static double[] lineItemMiles(ShipmentView shipment, double[] lineItemMiles) {
+        String stopsError = stopsError(shipment);
+        if(stopsError != null) {
+            throw new IllegalArgumentException(stopsError);
         }
+        int lineItemCount = shipment.lineItemCount();
+
+        MileageIndex mileageIndex = MileageIndex.of(shipment);
 
-        Map<Long, Double> costsByOrderId = new HashMap<>();
-        for (ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
-            double shipmentMileage = shipment.shipmentStops().stream()
-                    .filter(stop -> stop.sequenceNumber() > lineItem.pickupStopSequenceNumber() &&
-                            stop.sequenceNumber() <= lineItem.dropOffStopSequenceNumber())
-                    .mapToDouble(ShipmentStop::milesFromPreviousStop)
-                    .sum();
-            double cost = (shipmentMileage / totalMiles) * totalInvoicedAmount;
-            costsByOrderId.merge(lineItem.orderId(), cost, Double::sum);
+        for (int i = 0; i < lineItemCount; i++) {
+            int pickup = shipment.lineItemPickupStopSequenceNumber(i);
+            int dropOff = shipment.lineItemDropOffStopSequenceNumber(i);
+            if(pickup >= dropOff) {
+                throw new IllegalArgumentException("Invalid pickup/dropoff sequence in line item: " + shipment.lineItemDescription(i));
+            }
+
+            lineItemMiles[i] = mileageIndex.milesBetween(pickup, dropOff);
         }
+        return lineItemMiles;
+    }
 
-        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    // Why the shipment's stops can't be allocated by mileage, or null if they can. Also used by
+    // MultiStrategyCostAllocator, which validates for several strategies at once.
+    static String stopsError(ShipmentView shipment) {
+        int stopCount = shipment.stopCount();
+        if(stopCount == 0 || shipment.lineItemCount() == 0) {
+            return "Empty shipment provided";
+        }
+        if(stopCount == 1) {
+            return "Cannot calculate cost by mileage with only one stop";
+        }
+        for(int i = 0; i < stopCount; i++) {
+            if(shipment.stopMilesFromPreviousStop(i) == 0.0 && shipment.stopSequenceNumber(i) > 1) {
+                return "Intermediate stop with zero distance from previous stop: " + shipment.stopAddress(i);
+            }
+        }
+        return null;
     }
 }
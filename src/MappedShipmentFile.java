@@ -0,0 +1,237 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read-only access to a ShipmentFile through memory mappings. Shipments are returned as MappedShipment views that read
+// their columns straight from the mapping, and can be looked up by shipmentId with a binary search over the index.
+// Views are cheap to create and safe to read from many threads. They remain readable after close(), until the
+// mappings are garbage collected.
+final class MappedShipmentFile implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final MappedByteBuffer index;
+    private final int shipmentCount;
+
+    private MappedShipmentFile(FileChannel channel, MappedByteBuffer[] segments, MappedByteBuffer index,
+                               int shipmentCount) {
+        this.channel = channel;
+        this.segments = segments;
+        this.index = index;
+        this.shipmentCount = shipmentCount;
+    }
+
+    static MappedShipmentFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long fileBytes = channel.size();
+            if(fileBytes < ShipmentFile.FILE_HEADER_BYTES) {
+                throw new IllegalArgumentException("Not a shipment file: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, ShipmentFile.FILE_HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt(0) != ShipmentFile.MAGIC) {
+                throw new IllegalArgumentException("Not a shipment file: " + path);
+            }
+            if(header.getInt(4) != ShipmentFile.VERSION) {
+                throw new IllegalArgumentException("Unsupported shipment file version " + header.getInt(4) + ": " + path);
+            }
+            long shipmentCount = header.getLong(8);
+            long indexOffset = header.getLong(16);
+            long maxRecordBytes = header.getLong(24);
+            long indexBytes = shipmentCount * ShipmentFile.INDEX_ENTRY_BYTES;
+            if(shipmentCount < 0 || indexBytes > Integer.MAX_VALUE || indexOffset < ShipmentFile.FILE_HEADER_BYTES ||
+                    indexOffset + indexBytes != fileBytes || maxRecordBytes < 0 ||
+                    maxRecordBytes > ShipmentFile.MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("Corrupt shipment file header: " + path);
+            }
+
+            int segmentCount = (int) ((indexOffset + ShipmentFile.SEGMENT_BYTES - 1) / ShipmentFile.SEGMENT_BYTES);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for(int i = 0; i < segmentCount; i++) {
+                long start = i * ShipmentFile.SEGMENT_BYTES;
+                long size = Math.min(indexOffset - start, ShipmentFile.SEGMENT_BYTES + maxRecordBytes);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexBytes);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedShipmentFile(channel, segments, index, (int) shipmentCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int shipmentCount() {
+        return shipmentCount;
+    }
+
+    // Shipments are numbered in shipmentId order.
+    long shipmentIdAt(int shipment) {
+        return index.getLong(shipment * ShipmentFile.INDEX_ENTRY_BYTES);
+    }
+
+    MappedShipment shipmentAt(int shipment) {
+        if(shipment < 0 || shipment >= shipmentCount) {
+            throw new IndexOutOfBoundsException("Shipment " + shipment + " out of range for " + shipmentCount + " shipments");
+        }
+        long recordOffset = index.getLong(shipment * ShipmentFile.INDEX_ENTRY_BYTES + 8);
+        int segment = (int) (recordOffset / ShipmentFile.SEGMENT_BYTES);
+        return new MappedShipment(segments[segment], (int) (recordOffset - segment * ShipmentFile.SEGMENT_BYTES));
+    }
+
+    // Returns null if the file has no shipment with this id.
+    MappedShipment find(long shipmentId) {
+        int low = 0;
+        int high = shipmentCount - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long midShipmentId = shipmentIdAt(mid);
+            if(midShipmentId < shipmentId) {
+                low = mid + 1;
+            } else if(midShipmentId > shipmentId) {
+                high = mid - 1;
+            } else {
+                return shipmentAt(mid);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// A ShipmentView over one record of a MappedShipmentFile. Every accessor reads the mapping directly.
+final class MappedShipment implements ShipmentView {
+
+    private final ByteBuffer buffer;
+    private final int base;
+    private final int stopCount;
+    private final int lineItemCount;
+    private final int stopMiles;
+    private final int orderIds;
+    private final int weights;
+    private final int stopSequenceNumbers;
+    private final int stopAddresses;
+    private final int qtys;
+    private final int pickups;
+    private final int dropOffs;
+    private final int descriptions;
+    private final int stringOffsets;
+    private final int stringData;
+
+    MappedShipment(ByteBuffer buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+        stopCount = buffer.getInt(base + 8);
+        lineItemCount = buffer.getInt(base + 12);
+        ShipmentFile.Layout layout = new ShipmentFile.Layout(stopCount, lineItemCount, buffer.getInt(base + 16));
+        stopMiles = base + (int) layout.stopMiles();
+        orderIds = base + (int) layout.orderIds();
+        weights = base + (int) layout.weights();
+        stopSequenceNumbers = base + (int) layout.stopSequenceNumbers();
+        stopAddresses = base + (int) layout.stopAddresses();
+        qtys = base + (int) layout.qtys();
+        pickups = base + (int) layout.pickups();
+        dropOffs = base + (int) layout.dropOffs();
+        descriptions = base + (int) layout.descriptions();
+        stringOffsets = base + (int) layout.stringOffsets();
+        stringData = base + (int) layout.stringData();
+    }
+
+    @Override
+    public long shipmentId() {
+        return buffer.getLong(base);
+    }
+
+    @Override
+    public int stopCount() {
+        return stopCount;
+    }
+
+    @Override
+    public int stopSequenceNumber(int stop) {
+        return buffer.getInt(stopSequenceNumbers + 4 * checkStop(stop));
+    }
+
+    @Override
+    public String stopAddress(int stop) {
+        return string(buffer.getInt(stopAddresses + 4 * checkStop(stop)));
+    }
+
+    @Override
+    public double stopMilesFromPreviousStop(int stop) {
+        return buffer.getDouble(stopMiles + 8 * checkStop(stop));
+    }
+
+    @Override
+    public int lineItemCount() {
+        return lineItemCount;
+    }
+
+    @Override
+    public long lineItemOrderId(int lineItem) {
+        return buffer.getLong(orderIds + 8 * checkLineItem(lineItem));
+    }
+
+    @Override
+    public String lineItemDescription(int lineItem) {
+        return string(buffer.getInt(descriptions + 4 * checkLineItem(lineItem)));
+    }
+
+    @Override
+    public int lineItemQty(int lineItem) {
+        return buffer.getInt(qtys + 4 * checkLineItem(lineItem));
+    }
+
+    @Override
+    public double lineItemWeight(int lineItem) {
+        return buffer.getDouble(weights + 8 * checkLineItem(lineItem));
+    }
+
+    @Override
+    public int lineItemPickupStopSequenceNumber(int lineItem) {
+        return buffer.getInt(pickups + 4 * checkLineItem(lineItem));
+    }
+
+    @Override
+    public int lineItemDropOffStopSequenceNumber(int lineItem) {
+        return buffer.getInt(dropOffs + 4 * checkLineItem(lineItem));
+    }
+
+    private String string(int stringIndex) {
+        if(stringIndex == ShipmentFile.NULL_STRING) {
+            return null;
+        }
+        int start = buffer.getInt(stringOffsets + 4 * stringIndex);
+        int end = buffer.getInt(stringOffsets + 4 * (stringIndex + 1));
+        byte[] bytes = new byte[end - start];
+        buffer.get(stringData + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Columns are packed back to back, so an out of range index would silently read the neighbouring column.
+    private int checkStop(int stop) {
+        if(stop < 0 || stop >= stopCount) {
+            throw new IndexOutOfBoundsException("Stop " + stop + " out of range for " + stopCount + " stops");
+        }
+        return stop;
+    }
+
+    private int checkLineItem(int lineItem) {
+        if(lineItem < 0 || lineItem >= lineItemCount) {
+            throw new IndexOutOfBoundsException("Line item " + lineItem + " out of range for " + lineItemCount + " line items");
+        }
+        return lineItem;
+    }
+}
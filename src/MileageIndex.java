@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+// Cumulative miles keyed by stop sequence number, built once per shipment so that the miles travelled by a line item
+// can be looked up without rescanning the stop list. milesBetween(pickup, dropOff) is the sum of milesFromPreviousStop
+// for every stop with pickup < sequenceNumber <= dropOff, which is exactly the filter MileageCostAllocator used to
+// stream over the stops with. Stops can arrive in any order, and duplicate sequence numbers are summed.
+final class MileageIndex {
+
+    // Sequence numbers are normally dense (1..n), so a flat table indexed by sequenceNumber - firstSequenceNumber gives
+    // O(1) lookups. If the numbering has large gaps we fall back to a sorted table and binary search instead of
+    // allocating a table sized by the gap.
+    private static final int MAX_SPARSE_FACTOR = 4;
+
+    private final int firstSequenceNumber;
+    private final int lastSequenceNumber;
+    private final double[] cumulativeMiles;
+    private final int[] sortedSequenceNumbers;  // Null when the dense table is used.
+
+    private MileageIndex(int firstSequenceNumber, int lastSequenceNumber, double[] cumulativeMiles,
+                         int[] sortedSequenceNumbers) {
+        this.firstSequenceNumber = firstSequenceNumber;
+        this.lastSequenceNumber = lastSequenceNumber;
+        this.cumulativeMiles = cumulativeMiles;
+        this.sortedSequenceNumbers = sortedSequenceNumbers;
+    }
+
+    static MileageIndex of(ShipmentView shipment) {
+        int stopCount = shipment.stopCount();
+        if(stopCount == 0) {
+            throw new IllegalArgumentException("Cannot index a shipment with no stops");
+        }
+
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for(int i = 0; i < stopCount; i++) {
+            first = Math.min(first, shipment.stopSequenceNumber(i));
+            last = Math.max(last, shipment.stopSequenceNumber(i));
+        }
+
+        long span = (long) last - first + 1;
+        if(span <= (long) stopCount * MAX_SPARSE_FACTOR) {
+            double[] cumulative = new double[(int) span];
+            for(int i = 0; i < stopCount; i++) {
+                cumulative[shipment.stopSequenceNumber(i) - first] += shipment.stopMilesFromPreviousStop(i);
+            }
+            for(int i = 1; i < cumulative.length; i++) {
+                cumulative[i] += cumulative[i - 1];
+            }
+            return new MileageIndex(first, last, cumulative, null);
+        }
+
+        // Sort (sequenceNumber, stop index) pairs packed into longs so we don't need a boxed comparator.
+        long[] sortedStops = new long[stopCount];
+        for(int i = 0; i < stopCount; i++) {
+            sortedStops[i] = ((long) shipment.stopSequenceNumber(i) << 32) | i;
+        }
+        Arrays.sort(sortedStops);
+        int[] sequenceNumbers = new int[stopCount];
+        double[] cumulative = new double[stopCount];
+        double runningMiles = 0.0;
+        for(int i = 0; i < stopCount; i++) {
+            int stop = (int) sortedStops[i];
+            runningMiles += shipment.stopMilesFromPreviousStop(stop);
+            sequenceNumbers[i] = shipment.stopSequenceNumber(stop);
+            cumulative[i] = runningMiles;
+        }
+        return new MileageIndex(first, last, cumulative, sequenceNumbers);
+    }
+
+    double milesBetween(int pickupStopSequenceNumber, int dropOffStopSequenceNumber) {
+        return milesUpTo(dropOffStopSequenceNumber) - milesUpTo(pickupStopSequenceNumber);
+    }
+
+    // Total miles of all stops with sequenceNumber <= the given sequence number.
+    private double milesUpTo(int sequenceNumber) {
+        if(sequenceNumber < firstSequenceNumber) {
+            return 0.0;
+        }
+        if(sequenceNumber >= lastSequenceNumber) {
+            return cumulativeMiles[cumulativeMiles.length - 1];
+        }
+        if(sortedSequenceNumbers == null) {
+            return cumulativeMiles[sequenceNumber - firstSequenceNumber];
+        }
+
+        // Find the last stop with sequenceNumber <= the given sequence number.
+        int low = 0;
+        int high = sortedSequenceNumbers.length - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(sortedSequenceNumbers[mid] <= sequenceNumber) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return cumulativeMiles[low];
+    }
+}
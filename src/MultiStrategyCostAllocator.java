@@ -0,0 +1,168 @@
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Allocates one shipment's invoice under several strategies at once, e.g. for side-by-side weight and mileage reports,
+// in two passes over the line items whatever the number of strategies:
+//  1. The shipment is validated once for every strategy, one MileageIndex is built if any strategy needs miles, and a
+//     single loop reads each line item once to hash its order id, check it, and gather its weight and miles.
+//  2. Once the total share of each strategy is known, a single loop adds every strategy's cost of each line item to its
+//     order.
+// The result maps share a copy of the one order table instead of each being built up by hashing. Results are
+// bit-identical to running the allocators one by one: the shares are the same values, the totals are summed in the same
+// order (the weight total through DoubleStream.sum, as WeightCostAllocator does, and the ton-mile total through
+// TonMileCostAllocator's kernel), and the costs are added per order in line item order.
+//
+// If any strategy rejects the shipment, the rejection the first such strategy would throw is thrown and no results are
+// produced. Working arrays are reused from one shipment to the next, so an instance must not be shared between threads.
+final class MultiStrategyCostAllocator {
+
+    private final AllocationStrategy[] strategies;
+    private final boolean needsWeights;
+    private final boolean needsMiles;
+    private final TonMileCostAllocator tonMile = (TonMileCostAllocator) AllocationStrategy.TON_MILE.costAllocator();
+
+    private final OrderCostMap orders = new OrderCostMap();
+    private final double[][] shares;
+    private final double[] totalShares;
+    private final double[][] costs;
+    private int[] orderIndexes = new int[0];
+    private double[] weights = new double[0];
+    private double[] miles = new double[0];
+    private double[] tonMiles = new double[0];
+
+    MultiStrategyCostAllocator(AllocationStrategy... strategies) {
+        if(strategies.length == 0) {
+            throw new IllegalArgumentException("At least one allocation strategy is required");
+        }
+        this.strategies = strategies.clone();
+        boolean weightsNeeded = false;
+        boolean milesNeeded = false;
+        for(AllocationStrategy strategy : strategies) {
+            weightsNeeded |= strategy != AllocationStrategy.MILEAGE;
+            milesNeeded |= strategy != AllocationStrategy.WEIGHT;
+        }
+        needsWeights = weightsNeeded;
+        needsMiles = milesNeeded;
+        shares = new double[strategies.length][];
+        totalShares = new double[strategies.length];
+        costs = new double[strategies.length][0];
+    }
+
+    Map<AllocationStrategy, CostAllocationResult> allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        OrderCostMap[] costsByStrategy = new OrderCostMap[strategies.length];
+        for(int s = 0; s < strategies.length; s++) {
+            costsByStrategy[s] = new OrderCostMap();
+        }
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByStrategy);
+
+        Map<AllocationStrategy, CostAllocationResult> results = new EnumMap<>(AllocationStrategy.class);
+        for(int s = 0; s < strategies.length; s++) {
+            results.put(strategies[s], new CostAllocationResult(shipment.shipmentId(), costsByStrategy[s]));
+        }
+        return results;
+    }
+
+    // Writes the costs of strategies[s] into costsByStrategy[s], replacing their contents.
+    void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap[] costsByStrategy) {
+        if(costsByStrategy.length != strategies.length) {
+            throw new IllegalArgumentException("Expected " + strategies.length + " cost maps, got " + costsByStrategy.length);
+        }
+        int lineItemCount = shipment.lineItemCount();
+        ensureCapacity(lineItemCount);
+
+        // The same checks, in the same order, as MileageCostAllocator.lineItemMiles, with the first failure kept.
+        String mileageError = null;
+        MileageIndex mileageIndex = null;
+        if(needsMiles) {
+            mileageError = MileageCostAllocator.stopsError(shipment);
+            if(mileageError == null) {
+                mileageIndex = MileageIndex.of(shipment);
+            }
+        }
+
+        orders.reset();
+        boolean nonPositiveWeight = false;
+        boolean nanWeight = false;
+        double totalMiles = 0.0;
+        for(int i = 0; i < lineItemCount; i++) {
+            orderIndexes[i] = orders.addOrder(shipment.lineItemOrderId(i));
+            if(needsWeights) {
+                double weight = shipment.lineItemWeight(i);
+                weights[i] = weight;
+                nonPositiveWeight |= weight <= 0.0;
+                nanWeight |= Double.isNaN(weight);
+            }
+            if(mileageIndex != null) {
+                int pickup = shipment.lineItemPickupStopSequenceNumber(i);
+                int dropOff = shipment.lineItemDropOffStopSequenceNumber(i);
+                if(pickup >= dropOff) {
+                    mileageError = "Invalid pickup/dropoff sequence in line item: " + shipment.lineItemDescription(i);
+                    mileageIndex = null;
+                } else {
+                    miles[i] = mileageIndex.milesBetween(pickup, dropOff);
+                    totalMiles += miles[i];
+                }
+            }
+        }
+
+        for(int s = 0; s < strategies.length; s++) {
+            String error = switch(strategies[s]) {
+                // WeightCostAllocator checks that the smallest weight is positive, which a NaN weight makes false.
+                case WEIGHT -> lineItemCount == 0 ? "Shipment has no line items"
+                        : nonPositiveWeight && !nanWeight ? "Invalid weight in shipment" : null;
+                case MILEAGE -> mileageError;
+                case TON_MILE -> nonPositiveWeight ? "Invalid weight in shipment" : mileageError;
+            };
+            if(error != null) {
+                throw new IllegalArgumentException(error);
+            }
+        }
+
+        for(int s = 0; s < strategies.length; s++) {
+            switch(strategies[s]) {
+                case WEIGHT -> {
+                    shares[s] = weights;
+                    totalShares[s] = Arrays.stream(weights, 0, lineItemCount).sum();
+                }
+                case MILEAGE -> {
+                    shares[s] = miles;
+                    totalShares[s] = totalMiles;
+                }
+                case TON_MILE -> {
+                    shares[s] = tonMiles;
+                    totalShares[s] = tonMile.kernel(lineItemCount).multiplyAndSum(weights, miles, tonMiles,
+                            lineItemCount);
+                }
+            }
+        }
+
+        // Costs are accumulated per order in line item order, starting from zero, exactly as OrderCostMap.add does.
+        int orderCount = orders.size();
+        int strategyCount = strategies.length;
+        for(int s = 0; s < strategyCount; s++) {
+            Arrays.fill(costs[s], 0, orderCount, 0.0);
+        }
+        for(int i = 0; i < lineItemCount; i++) {
+            int order = orderIndexes[i];
+            for(int s = 0; s < strategyCount; s++) {
+                costs[s][order] += (shares[s][i] / totalShares[s]) * totalInvoicedAmount;
+            }
+        }
+        for(int s = 0; s < strategyCount; s++) {
+            costsByStrategy[s].setOrders(orders, costs[s]);
+        }
+    }
+
+    private void ensureCapacity(int lineItemCount) {
+        if(orderIndexes.length < lineItemCount) {
+            orderIndexes = new int[lineItemCount];
+            weights = new double[lineItemCount];
+            miles = new double[lineItemCount];
+            tonMiles = new double[lineItemCount];
+            for(int s = 0; s < strategies.length; s++) {
+                costs[s] = new double[lineItemCount];
+            }
+        }
+    }
+}
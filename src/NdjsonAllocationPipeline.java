@@ -0,0 +1,163 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Allocates costs for a stream of newline-delimited shipment JSON records, one shipment per line with its
+// totalInvoicedAmount (see ShipmentJson), and writes one NDJSON line per order:
+//
+//   {"shipmentId":1,"orderId":1,"cost":740.6033...}
+//
+// A shipment rejected by the allocator produces a single error line instead, and a line that can't be parsed is reported
+// by its line number:
+//
+//   {"shipmentId":2,"error":"Shipment has no line items"}
+//   {"line":3,"error":"Malformed shipment JSON at position 17: Expected ':'"}
+//
+// Parsing runs on its own thread and hands records to the allocating thread through a bounded queue, so at most
+// queueCapacity parsed shipments are held in memory no matter how large the input is. The allocator writes into a
+// single reused OrderCostMap.
+class NdjsonAllocationPipeline {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    record Summary(long shipments, long failedShipments, long orders) {}
+
+    // A parsed line, a line that failed to parse, a failure that ended parsing (an IOException, RuntimeException or
+    // Error), or END.
+    private record ParsedLine(long lineNumber, ShipmentInvoice shipmentInvoice, String errorMessage,
+                              Throwable failure) {
+        static final ParsedLine END = new ParsedLine(0, null, null, null);
+    }
+
+    private final CostAllocator costAllocator;
+    private final int queueCapacity;
+
+    NdjsonAllocationPipeline(CostAllocator costAllocator) {
+        this(costAllocator, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    NdjsonAllocationPipeline(CostAllocator costAllocator, int queueCapacity) {
+        if(queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        }
+        this.costAllocator = costAllocator;
+        this.queueCapacity = queueCapacity;
+    }
+
+    Summary run(Reader input, Writer output) throws IOException, InterruptedException {
+        BlockingQueue<ParsedLine> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Thread parser = new Thread(() -> parse(input, queue), "ndjson-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        long shipments = 0;
+        long failedShipments = 0;
+        long orders = 0;
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        Writer out = output instanceof BufferedWriter ? output : new BufferedWriter(output);
+        try {
+            while(true) {
+                ParsedLine line = queue.take();
+                if(line == ParsedLine.END) {
+                    break;
+                }
+                if(line.failure() instanceof IOException e) {
+                    throw e;
+                } else if(line.failure() instanceof RuntimeException e) {
+                    throw e;
+                } else if(line.failure() != null) {
+                    throw (Error) line.failure();
+                }
+
+                shipments++;
+                if(line.errorMessage() != null) {
+                    failedShipments++;
+                    out.write("{\"line\":" + line.lineNumber() + ",\"error\":");
+                    ShipmentJson.writeString(line.errorMessage(), out);
+                    out.write("}\n");
+                    continue;
+                }
+
+                Shipment shipment = line.shipmentInvoice().shipment();
+                try {
+                    costAllocator.allocateCosts(shipment, line.shipmentInvoice().totalInvoicedAmount(), costsByOrderId);
+                } catch (IllegalArgumentException e) {
+                    failedShipments++;
+                    ShipmentJson.writeError(shipment.shipmentId(), e.getMessage(), out);
+                    out.write('\n');
+                    continue;
+                }
+                for(int i = 0; i < costsByOrderId.size(); i++) {
+                    ShipmentJson.writeOrderCost(shipment.shipmentId(), costsByOrderId.orderIdAt(i),
+                            costsByOrderId.costAt(i), out);
+                    out.write('\n');
+                }
+                orders += costsByOrderId.size();
+            }
+            out.flush();
+        } finally {
+            // Unblocks the parser if we stopped early.
+            parser.interrupt();
+        }
+        return new Summary(shipments, failedShipments, orders);
+    }
+
+    // Always finishes by queuing END or, if reading failed or parsing threw something other than a per-line
+    // IllegalArgumentException, the failure, so that run() never waits for a parser that has died.
+    private static void parse(Reader input, BlockingQueue<ParsedLine> queue) {
+        BufferedReader reader = input instanceof BufferedReader buffered ? buffered : new BufferedReader(input);
+        long lineNumber = 0;
+        ParsedLine last = ParsedLine.END;
+        try {
+            String text;
+            while((text = reader.readLine()) != null) {
+                lineNumber++;
+                if(text.isBlank()) {
+                    continue;
+                }
+                ParsedLine line;
+                try {
+                    line = new ParsedLine(lineNumber, ShipmentJson.parseShipmentInvoice(text), null, null);
+                } catch (IllegalArgumentException e) {
+                    line = new ParsedLine(lineNumber, null, e.getMessage(), null);
+                }
+                queue.put(line);
+            }
+        } catch (InterruptedException e) {
+            // run() has stopped taking lines.
+            Thread.currentThread().interrupt();
+            last = null;
+        } catch (IOException | RuntimeException | Error e) {
+            last = new ParsedLine(lineNumber, null, null, e);
+        } finally {
+            if(last != null) {
+                try {
+                    queue.put(last);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Usage: NdjsonAllocationPipeline <input.ndjson> <output.ndjson> <weight|mileage|ton-mile>
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length != 3) {
+            System.err.println("Usage: NdjsonAllocationPipeline <input.ndjson> <output.ndjson> <weight|mileage|ton-mile>");
+            System.exit(2);
+        }
+        CostAllocator costAllocator = AllocationStrategy.fromName(args[2]).costAllocator();
+        try(Reader input = Files.newBufferedReader(Path.of(args[0]), StandardCharsets.UTF_8);
+            Writer output = Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            Summary summary = new NdjsonAllocationPipeline(costAllocator).run(input, output);
+            System.out.println(summary);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Running total cost per order across every shipment recorded, fed concurrently by many allocation threads.
+//
+// Orders are spread over stripes by a hash of the order id, each an OrderCostMap under its own lock, so threads only
+// contend when they add to orders in the same stripe at the same moment. Each recorded result is applied atomically
+// with respect to snapshot(): writers announce themselves in a padded per-thread-hash in-flight counter (no shared
+// write), and a snapshot raises a flag that holds new writers back, waits for the writers in flight to finish, then
+// copies the stripes. A snapshot therefore never sees part of a shipment, and only pauses writers for as long as it
+// takes to copy the stripe arrays.
+final class OrderCostLedger {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    // Each in-flight counter gets its own 128 bytes so writers on different cores don't share cache lines.
+    private static final int COUNTER_STRIDE = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final AtomicLongArray inFlight;
+    private final int counterMask;
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private volatile boolean snapshotPending;
+    private final LongAdder shipments = new LongAdder();
+
+    OrderCostLedger() {
+        this(DEFAULT_STRIPES);
+    }
+
+    OrderCostLedger(int stripeCount) {
+        if(stripeCount < 1 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a power of two, got " + stripeCount);
+        }
+        stripes = new Stripe[stripeCount];
+        for(int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+        int counters = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        inFlight = new AtomicLongArray(counters * COUNTER_STRIDE);
+        counterMask = counters - 1;
+    }
+
+    void record(CostAllocationResult result) {
+        if(result.costsByOrderId() instanceof OrderCostMap costs) {
+            record(costs);
+            return;
+        }
+        int counter = enter();
+        try {
+            result.costsByOrderId().forEach(this::add);
+            shipments.increment();
+        } finally {
+            exit(counter);
+        }
+    }
+
+    // Adds one shipment's per-order costs.
+    void record(OrderCostMap costsByOrderId) {
+        int counter = enter();
+        try {
+            for(int i = 0; i < costsByOrderId.size(); i++) {
+                add(costsByOrderId.orderIdAt(i), costsByOrderId.costAt(i));
+            }
+            shipments.increment();
+        } finally {
+            exit(counter);
+        }
+    }
+
+    double cost(long orderId, double defaultCost) {
+        Stripe stripe = stripeFor(orderId);
+        stripe.lock.lock();
+        try {
+            return stripe.costs.getCost(orderId, defaultCost);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    Snapshot snapshot() {
+        OrderCostMap[] copies = new OrderCostMap[stripes.length];
+        long shipmentCount;
+        snapshotLock.lock();
+        try {
+            snapshotPending = true;
+            awaitWritersInFlight();
+            for(int i = 0; i < stripes.length; i++) {
+                // Uncontended now, but the lock also makes the writers' updates visible.
+                stripes[i].lock.lock();
+                try {
+                    copies[i] = stripes[i].costs.immutableCopy();
+                } finally {
+                    stripes[i].lock.unlock();
+                }
+            }
+            shipmentCount = shipments.sum();
+        } finally {
+            snapshotPending = false;
+            snapshotLock.unlock();
+        }
+        return new Snapshot(copies, stripeShift, shipmentCount);
+    }
+
+    // An immutable view of the ledger at one point in time, with every recorded shipment either fully in or fully out.
+    static final class Snapshot {
+        private final OrderCostMap[] stripes;
+        private final int stripeShift;
+        private final long shipments;
+
+        private Snapshot(OrderCostMap[] stripes, int stripeShift, long shipments) {
+            this.stripes = stripes;
+            this.stripeShift = stripeShift;
+            this.shipments = shipments;
+        }
+
+        long shipments() {
+            return shipments;
+        }
+
+        int orderCount() {
+            int orders = 0;
+            for(OrderCostMap stripe : stripes) {
+                orders += stripe.size();
+            }
+            return orders;
+        }
+
+        double cost(long orderId, double defaultCost) {
+            return stripes[stripeIndex(orderId, stripeShift)].getCost(orderId, defaultCost);
+        }
+
+        void forEachOrder(OrderCostConsumer consumer) {
+            for(OrderCostMap stripe : stripes) {
+                stripe.forEachOrder(consumer);
+            }
+        }
+
+        // The n orders with the highest total cost, highest first, found with a size-n min-heap in O(orders log n).
+        // Orders with equal costs come out in no particular order.
+        OrderCostMap topOrders(int n) {
+            if(n < 0) {
+                throw new IllegalArgumentException("Top order count can't be negative: " + n);
+            }
+            n = Math.min(n, orderCount());
+            long[] heapOrderIds = new long[n];
+            double[] heapCosts = new double[n];
+            int heapSize = 0;
+            for(OrderCostMap stripe : stripes) {
+                for(int i = 0; i < stripe.size(); i++) {
+                    double cost = stripe.costAt(i);
+                    if(heapSize < n) {
+                        heapOrderIds[heapSize] = stripe.orderIdAt(i);
+                        heapCosts[heapSize] = cost;
+                        siftUp(heapOrderIds, heapCosts, heapSize++);
+                    } else if(n > 0 && cost > heapCosts[0]) {
+                        heapOrderIds[0] = stripe.orderIdAt(i);
+                        heapCosts[0] = cost;
+                        siftDown(heapOrderIds, heapCosts, heapSize);
+                    }
+                }
+            }
+
+            // Popping the min-heap yields the lowest cost first, so fill from the back.
+            long[] sortedOrderIds = new long[heapSize];
+            double[] sortedCosts = new double[heapSize];
+            for(int remaining = heapSize; remaining > 0; remaining--) {
+                sortedOrderIds[remaining - 1] = heapOrderIds[0];
+                sortedCosts[remaining - 1] = heapCosts[0];
+                heapOrderIds[0] = heapOrderIds[remaining - 1];
+                heapCosts[0] = heapCosts[remaining - 1];
+                siftDown(heapOrderIds, heapCosts, remaining - 1);
+            }
+            OrderCostMap top = new OrderCostMap(heapSize);
+            for(int i = 0; i < heapSize; i++) {
+                top.add(sortedOrderIds[i], sortedCosts[i]);
+            }
+            return top.immutableCopy();
+        }
+
+        private static void siftUp(long[] orderIds, double[] costs, int index) {
+            while(index > 0) {
+                int parent = (index - 1) / 2;
+                if(costs[parent] <= costs[index]) {
+                    return;
+                }
+                swap(orderIds, costs, parent, index);
+                index = parent;
+            }
+        }
+
+        private static void siftDown(long[] orderIds, double[] costs, int size) {
+            int index = 0;
+            while(true) {
+                int smallest = index;
+                int left = index * 2 + 1;
+                int right = left + 1;
+                if(left < size && costs[left] < costs[smallest]) {
+                    smallest = left;
+                }
+                if(right < size && costs[right] < costs[smallest]) {
+                    smallest = right;
+                }
+                if(smallest == index) {
+                    return;
+                }
+                swap(orderIds, costs, index, smallest);
+                index = smallest;
+            }
+        }
+
+        private static void swap(long[] orderIds, double[] costs, int i, int j) {
+            long orderId = orderIds[i];
+            orderIds[i] = orderIds[j];
+            orderIds[j] = orderId;
+            double cost = costs[i];
+            costs[i] = costs[j];
+            costs[j] = cost;
+        }
+    }
+
+    private void add(long orderId, double cost) {
+        Stripe stripe = stripeFor(orderId);
+        stripe.lock.lock();
+        try {
+            stripe.costs.add(orderId, cost);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Registers the current thread as a writer, waiting out any snapshot in progress, and returns its counter.
+    private int enter() {
+        int counter = (int) (Thread.currentThread().threadId() & counterMask) * COUNTER_STRIDE;
+        while(true) {
+            inFlight.getAndIncrement(counter);
+            if(!snapshotPending) {
+                return counter;
+            }
+            inFlight.getAndDecrement(counter);
+            // snapshotPending is only set while snapshotLock is held, so this waits for the snapshot to finish.
+            snapshotLock.lock();
+            snapshotLock.unlock();
+        }
+    }
+
+    private void exit(int counter) {
+        inFlight.getAndDecrement(counter);
+    }
+
+    private void awaitWritersInFlight() {
+        for(int counter = 0; counter < inFlight.length(); counter += COUNTER_STRIDE) {
+            while(inFlight.get(counter) != 0) {
+                Thread.onSpinWait();
+                Thread.yield();
+            }
+        }
+    }
+
+    private Stripe stripeFor(long orderId) {
+        return stripes[stripeIndex(orderId, stripeShift)];
+    }
+
+    // Fibonacci hashing: the top bits of orderId times 2^64 / golden ratio. Java takes shift distances mod 64, so a shift
+    // of 64 (one stripe) would shift nothing and is handled explicitly.
+    private static int stripeIndex(long orderId, int stripeShift) {
+        return stripeShift == 64 ? 0 : (int) ((orderId * 0x9e3779b97f4a7c15L) >>> stripeShift);
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final OrderCostMap costs = new OrderCostMap();
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Receives one order's allocated cost without boxing.
+@FunctionalInterface
+interface OrderCostConsumer {
+    void accept(long orderId, double cost);
+}
+
+// Per-order costs stored in primitive arrays, so allocators can accumulate line item costs without allocating a boxed
+// Long, a boxed Double and a map node per line item. Orders are kept in the order they were first added, and an
+// open-addressing table of indexes into those arrays finds an order in O(1).
+//
+// Allocators write through add() and reset(). Everyone else should treat it as read-only: the Map<Long, Double> view
+// used by existing callers of CostAllocationResult.costsByOrderId() is backed by the arrays and boxes only the entries
+// that are actually read, and rejects modification. Use forEachOrder() or orderIdAt()/costAt() to iterate without
+// allocating. immutableCopy() returns a copy that rejects add() and reset() too, for results that are shared.
+final class OrderCostMap extends AbstractMap<Long, Double> {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] orderIds;
+    private double[] costs;
+    private int size;
+
+    // Each slot holds an index into orderIds/costs plus one, or 0 if the slot is empty. The length is always a power of
+    // two and at least twice the capacity of orderIds, so the load factor stays at or below 0.5.
+    private int[] slots;
+
+    private boolean immutable;
+
+    OrderCostMap() {
+        this(MIN_CAPACITY);
+    }
+
+    OrderCostMap(int expectedOrders) {
+        int capacity = Math.max(MIN_CAPACITY, expectedOrders);
+        orderIds = new long[capacity];
+        costs = new double[capacity];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    void add(long orderId, double cost) {
+        int index = addOrder(orderId);  // May grow, and so replace, costs.
+        costs[index] += cost;
+    }
+
+    // Adds the order with a cost of zero if it isn't in the map yet, and returns its index.
+    int addOrder(long orderId) {
+        checkMutable();
+        int slot = findSlot(orderId);
+        int index = slots[slot] - 1;
+        if(index >= 0) {
+            return index;
+        }
+
+        if(size == orderIds.length) {
+            grow();
+            slot = findSlot(orderId);
+        }
+        orderIds[size] = orderId;
+        costs[size] = 0.0;
+        slots[slot] = ++size;
+        return size - 1;
+    }
+
+    // Removes all orders but keeps the arrays, so the map can be reused for the next shipment.
+    void reset() {
+        checkMutable();
+        if(size > 0) {
+            Arrays.fill(slots, 0);
+            size = 0;
+        }
+    }
+
+    // Replaces the contents with the orders of another map, in the same order, with costs taken from costsByOrder by
+    // order index. Copies the hash table instead of rehashing every order.
+    void setOrders(OrderCostMap orders, double[] costsByOrder) {
+        checkMutable();
+        if(orderIds.length != orders.orderIds.length) {
+            orderIds = new long[orders.orderIds.length];
+            costs = new double[orders.orderIds.length];
+        }
+        if(slots.length != orders.slots.length) {
+            slots = new int[orders.slots.length];
+        }
+        System.arraycopy(orders.orderIds, 0, orderIds, 0, orders.size);
+        System.arraycopy(costsByOrder, 0, costs, 0, orders.size);
+        System.arraycopy(orders.slots, 0, slots, 0, slots.length);
+        size = orders.size;
+    }
+
+    // A mutable copy made by copying the arrays rather than re-adding every order.
+    OrderCostMap copy() {
+        OrderCostMap copy = new OrderCostMap();
+        copy.orderIds = Arrays.copyOf(orderIds, orderIds.length);
+        copy.costs = Arrays.copyOf(costs, costs.length);
+        copy.slots = Arrays.copyOf(slots, slots.length);
+        copy.size = size;
+        return copy;
+    }
+
+    OrderCostMap immutableCopy() {
+        OrderCostMap copy = copy();
+        copy.immutable = true;
+        return copy;
+    }
+
+    boolean isImmutable() {
+        return immutable;
+    }
+
+    double getCost(long orderId, double defaultCost) {
+        int index = slots[findSlot(orderId)] - 1;
+        return index >= 0 ? costs[index] : defaultCost;
+    }
+
+    boolean containsOrder(long orderId) {
+        return slots[findSlot(orderId)] != 0;
+    }
+
+    long orderIdAt(int index) {
+        return orderIds[index];
+    }
+
+    double costAt(int index) {
+        return costs[index];
+    }
+
+    void forEachOrder(OrderCostConsumer consumer) {
+        for(int i = 0; i < size; i++) {
+            consumer.accept(orderIds[i], costs[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long orderId && containsOrder(orderId);
+    }
+
+    @Override
+    public Double get(Object key) {
+        if(!(key instanceof Long orderId)) {
+            return null;
+        }
+        int index = slots[findSlot(orderId)] - 1;
+        return index >= 0 ? costs[index] : null;
+    }
+
+    @Override
+    public Set<Entry<Long, Double>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Long, Double>> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<Long, Double> next() {
+                        if(next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(orderIds[index], costs[index]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void checkMutable() {
+        if(immutable) {
+            throw new UnsupportedOperationException("Order costs are immutable");
+        }
+    }
+
+    // Returns the slot holding orderId, or the empty slot where it would be inserted.
+    private int findSlot(long orderId) {
+        int mask = slots.length - 1;
+        int slot = hash(orderId) & mask;
+        while(true) {
+            int index = slots[slot] - 1;
+            if(index < 0 || orderIds[index] == orderId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        int capacity = orderIds.length * 2;
+        orderIds = Arrays.copyOf(orderIds, capacity);
+        costs = Arrays.copyOf(costs, capacity);
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for(int i = 0; i < size; i++) {
+            int slot = hash(orderIds[i]) & mask;
+            while(slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    // Order ids are often sequential, so spread the bits before masking (finalizer from MurmurHash3).
+    private static int hash(long orderId) {
+        long h = orderId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
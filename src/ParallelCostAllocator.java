@@ -0,0 +1,314 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Allocates a single very large shipment, e.g. a parcel-level consolidation with hundreds of thousands of line items,
+// on a ForkJoinPool, in two parallel phases:
+//  1. The line items are cut into fixed chunks of CHUNK_SIZE, and the wrapped allocator computes and validates the
+//     shares of each chunk. The chunk totals are then added up in chunk order.
+//  2. The orders are partitioned by a hash of the order id, one partition per pool thread. Each partition scans all of
+//     the line items, picks out its own orders and adds up their shares.
+// Each order's cost is then (order share / total share) * totalInvoicedAmount.
+//
+// Every sum is Neumaier-compensated (a running sum plus the rounding error it has shed). The chunks depend only on the
+// number of line items, and each order's share is summed over its line items in shipment order whichever partition it
+// lands in. The costs are therefore bit-for-bit the same whatever the pool's parallelism, and whether or not the
+// shipment reaches the threshold at which work is forked at all (below it, both phases run on the calling thread as a
+// single partition). They are at least as accurate as the wrapped allocator's, but summing per order before dividing
+// rounds differently from dividing per line item, so they aren't bit-identical to it. A rejected shipment throws the
+// same message as the wrapped allocator would.
+final class ParallelCostAllocator implements CostAllocator {
+
+    static final int CHUNK_SIZE = 8_192;
+    static final int DEFAULT_PARALLEL_THRESHOLD = 65_536;
+
+    private final ProportionalCostAllocator shareAllocator;
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+
+    ParallelCostAllocator(AllocationStrategy strategy) {
+        this(strategy.costAllocator(), ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    // Shipments with at least parallelThreshold line items are split across the pool.
+    ParallelCostAllocator(ProportionalCostAllocator shareAllocator, ForkJoinPool pool, int parallelThreshold) {
+        if(parallelThreshold < 0) {
+            throw new IllegalArgumentException("Parallel threshold can't be negative");
+        }
+        this.shareAllocator = shareAllocator;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        int lineItemCount = shipment.lineItemCount();
+        if(lineItemCount == 0) {
+            // Let the wrapped allocator reject the empty shipment with its own message.
+            shareAllocator.lineItemShares(shipment, new double[0]);
+            costsByOrderId.reset();
+            return;
+        }
+        boolean parallel = lineItemCount >= parallelThreshold;
+
+        int chunkCount = (lineItemCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Shares shares = new Shares(shipment, chunkCount);
+        SharesTask sharesTask = new SharesTask(shares, 0, chunkCount);
+        if(parallel) {
+            pool.invoke(sharesTask);
+        } else {
+            sharesTask.compute();
+        }
+        double totalShare = shares.total();
+
+        int partitionCount = parallel ? Integer.highestOneBit(Math.max(1, pool.getParallelism())) : 1;
+        OrderShares[] partitions = new OrderShares[partitionCount];
+        for(int p = 0; p < partitionCount; p++) {
+            partitions[p] = new OrderShares(shares, p, partitionCount);
+        }
+        if(parallel) {
+            // Forked from inside the pool, since fork() from any other thread would go to the common pool.
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(partitions)));
+        } else {
+            partitions[0].compute();
+        }
+
+        // Each partition holds its orders in first-seen order, so merging them by the line item each was first seen at
+        // writes the costs in first-seen order overall, as the other allocators do, whatever the number of partitions.
+        costsByOrderId.reset();
+        int[] next = new int[partitionCount];
+        while(true) {
+            int earliest = -1;
+            for(int p = 0; p < partitionCount; p++) {
+                if(next[p] < partitions[p].orders.size() && (earliest < 0 ||
+                        partitions[p].firstLineItems[next[p]] < partitions[earliest].firstLineItems[next[earliest]])) {
+                    earliest = p;
+                }
+            }
+            if(earliest < 0) {
+                break;
+            }
+            OrderShares partition = partitions[earliest];
+            int i = next[earliest]++;
+            double orderShare = partition.shareSums[i] + partition.shareCompensations[i];
+            costsByOrderId.add(partition.orders.orderIdAt(i), (orderShare / totalShare) * totalInvoicedAmount);
+        }
+    }
+
+    // Neumaier's correction: the part of a + b lost when rounding it to sum.
+    private static double roundingError(double a, double b, double sum) {
+        return Math.abs(a) >= Math.abs(b) ? (a - sum) + b : (b - sum) + a;
+    }
+
+    // The line item shares of a shipment, filled in chunk by chunk, with each chunk's compensated total or rejection.
+    private static final class Shares {
+        private final ShipmentView shipment;
+        private final double[] lineItemShares;
+        private final double[] chunkSums;
+        private final double[] chunkCompensations;
+        private final IllegalArgumentException[] chunkErrors;
+
+        private Shares(ShipmentView shipment, int chunkCount) {
+            this.shipment = shipment;
+            lineItemShares = new double[shipment.lineItemCount()];
+            chunkSums = new double[chunkCount];
+            chunkCompensations = new double[chunkCount];
+            chunkErrors = new IllegalArgumentException[chunkCount];
+        }
+
+        // Adds up the chunk totals in chunk order, or throws the rejection from the earliest chunk, which is what a
+        // sequential pass over the line items would have thrown.
+        private double total() {
+            double sum = 0.0;
+            double compensation = 0.0;
+            for(int chunk = 0; chunk < chunkSums.length; chunk++) {
+                if(chunkErrors[chunk] != null) {
+                    throw new IllegalArgumentException(chunkErrors[chunk].getMessage(), chunkErrors[chunk]);
+                }
+                double newSum = sum + chunkSums[chunk];
+                compensation += chunkCompensations[chunk] + roundingError(sum, chunkSums[chunk], newSum);
+                sum = newSum;
+            }
+            return sum + compensation;
+        }
+    }
+
+    @SuppressWarnings("serial")  // Never serialized.
+    private class SharesTask extends RecursiveAction {
+
+        private final Shares shares;
+        private final int fromChunk;
+        private final int toChunk;
+
+        SharesTask(Shares shares, int fromChunk, int toChunk) {
+            this.shares = shares;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if(toChunk - fromChunk == 1) {
+                chunk(fromChunk);
+                return;
+            }
+
+            int mid = (fromChunk + toChunk) >>> 1;
+            invokeAll(new SharesTask(shares, fromChunk, mid), new SharesTask(shares, mid, toChunk));
+        }
+
+        private void chunk(int chunk) {
+            int from = chunk * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, shares.lineItemShares.length);
+            double[] chunkShares = new double[to - from];
+            try {
+                shareAllocator.lineItemShares(new LineItemRange(shares.shipment, from, to), chunkShares);
+            } catch (IllegalArgumentException e) {
+                shares.chunkErrors[chunk] = e;
+                return;
+            }
+            double sum = 0.0;
+            double compensation = 0.0;
+            for(int i = 0; i < chunkShares.length; i++) {
+                double newSum = sum + chunkShares[i];
+                compensation += roundingError(sum, chunkShares[i], newSum);
+                sum = newSum;
+            }
+            System.arraycopy(chunkShares, 0, shares.lineItemShares, from, chunkShares.length);
+            shares.chunkSums[chunk] = sum;
+            shares.chunkCompensations[chunk] = compensation;
+        }
+    }
+
+    // The compensated share sums of the orders whose id hashes to one partition, in line item order, and the line item
+    // each order was first seen at.
+    @SuppressWarnings("serial")  // Never serialized.
+    private static final class OrderShares extends RecursiveAction {
+
+        private final Shares shares;
+        private final int partition;
+        private final int partitionShift;
+        private final OrderCostMap orders = new OrderCostMap();
+        private double[] shareSums = new double[16];
+        private double[] shareCompensations = new double[16];
+        private int[] firstLineItems = new int[16];
+
+        OrderShares(Shares shares, int partition, int partitionCount) {
+            this.shares = shares;
+            this.partition = partition;
+            // Fibonacci hashing on the top bits of the order id; a shift of 64 would be a no-op, so one partition is
+            // special-cased in partitionOf.
+            this.partitionShift = 64 - Integer.numberOfTrailingZeros(partitionCount);
+        }
+
+        @Override
+        protected void compute() {
+            ShipmentView shipment = shares.shipment;
+            double[] lineItemShares = shares.lineItemShares;
+            for(int i = 0; i < lineItemShares.length; i++) {
+                long orderId = shipment.lineItemOrderId(i);
+                if(partitionOf(orderId) == partition) {
+                    add(orderId, i, lineItemShares[i]);
+                }
+            }
+        }
+
+        private int partitionOf(long orderId) {
+            return partitionShift == 64 ? 0 : (int) ((orderId * 0x9e3779b97f4a7c15L) >>> partitionShift);
+        }
+
+        private void add(long orderId, int lineItem, double share) {
+            int orderCount = orders.size();
+            int order = orders.addOrder(orderId);
+            if(order == orderCount) {
+                if(order == shareSums.length) {
+                    shareSums = Arrays.copyOf(shareSums, order * 2);
+                    shareCompensations = Arrays.copyOf(shareCompensations, order * 2);
+                    firstLineItems = Arrays.copyOf(firstLineItems, order * 2);
+                }
+                firstLineItems[order] = lineItem;
+            }
+            double sum = shareSums[order];
+            double newSum = sum + share;
+            shareCompensations[order] += roundingError(sum, share, newSum);
+            shareSums[order] = newSum;
+        }
+    }
+
+    // The line items from (inclusive) to (exclusive) of a shipment, with all of its stops.
+    private record LineItemRange(ShipmentView shipment, int from, int to) implements ShipmentView {
+
+        @Override
+        public long shipmentId() {
+            return shipment.shipmentId();
+        }
+
+        @Override
+        public int stopCount() {
+            return shipment.stopCount();
+        }
+
+        @Override
+        public int stopSequenceNumber(int stop) {
+            return shipment.stopSequenceNumber(stop);
+        }
+
+        @Override
+        public String stopAddress(int stop) {
+            return shipment.stopAddress(stop);
+        }
+
+        @Override
+        public double stopMilesFromPreviousStop(int stop) {
+            return shipment.stopMilesFromPreviousStop(stop);
+        }
+
+        @Override
+        public int lineItemCount() {
+            return to - from;
+        }
+
+        @Override
+        public long lineItemOrderId(int lineItem) {
+            return shipment.lineItemOrderId(from + lineItem);
+        }
+
+        @Override
+        public String lineItemDescription(int lineItem) {
+            return shipment.lineItemDescription(from + lineItem);
+        }
+
+        @Override
+        public int lineItemQty(int lineItem) {
+            return shipment.lineItemQty(from + lineItem);
+        }
+
+        @Override
+        public double lineItemWeight(int lineItem) {
+            return shipment.lineItemWeight(from + lineItem);
+        }
+
+        @Override
+        public int lineItemPickupStopSequenceNumber(int lineItem) {
+            return shipment.lineItemPickupStopSequenceNumber(from + lineItem);
+        }
+
+        @Override
+        public int lineItemDropOffStopSequenceNumber(int lineItem) {
+            return shipment.lineItemDropOffStopSequenceNumber(from + lineItem);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Total cost per orderId across every shipment ever applied, kept off-heap in memory-mapped files so the order history
+// doesn't have to fit in the Java heap. Applying a result is idempotent by shipmentId: a shipment that has already been
+// applied is skipped, so results can be replayed safely.
+//
+// A ledger is a directory holding three files:
+//   checkpoint.ledger  the tables as of the last checkpoint, replaced atomically by each checkpoint
+//   working.ledger     a mapped copy of the checkpoint that apply() updates in place
+//   journal.log        every result applied since the last checkpoint, each record CRC-checked
+// apply() appends the result to the journal before touching the working tables. open() recovers by copying the
+// checkpoint to the working file and replaying the journal up to the first torn or corrupt record, which a crash in
+// the middle of a write leaves at the end; the torn record is cut off. Recovery therefore costs one sequential file
+// copy plus the journal since the last checkpoint, not a rebuild from the shipments. A checkpoint is taken whenever
+// the journal grows past checkpointJournalBytes, and on close().
+//
+// Journal writes reach the OS when apply() returns, which survives a process crash; call sync() to also survive a
+// power failure. Methods are synchronized, so the ledger can be shared between threads, but applies are serialized.
+final class PersistentOrderLedger implements Closeable {
+
+    static final int MAGIC = 0x4c4f4752;  // "RGOL" in little endian
+    static final int VERSION = 1;
+    static final long DEFAULT_CHECKPOINT_JOURNAL_BYTES = 64L << 20;
+
+    static final String CHECKPOINT_FILE = "checkpoint.ledger";
+    static final String WORKING_FILE = "working.ledger";
+    static final String JOURNAL_FILE = "journal.log";
+
+    // Header: magic, version, then longs for order slots, shipment slots, order count and shipment count.
+    private static final int HEADER_BYTES = 64;
+    private static final int ORDER_SLOTS_OFFSET = 8;
+    private static final int SHIPMENT_SLOTS_OFFSET = 16;
+    private static final int ORDER_COUNT_OFFSET = 24;
+    private static final int SHIPMENT_COUNT_OFFSET = 32;
+
+    private static final int ORDER_SLOT_BYTES = 16;  // orderId, cost
+    private static final int SHIPMENT_SLOT_BYTES = 8;  // shipmentId
+    private static final long MIN_SLOTS = 1024;
+    // Marks an empty slot, so it can't be used as an order or shipment id.
+    static final long EMPTY = Long.MIN_VALUE;
+
+    // Journal record: payload length, shipmentId, order count, (orderId, cost) per order, CRC32C of the payload.
+    private static final int JOURNAL_OVERHEAD_BYTES = 4 + 4;
+    private static final int JOURNAL_FIXED_PAYLOAD_BYTES = 8 + 4;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private final Path directory;
+    private final long checkpointJournalBytes;
+    private FileChannel journal;
+    private long journalBytes;
+    private MappedByteBuffer[] segments;
+    private long orderSlots;
+    private long shipmentSlots;
+    private long orderCount;
+    private long shipmentCount;
+    private ByteBuffer record = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private boolean closed;
+
+    private PersistentOrderLedger(Path directory, long checkpointJournalBytes) {
+        this.directory = directory;
+        this.checkpointJournalBytes = checkpointJournalBytes;
+    }
+
+    static PersistentOrderLedger open(Path directory) throws IOException {
+        return open(directory, DEFAULT_CHECKPOINT_JOURNAL_BYTES);
+    }
+
+    static PersistentOrderLedger open(Path directory, long checkpointJournalBytes) throws IOException {
+        if(checkpointJournalBytes < 1) {
+            throw new IllegalArgumentException("Checkpoint journal size must be at least 1 byte");
+        }
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE + ".tmp"));
+        Files.deleteIfExists(directory.resolve(WORKING_FILE + ".tmp"));
+
+        PersistentOrderLedger ledger = new PersistentOrderLedger(directory, checkpointJournalBytes);
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if(Files.exists(checkpoint)) {
+            Path working = directory.resolve(WORKING_FILE + ".tmp");
+            Files.copy(checkpoint, working);
+            Files.move(working, directory.resolve(WORKING_FILE), StandardCopyOption.REPLACE_EXISTING);
+            ledger.mapWorkingFile(directory.resolve(WORKING_FILE));
+        } else {
+            ledger.createWorkingFile(MIN_SLOTS, MIN_SLOTS);
+        }
+        ledger.journal = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ledger.replayJournal();
+        } catch (IOException | RuntimeException e) {
+            ledger.journal.close();
+            throw e;
+        }
+        return ledger;
+    }
+
+    // Adds the result's costs unless its shipment has already been applied. Returns whether it was applied.
+    synchronized boolean apply(CostAllocationResult result) throws IOException {
+        checkOpen();
+        if(result.shipmentId() == EMPTY) {
+            throw new IllegalArgumentException("Invalid shipment id: " + result.shipmentId());
+        }
+        if(result.costsByOrderId() instanceof OrderCostMap costs ? costs.containsOrder(EMPTY)
+                : result.costsByOrderId().containsKey(EMPTY)) {
+            throw new IllegalArgumentException("Invalid order id: " + EMPTY);
+        }
+        if(isApplied(result.shipmentId())) {
+            return false;
+        }
+
+        appendToJournal(result);
+        applyToTables(result);
+        if(journalBytes >= checkpointJournalBytes) {
+            checkpoint();
+        }
+        return true;
+    }
+
+    synchronized boolean isApplied(long shipmentId) {
+        checkOpen();
+        return getLong(shipmentSlotOffset(findShipmentSlot(shipmentId))) != EMPTY;
+    }
+
+    synchronized double cost(long orderId, double defaultCost) {
+        checkOpen();
+        long offset = orderSlotOffset(findOrderSlot(orderId));
+        return getLong(offset) == EMPTY ? defaultCost : Double.longBitsToDouble(getLong(offset + 8));
+    }
+
+    synchronized long orderCount() {
+        return orderCount;
+    }
+
+    synchronized long shipmentCount() {
+        return shipmentCount;
+    }
+
+    // Visits every order in table order, which is not the order they were applied in.
+    synchronized void forEachOrder(OrderCostConsumer consumer) {
+        checkOpen();
+        for(long slot = 0; slot < orderSlots; slot++) {
+            long offset = orderSlotOffset(slot);
+            long orderId = getLong(offset);
+            if(orderId != EMPTY) {
+                consumer.accept(orderId, Double.longBitsToDouble(getLong(offset + 8)));
+            }
+        }
+    }
+
+    // Forces the journal to the storage device.
+    synchronized void sync() throws IOException {
+        checkOpen();
+        journal.force(false);
+    }
+
+    // Writes the working tables to a new checkpoint and empties the journal. A crash at any point leaves either the old
+    // checkpoint and the full journal, or the new checkpoint and a journal whose shipments it already contains, which
+    // replay skips.
+    synchronized void checkpoint() throws IOException {
+        checkOpen();
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        // Reads through the page cache, which already holds every write to the mapping.
+        Files.copy(directory.resolve(WORKING_FILE), temporary, StandardCopyOption.REPLACE_EXISTING);
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // The rename has to be on disk before the journal is emptied, or a power failure could keep the empty journal
+        // and lose the rename, leaving the old checkpoint without the shipments applied since.
+        syncDirectory();
+        journal.truncate(0);
+        journal.position(0);
+        journal.force(true);
+        journalBytes = 0;
+    }
+
+    // Checkpoints and releases the files. The mappings are unmapped when they are garbage collected.
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        try {
+            checkpoint();
+        } finally {
+            closed = true;
+            journal.close();
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        if(System.getProperty("os.name").startsWith("Windows")) {
+            return;  // Directories can't be opened as channels there; NTFS journals the rename itself.
+        }
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void appendToJournal(CostAllocationResult result) throws IOException {
+        int orders = result.costsByOrderId().size();
+        int payloadBytes = JOURNAL_FIXED_PAYLOAD_BYTES + orders * ORDER_SLOT_BYTES;
+        int recordBytes = payloadBytes + JOURNAL_OVERHEAD_BYTES;
+        if(record.capacity() < recordBytes) {
+            record = ByteBuffer.allocate(Math.max(recordBytes, record.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        record.clear();
+        record.putInt(payloadBytes).putLong(result.shipmentId()).putInt(orders);
+        if(result.costsByOrderId() instanceof OrderCostMap costs) {
+            for(int i = 0; i < orders; i++) {
+                record.putLong(costs.orderIdAt(i)).putDouble(costs.costAt(i));
+            }
+        } else {
+            result.costsByOrderId().forEach((orderId, cost) -> record.putLong(orderId).putDouble(cost));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 4, payloadBytes);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        while(record.hasRemaining()) {
+            journal.write(record);
+        }
+        journalBytes += recordBytes;
+    }
+
+    // Replays every intact record and truncates the journal after the last one.
+    private void replayJournal() throws IOException {
+        long size = journal.size();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        long position = 0;
+        OrderCostMap costs = new OrderCostMap();
+        while(true) {
+            buffer = fill(buffer, position, 4, size);
+            if(buffer.remaining() < 4) {
+                break;
+            }
+            int payloadBytes = buffer.getInt(buffer.position());
+            if(payloadBytes < JOURNAL_FIXED_PAYLOAD_BYTES || payloadBytes > Integer.MAX_VALUE - JOURNAL_OVERHEAD_BYTES ||
+                    (payloadBytes - JOURNAL_FIXED_PAYLOAD_BYTES) % ORDER_SLOT_BYTES != 0 ||
+                    position + payloadBytes + JOURNAL_OVERHEAD_BYTES > size) {
+                break;
+            }
+            int recordBytes = payloadBytes + JOURNAL_OVERHEAD_BYTES;
+            buffer = fill(buffer, position, recordBytes, size);
+            int start = buffer.position();
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.array(), buffer.arrayOffset() + start + 4, payloadBytes);
+            if((int) crc.getValue() != buffer.getInt(start + 4 + payloadBytes)) {
+                break;
+            }
+            long shipmentId = buffer.getLong(start + 4);
+            int orders = buffer.getInt(start + 12);
+            if(orders != (payloadBytes - JOURNAL_FIXED_PAYLOAD_BYTES) / ORDER_SLOT_BYTES) {
+                break;
+            }
+            costs.reset();
+            for(int i = 0; i < orders; i++) {
+                int offset = start + 16 + i * ORDER_SLOT_BYTES;
+                costs.add(buffer.getLong(offset), buffer.getDouble(offset + 8));
+            }
+            CostAllocationResult result = new CostAllocationResult(shipmentId, costs);
+            if(getLong(shipmentSlotOffset(findShipmentSlot(shipmentId))) == EMPTY) {
+                applyToTables(result);
+            }
+            buffer.position(start + recordBytes);
+            position += recordBytes;
+        }
+        if(position < size) {
+            journal.truncate(position);
+        }
+        journal.position(position);
+        journalBytes = position;
+    }
+
+    // Returns a buffer whose remaining bytes start at file position `position` and hold at least `bytes` bytes, or all
+    // that is left of the file if that is less.
+    private ByteBuffer fill(ByteBuffer buffer, long position, int bytes, long size) throws IOException {
+        if(buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        if(buffer.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        long readPosition = position + buffer.position();
+        while(buffer.hasRemaining() && readPosition < size) {
+            int read = journal.read(buffer, readPosition);
+            if(read < 0) {
+                break;
+            }
+            readPosition += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void applyToTables(CostAllocationResult result) throws IOException {
+        int orders = result.costsByOrderId().size();
+        if((orderCount + orders) * 2 > orderSlots || (shipmentCount + 1) * 2 > shipmentSlots) {
+            grow(orderCount + orders, shipmentCount + 1);
+        }
+        if(result.costsByOrderId() instanceof OrderCostMap costs) {
+            for(int i = 0; i < orders; i++) {
+                addCost(costs.orderIdAt(i), costs.costAt(i));
+            }
+        } else {
+            result.costsByOrderId().forEach(this::addCost);
+        }
+        putLong(shipmentSlotOffset(findShipmentSlot(result.shipmentId())), result.shipmentId());
+        shipmentCount++;
+        putLong(SHIPMENT_COUNT_OFFSET, shipmentCount);
+    }
+
+    private void addCost(long orderId, double cost) {
+        long offset = orderSlotOffset(findOrderSlot(orderId));
+        if(getLong(offset) == EMPTY) {
+            putLong(offset, orderId);
+            putLong(offset + 8, Double.doubleToRawLongBits(cost));
+            orderCount++;
+            putLong(ORDER_COUNT_OFFSET, orderCount);
+        } else {
+            putLong(offset + 8, Double.doubleToRawLongBits(Double.longBitsToDouble(getLong(offset + 8)) + cost));
+        }
+    }
+
+    // Rebuilds the working tables with room for at least the given counts at a load factor of at most 0.5.
+    private void grow(long orders, long shipments) throws IOException {
+        long newOrderSlots = orderSlots;
+        while(orders * 2 > newOrderSlots) {
+            newOrderSlots *= 2;
+        }
+        long newShipmentSlots = shipmentSlots;
+        while(shipments * 2 > newShipmentSlots) {
+            newShipmentSlots *= 2;
+        }
+        MappedByteBuffer[] oldSegments = segments;
+        long oldOrderSlots = orderSlots;
+        long oldShipmentSlots = shipmentSlots;
+
+        createWorkingFile(newOrderSlots, newShipmentSlots);
+        MappedByteBuffer[] newSegments = segments;
+        for(long slot = 0; slot < oldOrderSlots; slot++) {
+            segments = oldSegments;
+            long offset = HEADER_BYTES + slot * ORDER_SLOT_BYTES;
+            long orderId = getLong(offset);
+            long costBits = getLong(offset + 8);
+            segments = newSegments;
+            if(orderId != EMPTY) {
+                long newOffset = orderSlotOffset(findOrderSlot(orderId));
+                putLong(newOffset, orderId);
+                putLong(newOffset + 8, costBits);
+            }
+        }
+        for(long slot = 0; slot < oldShipmentSlots; slot++) {
+            segments = oldSegments;
+            long shipmentId = getLong(HEADER_BYTES + oldOrderSlots * ORDER_SLOT_BYTES + slot * SHIPMENT_SLOT_BYTES);
+            segments = newSegments;
+            if(shipmentId != EMPTY) {
+                putLong(shipmentSlotOffset(findShipmentSlot(shipmentId)), shipmentId);
+            }
+        }
+        putLong(ORDER_COUNT_OFFSET, orderCount);
+        putLong(SHIPMENT_COUNT_OFFSET, shipmentCount);
+    }
+
+    // Creates an empty working file, replacing the current one, and maps it. Counts are carried over in the fields and
+    // written by the caller.
+    private void createWorkingFile(long newOrderSlots, long newShipmentSlots) throws IOException {
+        Path temporary = directory.resolve(WORKING_FILE + ".tmp");
+        long fileBytes = HEADER_BYTES + newOrderSlots * ORDER_SLOT_BYTES + newShipmentSlots * SHIPMENT_SLOT_BYTES;
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] newSegments = map(channel, fileBytes);
+            segments = newSegments;
+            orderSlots = newOrderSlots;
+            shipmentSlots = newShipmentSlots;
+            putLong(0, ((long) VERSION << 32) | (MAGIC & 0xffffffffL));
+            putLong(ORDER_SLOTS_OFFSET, newOrderSlots);
+            putLong(SHIPMENT_SLOTS_OFFSET, newShipmentSlots);
+            for(long offset = HEADER_BYTES; offset < fileBytes; offset += 8) {
+                putLong(offset, EMPTY);
+            }
+        }
+        Files.move(temporary, directory.resolve(WORKING_FILE), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void mapWorkingFile(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileBytes = channel.size();
+            if(fileBytes < HEADER_BYTES) {
+                throw new IllegalArgumentException("Not an order ledger: " + path);
+            }
+            segments = map(channel, fileBytes);
+            if((int) getLong(0) != MAGIC) {
+                throw new IllegalArgumentException("Not an order ledger: " + path);
+            }
+            if((int) (getLong(0) >>> 32) != VERSION) {
+                throw new IllegalArgumentException("Unsupported order ledger version " + (getLong(0) >>> 32) + ": " + path);
+            }
+            orderSlots = getLong(ORDER_SLOTS_OFFSET);
+            shipmentSlots = getLong(SHIPMENT_SLOTS_OFFSET);
+            orderCount = getLong(ORDER_COUNT_OFFSET);
+            shipmentCount = getLong(SHIPMENT_COUNT_OFFSET);
+            if(Long.bitCount(orderSlots) != 1 || Long.bitCount(shipmentSlots) != 1 || orderCount < 0 ||
+                    shipmentCount < 0 || orderCount * 2 > orderSlots || shipmentCount * 2 > shipmentSlots ||
+                    HEADER_BYTES + orderSlots * ORDER_SLOT_BYTES + shipmentSlots * SHIPMENT_SLOT_BYTES != fileBytes) {
+                throw new IllegalArgumentException("Corrupt order ledger header: " + path);
+            }
+        }
+    }
+
+    // The mappings stay valid after the channel is closed.
+    private static MappedByteBuffer[] map(FileChannel channel, long fileBytes) throws IOException {
+        int segmentCount = (int) ((fileBytes + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_BYTES, fileBytes - start));
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+
+    // Returns the slot holding orderId, or the empty slot where it would be inserted.
+    private long findOrderSlot(long orderId) {
+        long mask = orderSlots - 1;
+        long slot = hash(orderId) & mask;
+        while(true) {
+            long slotOrderId = getLong(orderSlotOffset(slot));
+            if(slotOrderId == EMPTY || slotOrderId == orderId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private long findShipmentSlot(long shipmentId) {
+        long mask = shipmentSlots - 1;
+        long slot = hash(shipmentId) & mask;
+        while(true) {
+            long slotShipmentId = getLong(shipmentSlotOffset(slot));
+            if(slotShipmentId == EMPTY || slotShipmentId == shipmentId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private long orderSlotOffset(long slot) {
+        return HEADER_BYTES + slot * ORDER_SLOT_BYTES;
+    }
+
+    private long shipmentSlotOffset(long slot) {
+        return HEADER_BYTES + orderSlots * ORDER_SLOT_BYTES + slot * SHIPMENT_SLOT_BYTES;
+    }
+
+    // Offsets are multiples of 8 and segments a multiple of 8 bytes long, so a long never straddles two segments.
+    private long getLong(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & (SEGMENT_BYTES - 1)));
+    }
+
+    private void putLong(long offset, long value) {
+        segments[(int) (offset >>> SEGMENT_SHIFT)].putLong((int) (offset & (SEGMENT_BYTES - 1)), value);
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Order ledger is closed");
+        }
+    }
+
+    // MurmurHash3 finalizer, as in OrderCostMap.
+    private static long hash(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
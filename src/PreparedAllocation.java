@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+// One shipment's per-order weight or mileage shares, kept so that invoice adjustments don't rescan the shipment.
+// allocateCosts() scales the shares to an invoice amount in O(orders), and addLineItem()/removeLineItem() update the
+// shares and the total in O(1) (O(log stops) for mileage on sparsely numbered stops), after a one-off O(line items)
+// pass on the first change that records which line items the shipment has.
+//
+// Costs are share / totalShare * amount per order rather than summed per line item, and the total is kept up to date by
+// addition and subtraction, so results can differ from a fresh allocateCosts() in the last few bits. Call prepare()
+// again to start from exact totals. Not thread-safe.
+final class PreparedAllocation {
+
+    private final ShipmentView shipment;
+    private final ProportionalCostAllocator shareAllocator;
+    private final OrderCostMap sharesByOrderId = new OrderCostMap();
+    // Line items per order, indexed like sharesByOrderId, so orders whose line items are all removed drop out.
+    private int[] lineItemsByOrder;
+    private int lineItemCount;
+    private double totalShare;
+    // Built on the first change: the line items on the shipment, counting duplicates, so that only those are removed.
+    private Map<ShipmentLineItem, Integer> lineItems;
+    private ToDoubleFunction<ShipmentLineItem> lineItemShares;
+
+    private PreparedAllocation(ShipmentView shipment, ProportionalCostAllocator shareAllocator) {
+        this.shipment = shipment;
+        this.shareAllocator = shareAllocator;
+        totalShare = shareAllocator.orderShares(shipment, sharesByOrderId);
+        lineItemCount = shipment.lineItemCount();
+        lineItemsByOrder = new int[sharesByOrderId.size()];
+        for(int i = 0; i < lineItemCount; i++) {
+            lineItemsByOrder[sharesByOrderId.addOrder(shipment.lineItemOrderId(i))]++;
+        }
+    }
+
+    // Validates the shipment the same way shareAllocator.allocateCosts would.
+    static PreparedAllocation prepare(ProportionalCostAllocator shareAllocator, Shipment shipment) {
+        return prepare(shareAllocator, ShipmentView.of(shipment));
+    }
+
+    static PreparedAllocation prepare(ProportionalCostAllocator shareAllocator, ShipmentView shipment) {
+        return new PreparedAllocation(shipment, shareAllocator);
+    }
+
+    long shipmentId() {
+        return shipment.shipmentId();
+    }
+
+    int lineItemCount() {
+        return lineItemCount;
+    }
+
+    double totalShare() {
+        return totalShare;
+    }
+
+    // The line item's pickup and drop-off must refer to the shipment's existing stops.
+    void addLineItem(ShipmentLineItem lineItem) {
+        double share = lineItemShare(lineItem);
+        int order = sharesByOrderId.addOrder(lineItem.orderId());
+        if(order == lineItemsByOrder.length) {
+            lineItemsByOrder = Arrays.copyOf(lineItemsByOrder, Math.max(4, order * 2));
+        }
+        sharesByOrderId.add(lineItem.orderId(), share);
+        lineItemsByOrder[order]++;
+        lineItems().merge(lineItem, 1, Integer::sum);
+        totalShare += share;
+        lineItemCount++;
+    }
+
+    // Removes a line item that is on the shipment or was added since it was prepared, matched on all of its values.
+    void removeLineItem(ShipmentLineItem lineItem) {
+        Map<ShipmentLineItem, Integer> lineItems = lineItems();
+        if(!lineItems.containsKey(lineItem)) {
+            throw new IllegalArgumentException("Line item " + lineItem.itemDescription() + " for order " +
+                    lineItem.orderId() + " is not on shipment " + shipment.shipmentId());
+        }
+        double share = lineItemShare(lineItem);
+        lineItems.computeIfPresent(lineItem, (key, count) -> count == 1 ? null : count - 1);
+        lineItemsByOrder[sharesByOrderId.addOrder(lineItem.orderId())]--;
+        sharesByOrderId.add(lineItem.orderId(), -share);
+        totalShare -= share;
+        lineItemCount--;
+    }
+
+    CostAllocationResult allocateCosts(double totalInvoicedAmount) {
+        OrderCostMap costsByOrderId = new OrderCostMap(sharesByOrderId.size());
+        allocateCosts(totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    // Resets costsByOrderId and writes each order's cost into it.
+    void allocateCosts(double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        if(lineItemCount == 0) {
+            throw new IllegalArgumentException("Shipment has no line items");
+        }
+
+        costsByOrderId.reset();
+        for(int i = 0; i < sharesByOrderId.size(); i++) {
+            if(lineItemsByOrder[i] > 0) {
+                costsByOrderId.add(sharesByOrderId.orderIdAt(i), (sharesByOrderId.costAt(i) / totalShare) * totalInvoicedAmount);
+            }
+        }
+    }
+
+    private Map<ShipmentLineItem, Integer> lineItems() {
+        if(lineItems == null) {
+            lineItems = new HashMap<>();
+            for(int i = 0; i < shipment.lineItemCount(); i++) {
+                lineItems.merge(new ShipmentLineItem(shipment.lineItemOrderId(i), shipment.lineItemDescription(i),
+                        shipment.lineItemQty(i), shipment.lineItemWeight(i), shipment.lineItemPickupStopSequenceNumber(i),
+                        shipment.lineItemDropOffStopSequenceNumber(i)), 1, Integer::sum);
+            }
+        }
+        return lineItems;
+    }
+
+    private double lineItemShare(ShipmentLineItem lineItem) {
+        if(lineItemShares == null) {
+            lineItemShares = shareAllocator.lineItemShareFunction(shipment);
+        }
+        return lineItemShares.applyAsDouble(lineItem);
+    }
+}
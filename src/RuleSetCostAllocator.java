@@ -0,0 +1,267 @@
+import java.util.Arrays;
+import java.util.Map;
+
+// An AllocationRuleSet compiled into a chain of lambdas. Which share function each strategy uses, whether the mix
+// needs blending and whether charges need clamping are all decided once by compile(), so allocating a shipment is
+// straight loops over the line items and orders with no rule lookups. A rule set that is a single strategy with no
+// weight floor and no charge limits runs that strategy's own lineItemShares and produces the same costs as its
+// allocator.
+//
+// Compiled allocators hold no per-shipment state and can be shared between threads.
+final class RuleSetCostAllocator implements CostAllocator {
+
+    // Fills one strategy's share per line item, validating the shipment, and returns the total share. Matches
+    // ProportionalCostAllocator.lineItemShares so the built-in strategies can be used as is.
+    interface LineItemShares {
+        double lineItemShares(ShipmentView shipment, double[] sharesByLineItem);
+    }
+
+    private interface CostStage {
+        void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId);
+    }
+
+    private final AllocationRuleSet ruleSet;
+    private final CostStage stage;
+
+    private RuleSetCostAllocator(AllocationRuleSet ruleSet, CostStage stage) {
+        this.ruleSet = ruleSet;
+        this.stage = stage;
+    }
+
+    static RuleSetCostAllocator compile(AllocationRuleSet ruleSet) {
+        int termCount = ruleSet.mix().size();
+        LineItemShares[] terms = new LineItemShares[termCount];
+        double[] fractions = new double[termCount];
+        int t = 0;
+        for(Map.Entry<AllocationStrategy, Double> term : ruleSet.mix().entrySet()) {
+            terms[t] = lineItemShares(term.getKey(), ruleSet.weightFloor());
+            fractions[t++] = term.getValue();
+        }
+
+        CostStage stage = switch(termCount) {
+            case 1 -> proportional(terms[0]);
+            case 2 -> blended(terms[0], fractions[0], terms[1], fractions[1]);
+            default -> blended(terms, fractions);
+        };
+        if(ruleSet.minCharge() > 0.0 || ruleSet.maxCharge() < Double.POSITIVE_INFINITY) {
+            stage = clamped(stage, ruleSet.minCharge(), ruleSet.maxCharge());
+        }
+        return new RuleSetCostAllocator(ruleSet, stage);
+    }
+
+    AllocationRuleSet ruleSet() {
+        return ruleSet;
+    }
+
+    @Override
+    public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+        OrderCostMap costsByOrderId = new OrderCostMap();
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+        return new CostAllocationResult(shipment.shipmentId(), costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(Shipment shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        allocateCosts(ShipmentView.of(shipment), totalInvoicedAmount, costsByOrderId);
+    }
+
+    @Override
+    public void allocateCosts(ShipmentView shipment, double totalInvoicedAmount, OrderCostMap costsByOrderId) {
+        stage.allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+    }
+
+    private static LineItemShares lineItemShares(AllocationStrategy strategy, double weightFloor) {
+        if(weightFloor == 0.0 || strategy == AllocationStrategy.MILEAGE) {
+            return strategy.costAllocator()::lineItemShares;
+        }
+        if(strategy == AllocationStrategy.WEIGHT) {
+            return (shipment, sharesByLineItem) -> flooredWeights(shipment, weightFloor, sharesByLineItem);
+        }
+        return (shipment, sharesByLineItem) -> {
+            int lineItemCount = shipment.lineItemCount();
+            flooredWeights(shipment, weightFloor, sharesByLineItem);
+            double[] miles = MileageCostAllocator.lineItemMiles(shipment, new double[lineItemCount]);
+            double totalShare = 0.0;
+            for(int i = 0; i < lineItemCount; i++) {
+                sharesByLineItem[i] *= miles[i];
+                totalShare += sharesByLineItem[i];
+            }
+            return totalShare;
+        };
+    }
+
+    // Validates the weights as WeightCostAllocator does, then bills each line item as at least weightFloor.
+    private static double flooredWeights(ShipmentView shipment, double weightFloor, double[] sharesByLineItem) {
+        int lineItemCount = shipment.lineItemCount();
+        if(lineItemCount == 0) {
+            throw new IllegalArgumentException("Shipment has no line items");
+        }
+        double totalWeight = 0.0;
+        for(int i = 0; i < lineItemCount; i++) {
+            double weight = shipment.lineItemWeight(i);
+            if(weight <= 0.0) {
+                throw new IllegalArgumentException("Invalid weight in shipment");
+            }
+            sharesByLineItem[i] = Math.max(weight, weightFloor);
+            totalWeight += sharesByLineItem[i];
+        }
+        return totalWeight;
+    }
+
+    private static CostStage proportional(LineItemShares lineItemShares) {
+        return (shipment, totalInvoicedAmount, costsByOrderId) -> {
+            int lineItemCount = shipment.lineItemCount();
+            double[] shares = new double[lineItemCount];
+            double totalShare = lineItemShares.lineItemShares(shipment, shares);
+
+            costsByOrderId.reset();
+            for(int i = 0; i < lineItemCount; i++) {
+                costsByOrderId.add(shipment.lineItemOrderId(i), (shares[i] / totalShare) * totalInvoicedAmount);
+            }
+        };
+    }
+
+    // The usual two-strategy contract, with both terms added up in one pass over the line items.
+    private static CostStage blended(LineItemShares first, double firstFraction, LineItemShares second,
+                                     double secondFraction) {
+        return (shipment, totalInvoicedAmount, costsByOrderId) -> {
+            int lineItemCount = shipment.lineItemCount();
+            double[] firstShares = new double[lineItemCount];
+            double[] secondShares = new double[lineItemCount];
+            double firstTotal = first.lineItemShares(shipment, firstShares);
+            double secondTotal = second.lineItemShares(shipment, secondShares);
+            double firstAmount = firstFraction * totalInvoicedAmount;
+            double secondAmount = secondFraction * totalInvoicedAmount;
+
+            costsByOrderId.reset();
+            for(int i = 0; i < lineItemCount; i++) {
+                costsByOrderId.add(shipment.lineItemOrderId(i), (firstShares[i] / firstTotal) * firstAmount
+                        + (secondShares[i] / secondTotal) * secondAmount);
+            }
+        };
+    }
+
+    // Each strategy allocates its fraction of the invoice in proportion to its own shares.
+    private static CostStage blended(LineItemShares[] terms, double[] fractions) {
+        return (shipment, totalInvoicedAmount, costsByOrderId) -> {
+            int lineItemCount = shipment.lineItemCount();
+            double[] shares = new double[lineItemCount];
+            double[] costs = new double[lineItemCount];
+            for(int t = 0; t < terms.length; t++) {
+                double totalShare = terms[t].lineItemShares(shipment, shares);
+                double termAmount = fractions[t] * totalInvoicedAmount;
+                for(int i = 0; i < lineItemCount; i++) {
+                    costs[i] += (shares[i] / totalShare) * termAmount;
+                }
+            }
+
+            costsByOrderId.reset();
+            for(int i = 0; i < lineItemCount; i++) {
+                costsByOrderId.add(shipment.lineItemOrderId(i), costs[i]);
+            }
+        };
+    }
+
+    private static CostStage clamped(CostStage stage, double minCharge, double maxCharge) {
+        return (shipment, totalInvoicedAmount, costsByOrderId) -> {
+            stage.allocateCosts(shipment, totalInvoicedAmount, costsByOrderId);
+            int orderCount = costsByOrderId.size();
+            double[] charges = new double[orderCount];
+            boolean withinLimits = true;
+            for(int i = 0; i < orderCount; i++) {
+                charges[i] = costsByOrderId.costAt(i);
+                withinLimits &= charges[i] >= minCharge && charges[i] <= maxCharge;
+            }
+            if(!withinLimits) {
+                clampCharges(charges, totalInvoicedAmount, minCharge, maxCharge);
+                costsByOrderId.setOrders(costsByOrderId, charges);
+            }
+        };
+    }
+
+    // Replaces each charge c with clamp(scale * c, minCharge, maxCharge), choosing the scale so that the charges add
+    // up to totalInvoicedAmount. The clamped total only grows with the scale and is linear between the scales at which
+    // some order reaches a limit, so a binary search over those breakpoints finds the linear piece and the scale is
+    // solved for exactly within it: O(orders log orders).
+    static void clampCharges(double[] charges, double totalInvoicedAmount, double minCharge, double maxCharge) {
+        int orderCount = charges.length;
+        if(orderCount * minCharge > totalInvoicedAmount) {
+            throw new IllegalArgumentException("Invoice of " + totalInvoicedAmount + " can't cover the minimum charge of "
+                    + minCharge + " for " + orderCount + " orders");
+        }
+        double largestTotal = 0.0;
+        for(double charge : charges) {
+            largestTotal += charge > 0.0 ? maxCharge : minCharge;
+        }
+        if(totalInvoicedAmount > largestTotal) {
+            throw new IllegalArgumentException("Invoice of " + totalInvoicedAmount + " exceeds the maximum charge of "
+                    + maxCharge + " for " + orderCount + " orders");
+        }
+
+        double[] breakpoints = new double[2 * orderCount];
+        int breakpointCount = 0;
+        for(double charge : charges) {
+            if(charge > 0.0) {
+                if(minCharge > 0.0) {
+                    breakpoints[breakpointCount++] = minCharge / charge;
+                }
+                if(maxCharge < Double.POSITIVE_INFINITY) {
+                    breakpoints[breakpointCount++] = maxCharge / charge;
+                }
+            }
+        }
+        Arrays.sort(breakpoints, 0, breakpointCount);
+
+        // Find the first breakpoint at which the clamped total reaches the invoice.
+        int low = 0;
+        int high = breakpointCount;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(clampedTotal(charges, breakpoints[mid], minCharge, maxCharge) >= totalInvoicedAmount) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        double scale;
+        if(low < breakpointCount && clampedTotal(charges, breakpoints[low], minCharge, maxCharge) == totalInvoicedAmount) {
+            scale = breakpoints[low];
+        } else {
+            // The invoice falls strictly inside this piece, so classify the orders at a point within it.
+            double from = low == 0 ? 0.0 : breakpoints[low - 1];
+            double probe = low == breakpointCount ? Math.max(1.0, from * 2.0) : (from + breakpoints[low]) / 2.0;
+            double pinned = 0.0;
+            double slope = 0.0;
+            for(double charge : charges) {
+                double scaled = probe * charge;
+                if(scaled <= minCharge) {
+                    pinned += minCharge;
+                } else if(scaled >= maxCharge) {
+                    pinned += maxCharge;
+                } else {
+                    slope += charge;
+                }
+            }
+            if(slope > 0.0) {
+                scale = (totalInvoicedAmount - pinned) / slope;
+            } else {
+                // Every order is pinned, which only happens when the invoice equals a pinned total that the search
+                // missed by rounding, e.g. an invoice of exactly orders * maxCharge: keep them all at their limits.
+                scale = low < breakpointCount ? breakpoints[low] : breakpointCount == 0 ? 0.0 : probe;
+            }
+        }
+
+        for(int i = 0; i < orderCount; i++) {
+            charges[i] = Math.min(maxCharge, Math.max(minCharge, scale * charges[i]));
+        }
+    }
+
+    private static double clampedTotal(double[] charges, double scale, double minCharge, double maxCharge) {
+        double total = 0.0;
+        for(double charge : charges) {
+            total += Math.min(maxCharge, Math.max(minCharge, scale * charge));
+        }
+        return total;
+    }
+}
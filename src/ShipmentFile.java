@@ -0,0 +1,91 @@
+// Binary columnar shipment file format, written by ShipmentFileWriter and read through MappedShipmentFile. All values
+// are little-endian.
+//
+//   File header (32 bytes):   int magic "RYGN", int version, long shipmentCount, long indexOffset, long maxRecordBytes
+//   Shipment records:         one per shipment, in the order they were written, each 8-byte aligned
+//   Index:                    shipmentCount x (long shipmentId, long recordOffset), sorted by shipmentId
+//
+// A shipment record stores each field as a column so allocators can read it straight from the mapping:
+//
+//   long shipmentId, int stopCount, int lineItemCount, int stringCount, int reserved
+//   double[stopCount] milesFromPreviousStop
+//   long[lineItemCount] orderId
+//   double[lineItemCount] weight
+//   int[stopCount] sequenceNumber, int[stopCount] address
+//   int[lineItemCount] qty, int[lineItemCount] pickupStopSequenceNumber, int[lineItemCount] dropOffStopSequenceNumber,
+//   int[lineItemCount] itemDescription
+//   int[stringCount + 1] string offsets into the string data, followed by the UTF-8 string data
+//
+// Addresses and item descriptions are indexes into the record's own string table (-1 for null), so repeated strings
+// within a shipment are stored once and are only decoded when asked for.
+final class ShipmentFile {
+
+    static final int MAGIC = 0x4e475952;  // "RYGN" when read as little-endian bytes.
+    static final int VERSION = 1;
+
+    static final int FILE_HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = 24;
+    static final int INDEX_ENTRY_BYTES = 16;
+    static final int NULL_STRING = -1;
+
+    // A file is mapped in segments of SEGMENT_BYTES, each extended by maxRecordBytes so that any record starting in a
+    // segment ends in the same mapping. A single mapping can't exceed Integer.MAX_VALUE bytes, which bounds the record
+    // size.
+    static final long SEGMENT_BYTES = 1L << 30;
+    static final long MAX_RECORD_BYTES = Integer.MAX_VALUE - SEGMENT_BYTES;
+
+    private ShipmentFile() {
+    }
+
+    // Byte offsets of each column relative to the start of a record.
+    record Layout(int stopCount, int lineItemCount, int stringCount) {
+
+        long stopMiles() {
+            return RECORD_HEADER_BYTES;
+        }
+
+        long orderIds() {
+            return stopMiles() + 8L * stopCount;
+        }
+
+        long weights() {
+            return orderIds() + 8L * lineItemCount;
+        }
+
+        long stopSequenceNumbers() {
+            return weights() + 8L * lineItemCount;
+        }
+
+        long stopAddresses() {
+            return stopSequenceNumbers() + 4L * stopCount;
+        }
+
+        long qtys() {
+            return stopAddresses() + 4L * stopCount;
+        }
+
+        long pickups() {
+            return qtys() + 4L * lineItemCount;
+        }
+
+        long dropOffs() {
+            return pickups() + 4L * lineItemCount;
+        }
+
+        long descriptions() {
+            return dropOffs() + 4L * lineItemCount;
+        }
+
+        long stringOffsets() {
+            return descriptions() + 4L * lineItemCount;
+        }
+
+        long stringData() {
+            return stringOffsets() + 4L * (stringCount + 1);
+        }
+
+        long recordBytes(long stringDataBytes) {
+            return (stringData() + stringDataBytes + 7) & ~7L;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Writes shipments to a ShipmentFile. Records are appended as they are written; the index and the final header are
+// written on close(), so a file is only readable once the writer has been closed successfully.
+class ShipmentFileWriter implements Closeable {
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = ShipmentFile.FILE_HEADER_BYTES;
+    private long maxRecordBytes = 0;
+
+    private long[] shipmentIds = new long[1024];
+    private long[] recordOffsets = new long[1024];
+    private int shipmentCount = 0;
+
+    ShipmentFileWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    void write(Shipment shipment) throws IOException {
+        write(ShipmentView.of(shipment));
+    }
+
+    void write(ShipmentView shipment) throws IOException {
+        int stopCount = shipment.stopCount();
+        int lineItemCount = shipment.lineItemCount();
+
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] addresses = new int[stopCount];
+        int[] descriptions = new int[lineItemCount];
+        long stringDataBytes = 0;
+        for(int i = 0; i < stopCount + lineItemCount; i++) {
+            String value = i < stopCount ? shipment.stopAddress(i) : shipment.lineItemDescription(i - stopCount);
+            int stringIndex = ShipmentFile.NULL_STRING;
+            if(value != null) {
+                Integer existing = stringIndexes.get(value);
+                if(existing == null) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    existing = strings.size();
+                    stringIndexes.put(value, existing);
+                    strings.add(bytes);
+                    stringDataBytes += bytes.length;
+                }
+                stringIndex = existing;
+            }
+            if(i < stopCount) {
+                addresses[i] = stringIndex;
+            } else {
+                descriptions[i - stopCount] = stringIndex;
+            }
+        }
+
+        ShipmentFile.Layout layout = new ShipmentFile.Layout(stopCount, lineItemCount, strings.size());
+        long recordBytes = layout.recordBytes(stringDataBytes);
+        if(recordBytes > ShipmentFile.MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Shipment " + shipment.shipmentId() + " is too large for a shipment file");
+        }
+
+        ByteBuffer record = recordBuffer((int) recordBytes);
+        record.putLong(0, shipment.shipmentId());
+        record.putInt(8, stopCount);
+        record.putInt(12, lineItemCount);
+        record.putInt(16, strings.size());
+        for(int i = 0; i < stopCount; i++) {
+            record.putDouble((int) layout.stopMiles() + 8 * i, shipment.stopMilesFromPreviousStop(i));
+            record.putInt((int) layout.stopSequenceNumbers() + 4 * i, shipment.stopSequenceNumber(i));
+            record.putInt((int) layout.stopAddresses() + 4 * i, addresses[i]);
+        }
+        for(int i = 0; i < lineItemCount; i++) {
+            record.putLong((int) layout.orderIds() + 8 * i, shipment.lineItemOrderId(i));
+            record.putDouble((int) layout.weights() + 8 * i, shipment.lineItemWeight(i));
+            record.putInt((int) layout.qtys() + 4 * i, shipment.lineItemQty(i));
+            record.putInt((int) layout.pickups() + 4 * i, shipment.lineItemPickupStopSequenceNumber(i));
+            record.putInt((int) layout.dropOffs() + 4 * i, shipment.lineItemDropOffStopSequenceNumber(i));
+            record.putInt((int) layout.descriptions() + 4 * i, descriptions[i]);
+        }
+        int stringOffset = 0;
+        for(int i = 0; i < strings.size(); i++) {
+            record.putInt((int) layout.stringOffsets() + 4 * i, stringOffset);
+            record.put((int) layout.stringData() + stringOffset, strings.get(i));
+            stringOffset += strings.get(i).length;
+        }
+        record.putInt((int) layout.stringOffsets() + 4 * strings.size(), stringOffset);
+
+        record.limit((int) recordBytes);
+        writeFully(record, position);
+
+        if(shipmentCount == shipmentIds.length) {
+            shipmentIds = Arrays.copyOf(shipmentIds, shipmentCount * 2);
+            recordOffsets = Arrays.copyOf(recordOffsets, shipmentCount * 2);
+        }
+        shipmentIds[shipmentCount] = shipment.shipmentId();
+        recordOffsets[shipmentCount++] = position;
+        position += recordBytes;
+        maxRecordBytes = Math.max(maxRecordBytes, recordBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try(channel) {
+            int[] order = IntStream.range(0, shipmentCount).boxed()
+                    .sorted(Comparator.comparingLong(i -> shipmentIds[i]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            for(int i = 1; i < order.length; i++) {
+                if(shipmentIds[order[i]] == shipmentIds[order[i - 1]]) {
+                    throw new IllegalArgumentException("Duplicate shipment " + shipmentIds[order[i]] + " in shipment file");
+                }
+            }
+
+            long indexOffset = position;
+            ByteBuffer entries = ByteBuffer.allocate(ShipmentFile.INDEX_ENTRY_BYTES * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i < order.length; i++) {
+                entries.putLong(shipmentIds[order[i]]).putLong(recordOffsets[order[i]]);
+                if(!entries.hasRemaining() || i == order.length - 1) {
+                    entries.flip();
+                    writeFully(entries, position);
+                    position += entries.limit();
+                    entries.clear();
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(ShipmentFile.FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(ShipmentFile.MAGIC)
+                    .putInt(ShipmentFile.VERSION)
+                    .putLong(shipmentCount)
+                    .putLong(indexOffset)
+                    .putLong(maxRecordBytes)
+                    .flip();
+            writeFully(header, 0);
+        }
+    }
+
+    private ByteBuffer recordBuffer(int recordBytes) {
+        if(buffer.capacity() < recordBytes) {
+            buffer = ByteBuffer.allocate(Math.max(recordBytes, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        // Zero the padding and reserved bytes so files are byte-for-byte reproducible.
+        Arrays.fill(buffer.array(), 0, recordBytes, (byte) 0);
+        return buffer;
+    }
+
+    private void writeFully(ByteBuffer source, long at) throws IOException {
+        while(source.hasRemaining()) {
+            at += channel.write(source, at);
+        }
+    }
+}
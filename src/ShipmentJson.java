@@ -0,0 +1,449 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads shipments in the JSON shape from the README and writes allocation results as JSON, without a JSON library or an
+// intermediate document tree: the parser walks the text once and builds the records directly. Unknown fields are
+// skipped. Line items accept both the README field names (pickupStopSequence, dropOffStopSequence) and the record
+// component names (pickupStopSequenceNumber, dropOffStopSequenceNumber). Malformed input throws an
+// IllegalArgumentException naming the offending position, as does nesting an unknown field's value more than
+// MAX_NESTING_DEPTH deep, so that a hostile document can't exhaust the parsing thread's stack.
+final class ShipmentJson {
+
+    static final int MAX_NESTING_DEPTH = 64;
+
+    private final CharSequence text;
+    private int position;
+
+    private ShipmentJson(CharSequence text) {
+        this.text = text;
+    }
+
+    // A shipment object with an additional totalInvoicedAmount field, as used by the NDJSON pipeline and the HTTP API.
+    static ShipmentInvoice parseShipmentInvoice(CharSequence json) {
+        ShipmentJson parser = new ShipmentJson(json);
+        ShipmentInvoice shipmentInvoice = parser.readShipmentInvoice();
+        parser.expectEnd();
+        return shipmentInvoice;
+    }
+
+    static Shipment parseShipment(CharSequence json) {
+        ShipmentJson parser = new ShipmentJson(json);
+        Shipment shipment = parser.readShipmentInvoice(false).shipment();
+        parser.expectEnd();
+        return shipment;
+    }
+
+    // Like parseShipment, but stores the addresses and item descriptions as codes in the given symbol table, so shipments
+    // kept in memory in bulk don't each hold their own copies of the same strings.
+    static EncodedShipment parseEncodedShipment(CharSequence json, SymbolTable symbols) {
+        return EncodedShipment.encode(parseShipment(json), symbols);
+    }
+
+    // A JSON array of shipment invoice objects.
+    static List<ShipmentInvoice> parseShipmentInvoices(CharSequence json) {
+        ShipmentJson parser = new ShipmentJson(json);
+        List<ShipmentInvoice> shipmentInvoices = new ArrayList<>();
+        parser.expect('[');
+        if(!parser.consumeIf(']')) {
+            do {
+                shipmentInvoices.add(parser.readShipmentInvoice());
+            } while(parser.consumeIf(','));
+            parser.expect(']');
+        }
+        parser.expectEnd();
+        return shipmentInvoices;
+    }
+
+    // Writes the shipment on a single line in the shape parseShipmentInvoice reads, using the README field names.
+    static void writeShipmentInvoice(ShipmentInvoice shipmentInvoice, Appendable out) throws IOException {
+        Shipment shipment = shipmentInvoice.shipment();
+        out.append("{\"shipmentId\":").append(Long.toString(shipment.shipmentId()))
+                .append(",\"totalInvoicedAmount\":").append(Double.toString(shipmentInvoice.totalInvoicedAmount()))
+                .append(",\"shipmentStops\":[");
+        for(int i = 0; i < shipment.shipmentStops().size(); i++) {
+            ShipmentStop stop = shipment.shipmentStops().get(i);
+            out.append(i == 0 ? "{" : ",{").append("\"sequenceNumber\":").append(Integer.toString(stop.sequenceNumber()))
+                    .append(",\"address\":");
+            writeString(stop.address(), out);
+            out.append(",\"milesFromPreviousStop\":").append(Double.toString(stop.milesFromPreviousStop())).append('}');
+        }
+        out.append("],\"shipmentLineItems\":[");
+        for(int i = 0; i < shipment.shipmentLineItems().size(); i++) {
+            ShipmentLineItem lineItem = shipment.shipmentLineItems().get(i);
+            out.append(i == 0 ? "{" : ",{").append("\"orderId\":").append(Long.toString(lineItem.orderId()))
+                    .append(",\"itemDescription\":");
+            writeString(lineItem.itemDescription(), out);
+            out.append(",\"qty\":").append(Integer.toString(lineItem.qty()))
+                    .append(",\"weight\":").append(Double.toString(lineItem.weight()))
+                    .append(",\"pickupStopSequence\":").append(Integer.toString(lineItem.pickupStopSequenceNumber()))
+                    .append(",\"dropOffStopSequence\":").append(Integer.toString(lineItem.dropOffStopSequenceNumber()))
+                    .append('}');
+        }
+        out.append("]}");
+    }
+
+    static void writeResult(CostAllocationResult result, Appendable out) throws IOException {
+        out.append("{\"shipmentId\":").append(Long.toString(result.shipmentId())).append(",\"costsByOrderId\":{");
+        boolean first = true;
+        for(var entry : result.costsByOrderId().entrySet()) {
+            if(!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(Long.toString(entry.getKey())).append("\":").append(Double.toString(entry.getValue()));
+        }
+        out.append("}}");
+    }
+
+    static void writeOrderCost(long shipmentId, long orderId, double cost, Appendable out) throws IOException {
+        out.append("{\"shipmentId\":").append(Long.toString(shipmentId))
+                .append(",\"orderId\":").append(Long.toString(orderId))
+                .append(",\"cost\":").append(Double.toString(cost)).append('}');
+    }
+
+    static void writeError(long shipmentId, String errorMessage, Appendable out) throws IOException {
+        out.append("{\"shipmentId\":").append(Long.toString(shipmentId)).append(",\"error\":");
+        writeString(errorMessage, out);
+        out.append('}');
+    }
+
+    static void writeString(String value, Appendable out) throws IOException {
+        if(value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if(c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private ShipmentInvoice readShipmentInvoice() {
+        return readShipmentInvoice(true);
+    }
+
+    private ShipmentInvoice readShipmentInvoice(boolean requireInvoice) {
+        Long shipmentId = null;
+        Double totalInvoicedAmount = null;
+        List<ShipmentStop> stops = null;
+        List<ShipmentLineItem> lineItems = null;
+
+        expect('{');
+        if(!consumeIf('}')) {
+            do {
+                String field = readString();
+                expect(':');
+                switch(field) {
+                    case "shipmentId" -> shipmentId = readLong();
+                    case "totalInvoicedAmount" -> totalInvoicedAmount = readNumber();
+                    case "shipmentStops" -> stops = readStops();
+                    case "shipmentLineItems" -> lineItems = readLineItems();
+                    default -> skipValue();
+                }
+            } while(consumeIf(','));
+            expect('}');
+        }
+
+        if(shipmentId == null || stops == null || lineItems == null) {
+            throw new IllegalArgumentException("Shipment JSON must contain shipmentId, shipmentStops and shipmentLineItems");
+        }
+        if(requireInvoice && totalInvoicedAmount == null) {
+            throw new IllegalArgumentException("Shipment JSON for shipment " + shipmentId + " has no totalInvoicedAmount");
+        }
+        return new ShipmentInvoice(new Shipment(shipmentId, stops, lineItems),
+                totalInvoicedAmount == null ? 0.0 : totalInvoicedAmount);
+    }
+
+    private List<ShipmentStop> readStops() {
+        List<ShipmentStop> stops = new ArrayList<>();
+        expect('[');
+        if(consumeIf(']')) {
+            return stops;
+        }
+        do {
+            int sequenceNumber = 0;
+            String address = null;
+            double milesFromPreviousStop = 0.0;
+
+            expect('{');
+            if(!consumeIf('}')) {
+                do {
+                    String field = readString();
+                    expect(':');
+                    switch(field) {
+                        case "sequenceNumber" -> sequenceNumber = readInt();
+                        case "address" -> address = readNullableString();
+                        case "milesFromPreviousStop" -> milesFromPreviousStop = readNumber();
+                        default -> skipValue();
+                    }
+                } while(consumeIf(','));
+                expect('}');
+            }
+            stops.add(new ShipmentStop(sequenceNumber, address, milesFromPreviousStop));
+        } while(consumeIf(','));
+        expect(']');
+        return stops;
+    }
+
+    private List<ShipmentLineItem> readLineItems() {
+        List<ShipmentLineItem> lineItems = new ArrayList<>();
+        expect('[');
+        if(consumeIf(']')) {
+            return lineItems;
+        }
+        do {
+            long orderId = 0;
+            String itemDescription = null;
+            int qty = 0;
+            double weight = 0.0;
+            int pickupStopSequenceNumber = 0;
+            int dropOffStopSequenceNumber = 0;
+
+            expect('{');
+            if(!consumeIf('}')) {
+                do {
+                    String field = readString();
+                    expect(':');
+                    switch(field) {
+                        case "orderId" -> orderId = readLong();
+                        case "itemDescription" -> itemDescription = readNullableString();
+                        case "qty" -> qty = readInt();
+                        case "weight" -> weight = readNumber();
+                        case "pickupStopSequence", "pickupStopSequenceNumber" -> pickupStopSequenceNumber = readInt();
+                        case "dropOffStopSequence", "dropOffStopSequenceNumber" -> dropOffStopSequenceNumber = readInt();
+                        default -> skipValue();
+                    }
+                } while(consumeIf(','));
+                expect('}');
+            }
+            lineItems.add(new ShipmentLineItem(orderId, itemDescription, qty, weight, pickupStopSequenceNumber,
+                    dropOffStopSequenceNumber));
+        } while(consumeIf(','));
+        expect(']');
+        return lineItems;
+    }
+
+    private void skipValue() {
+        skipValue(1);
+    }
+
+    private void skipValue(int depth) {
+        char c = peek();
+        if(c == '{' || c == '[') {
+            if(depth > MAX_NESTING_DEPTH) {
+                throw error("Nested deeper than " + MAX_NESTING_DEPTH + " levels");
+            }
+            char close = c == '{' ? '}' : ']';
+            position++;
+            if(consumeIf(close)) {
+                return;
+            }
+            do {
+                if(c == '{') {
+                    readString();
+                    expect(':');
+                }
+                skipValue(depth + 1);
+            } while(consumeIf(','));
+            expect(close);
+        } else if(c == '"') {
+            readString();
+        } else if(c == 't' || c == 'f' || c == 'n') {
+            readLiteral();
+        } else {
+            readNumber();
+        }
+    }
+
+    private String readNullableString() {
+        if(peek() == 'n') {
+            readLiteral();
+            return null;
+        }
+        return readString();
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = null;
+        int start = position;
+        while(true) {
+            if(position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position);
+            if(c == '"') {
+                String result = value == null ? text.subSequence(start, position).toString()
+                        : value.append(text, start, position).toString();
+                position++;
+                return result;
+            }
+            if(c == '\\') {
+                if(value == null) {
+                    value = new StringBuilder();
+                }
+                value.append(text, start, position);
+                value.append(readEscape());
+                start = position;
+            } else {
+                position++;
+            }
+        }
+    }
+
+    private char readEscape() {
+        position++;  // Backslash.
+        if(position >= text.length()) {
+            throw error("Unterminated escape");
+        }
+        char c = text.charAt(position++);
+        switch(c) {
+            case '"', '\\', '/' -> {
+                return c;
+            }
+            case 'b' -> {
+                return '\b';
+            }
+            case 'f' -> {
+                return '\f';
+            }
+            case 'n' -> {
+                return '\n';
+            }
+            case 'r' -> {
+                return '\r';
+            }
+            case 't' -> {
+                return '\t';
+            }
+            case 'u' -> {
+                if(position + 4 > text.length()) {
+                    throw error("Truncated unicode escape");
+                }
+                try {
+                    char unicode = (char) Integer.parseInt(text.subSequence(position, position + 4).toString(), 16);
+                    position += 4;
+                    return unicode;
+                } catch (NumberFormatException e) {
+                    throw error("Invalid unicode escape");
+                }
+            }
+            default -> throw error("Invalid escape \\" + c);
+        }
+    }
+
+    private double readNumber() {
+        skipWhitespace();
+        int start = position;
+        while(position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if(start == position) {
+            throw error("Expected a number");
+        }
+        try {
+            return Double.parseDouble(text.subSequence(start, position).toString());
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("Invalid number");
+        }
+    }
+
+    private int readInt() {
+        double value = readNumber();
+        if(value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw error("Expected an integer");
+        }
+        return (int) value;
+    }
+
+    // Ids are parsed exactly rather than through a double, which would round ids above 2^53 and truncate fractions,
+    // silently booking costs to the wrong order.
+    private long readLong() {
+        skipWhitespace();
+        int start = position;
+        if(position < text.length() && text.charAt(position) == '-') {
+            position++;
+        }
+        while(position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+            position++;
+        }
+        if(position < text.length() && "+-.eE".indexOf(text.charAt(position)) >= 0) {
+            throw error("Expected an integer");
+        }
+        boolean hasDigits = position > start && text.charAt(position - 1) != '-';
+        try {
+            return Long.parseLong(text.subSequence(start, position).toString());
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error(hasDigits ? "Integer out of range" : "Expected a number");
+        }
+    }
+
+    private void readLiteral() {
+        for(String literal : new String[] {"true", "false", "null"}) {
+            if(text.length() - position >= literal.length() &&
+                    text.subSequence(position, position + literal.length()).toString().equals(literal)) {
+                position += literal.length();
+                return;
+            }
+        }
+        throw error("Unexpected value");
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if(position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        return text.charAt(position);
+    }
+
+    private boolean consumeIf(char c) {
+        skipWhitespace();
+        if(position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if(!consumeIf(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void expectEnd() {
+        skipWhitespace();
+        if(position < text.length()) {
+            throw error("Unexpected trailing content");
+        }
+    }
+
+    private void skipWhitespace() {
+        while(position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed shipment JSON at position " + position + ": " + message);
+    }
+}
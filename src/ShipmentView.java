@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Index-based read access to a shipment's stops and line items, so allocators can run over storage other than the
+// Shipment records (such as a memory-mapped ShipmentFile) without building a record object per element. Strings are
+// only needed for error messages, so implementations are free to decode them lazily.
+interface ShipmentView {
+
+    long shipmentId();
+
+    int stopCount();
+
+    int stopSequenceNumber(int stop);
+
+    String stopAddress(int stop);
+
+    double stopMilesFromPreviousStop(int stop);
+
+    int lineItemCount();
+
+    long lineItemOrderId(int lineItem);
+
+    String lineItemDescription(int lineItem);
+
+    int lineItemQty(int lineItem);
+
+    double lineItemWeight(int lineItem);
+
+    int lineItemPickupStopSequenceNumber(int lineItem);
+
+    int lineItemDropOffStopSequenceNumber(int lineItem);
+
+    static ShipmentView of(Shipment shipment) {
+        return new ShipmentRecordView(shipment);
+    }
+
+    default Shipment toShipment() {
+        List<ShipmentStop> stops = new ArrayList<>(stopCount());
+        for(int i = 0; i < stopCount(); i++) {
+            stops.add(new ShipmentStop(stopSequenceNumber(i), stopAddress(i), stopMilesFromPreviousStop(i)));
+        }
+        List<ShipmentLineItem> lineItems = new ArrayList<>(lineItemCount());
+        for(int i = 0; i < lineItemCount(); i++) {
+            lineItems.add(new ShipmentLineItem(lineItemOrderId(i), lineItemDescription(i), lineItemQty(i),
+                    lineItemWeight(i), lineItemPickupStopSequenceNumber(i), lineItemDropOffStopSequenceNumber(i)));
+        }
+        return new Shipment(shipmentId(), stops, lineItems);
+    }
+}
+
+record ShipmentRecordView(Shipment shipment) implements ShipmentView {
+
+    @Override
+    public long shipmentId() {
+        return shipment.shipmentId();
+    }
+
+    @Override
+    public int stopCount() {
+        return shipment.shipmentStops().size();
+    }
+
+    @Override
+    public int stopSequenceNumber(int stop) {
+        return shipment.shipmentStops().get(stop).sequenceNumber();
+    }
+
+    @Override
+    public String stopAddress(int stop) {
+        return shipment.shipmentStops().get(stop).address();
+    }
+
+    @Override
+    public double stopMilesFromPreviousStop(int stop) {
+        return shipment.shipmentStops().get(stop).milesFromPreviousStop();
+    }
+
+    @Override
+    public int lineItemCount() {
+        return shipment.shipmentLineItems().size();
+    }
+
+    @Override
+    public long lineItemOrderId(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).orderId();
+    }
+
+    @Override
+    public String lineItemDescription(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).itemDescription();
+    }
+
+    @Override
+    public int lineItemQty(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).qty();
+    }
+
+    @Override
+    public double lineItemWeight(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).weight();
+    }
+
+    @Override
+    public int lineItemPickupStopSequenceNumber(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).pickupStopSequenceNumber();
+    }
+
+    @Override
+    public int lineItemDropOffStopSequenceNumber(int lineItem) {
+        return shipment.shipmentLineItems().get(lineItem).dropOffStopSequenceNumber();
+    }
+
+    @Override
+    public Shipment toShipment() {
+        return shipment;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Assigns each distinct string a dense int code, so that many shipments repeating the same warehouse addresses and item
+// descriptions can hold one int per field instead of one String each. One table is meant to be shared by every thread
+// ingesting shipments: looking up a string that already has a code is a ConcurrentHashMap get, only new strings take a
+// lock, and decoding is a lock-free read of an append-only array of chunks. Codes are never reused or removed, so the
+// table grows with the number of distinct strings, not the number of shipments.
+final class SymbolTable {
+
+    // The code of a null string, which is never stored.
+    static final int NULL_CODE = -1;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    // Replaced, never modified in place, when it needs another chunk. A thread that obtains a code from encode (or from
+    // an object built by a thread that did) is guaranteed to see the symbol written for it.
+    private volatile String[][] chunks = new String[1][];
+    private int size;  // Guarded by this.
+
+    int encode(String symbol) {
+        if(symbol == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(symbol);
+        return code != null ? code : codes.computeIfAbsent(symbol, this::append);
+    }
+
+    String decode(int code) {
+        if(code == NULL_CODE) {
+            return null;
+        }
+        String[][] chunks = this.chunks;
+        int chunk = code >>> CHUNK_BITS;
+        if(code < 0 || chunk >= chunks.length || chunks[chunk] == null || chunks[chunk][code & (CHUNK_SIZE - 1)] == null) {
+            throw new IllegalArgumentException("Unknown symbol code: " + code);
+        }
+        return chunks[chunk][code & (CHUNK_SIZE - 1)];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // Called by computeIfAbsent at most once per distinct string.
+    private synchronized int append(String symbol) {
+        int code = size;
+        if(code == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Symbol table is full");
+        }
+        int chunk = code >>> CHUNK_BITS;
+        String[][] current = chunks;
+        if(chunk == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if(current[chunk] == null) {
+            current[chunk] = new String[CHUNK_SIZE];
+        }
+        current[chunk][code & (CHUNK_SIZE - 1)] = symbol;
+        chunks = current;
+        size = code + 1;
+        return code;
+    }
+}
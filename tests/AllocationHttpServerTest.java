@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllocationHttpServerTest {
+
+    private static final String SHIPMENT_1 = ShipmentJsonTest.README_SHIPMENT;
+
+    private AllocationHttpServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new AllocationHttpServer(new InetSocketAddress("localhost", 0), 4096);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void testAllocate() throws Exception {
+        HttpResponse<String> byWeight = post("/allocate?strategy=weight", SHIPMENT_1);
+        assertEquals(200, byWeight.statusCode());
+        assertTrue(byWeight.body().matches("\\{\"shipmentId\":1,\"costsByOrderId\":\\{\"1\":740\\.60\\d*,\"2\":493\\.73\\d*}}"),
+                byWeight.body());
+
+        HttpResponse<String> byMiles = post("/allocate?strategy=MILEAGE", SHIPMENT_1);
+        assertEquals(200, byMiles.statusCode());
+        assertTrue(byMiles.body().startsWith("{\"shipmentId\":1,\"costsByOrderId\":{\"1\":1095.8"), byMiles.body());
+    }
+
+    @Test
+    void testBatch() throws Exception {
+        String empty = "{\"shipmentId\": 2, \"totalInvoicedAmount\": 1, \"shipmentStops\": [], \"shipmentLineItems\": []}";
+        HttpResponse<String> response = post("/allocate/batch?strategy=weight", "[" + SHIPMENT_1 + "," + empty + "]");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("[{\"shipmentId\":1,\"costsByOrderId\":{"), response.body());
+        assertTrue(response.body().endsWith(",{\"shipmentId\":2,\"error\":\"Shipment has no line items\"}]"), response.body());
+    }
+
+    @Test
+    void testBadRequests() throws Exception {
+        assertEquals(400, post("/allocate?strategy=weight", "{").statusCode());
+        assertEquals(400, post("/allocate?strategy=volume", SHIPMENT_1).statusCode());
+        assertEquals(400, post("/allocate", SHIPMENT_1).statusCode());
+        assertEquals(404, post("/allocate/other?strategy=weight", SHIPMENT_1).statusCode());
+        assertEquals(413, post("/allocate?strategy=weight", SHIPMENT_1.repeat(10)).statusCode());
+        String nested = "{\"shipmentId\": 1, \"extra\": " + "[".repeat(1_000) + "]".repeat(1_000) + "}";
+        assertEquals(400, post("/allocate?strategy=weight", nested).statusCode());
+        assertEquals(400, post("/allocate/batch?strategy=weight", "[" + nested + "]").statusCode());
+
+        HttpResponse<String> get = client.send(HttpRequest.newBuilder(
+                URI.create("http://localhost:" + server.port() + "/allocate?strategy=weight")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+
+        HttpResponse<String> invalid = post("/allocate?strategy=weight",
+                "{\"shipmentId\": 2, \"totalInvoicedAmount\": 1, \"shipmentStops\": [], \"shipmentLineItems\": []}");
+        assertEquals(400, invalid.statusCode());
+        assertEquals("{\"error\":\"Shipment has no line items\"}", invalid.body());
+    }
+}
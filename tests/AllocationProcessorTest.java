@@ -0,0 +1,268 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllocationProcessorTest {
+
+    private static ShipmentInvoice shipmentInvoice(long shipmentId) {
+        return new ShipmentInvoice(new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        ), 1234.34);
+    }
+
+    // Requests initialRequest outcomes on subscription and records everything it receives.
+    private static final class CollectingSubscriber implements Flow.Subscriber<AllocationOutcome> {
+        private final long initialRequest;
+        private final List<AllocationOutcome> outcomes = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile Flow.Subscription subscription;
+
+        CollectingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if(initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(AllocationOutcome outcome) {
+            outcomes.add(outcome);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // Lets a test feed the processor by hand and see how much it has requested.
+    private static final class ManualSubscription implements Flow.Subscription {
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.set(true);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void testInputOrder() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        // Closed explicitly to signal the end of input, so not a resource.
+        SubmissionPublisher<ShipmentInvoice> publisher = new SubmissionPublisher<>();
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 4, 256, 7, 5,
+                AllocationProcessor.Ordering.INPUT_ORDER)) {
+            publisher.subscribe(processor);
+            processor.subscribe(subscriber);
+            for(int i = 0; i < 1_000; i++) {
+                publisher.submit(shipmentInvoice(i));
+            }
+            publisher.close();
+            subscriber.await();
+        }
+
+        assertEquals(1_000, subscriber.outcomes.size());
+        for(int i = 0; i < 1_000; i++) {
+            AllocationOutcome outcome = subscriber.outcomes.get(i);
+            assertEquals(i, outcome.shipmentId());
+            assertEquals(740.60, outcome.result().costsByOrderId().get(1L), 0.01);
+        }
+    }
+
+    @Test
+    void testCompletionOrderAndRejectedShipments() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        SubmissionPublisher<ShipmentInvoice> publisher = new SubmissionPublisher<>();
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 4, 64, 8, 5,
+                AllocationProcessor.Ordering.COMPLETION_ORDER)) {
+            publisher.subscribe(processor);
+            processor.subscribe(subscriber);
+            for(int i = 0; i < 500; i++) {
+                publisher.submit(i % 50 == 0 ? new ShipmentInvoice(new Shipment(i, List.of(), List.of()), 10.0)
+                        : shipmentInvoice(i));
+            }
+            publisher.close();
+            subscriber.await();
+        }
+
+        assertEquals(500, subscriber.outcomes.size());
+        assertEquals(500, subscriber.outcomes.stream().mapToLong(AllocationOutcome::shipmentId).distinct().count());
+        for(AllocationOutcome outcome : subscriber.outcomes) {
+            assertEquals(outcome.shipmentId() % 50 != 0, outcome.isSuccess());
+        }
+    }
+
+    @Test
+    void testBackpressure() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        ManualSubscription upstream = new ManualSubscription();
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 2, 32, 4, 1,
+                AllocationProcessor.Ordering.INPUT_ORDER)) {
+            processor.subscribe(subscriber);
+            processor.onSubscribe(upstream);
+            assertEquals(32, upstream.requested.get());
+            for(int i = 0; i < 32; i++) {
+                processor.onNext(shipmentInvoice(i));
+            }
+
+            // Nothing is asked for downstream, so nothing more is requested upstream however long we wait.
+            Thread.sleep(50);
+            assertEquals(32, upstream.requested.get());
+            assertTrue(subscriber.outcomes.isEmpty());
+
+            subscriber.subscription.request(5);
+            awaitCondition(() -> subscriber.outcomes.size() == 5);
+            awaitCondition(() -> upstream.requested.get() == 37);
+
+            subscriber.subscription.request(Long.MAX_VALUE);
+            processor.onComplete();
+            subscriber.await();
+            assertEquals(32, subscriber.outcomes.size());
+        }
+    }
+
+    @Test
+    void testPartialBatchIsFlushedAfterDelay() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        ManualSubscription upstream = new ManualSubscription();
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 1, 1_000, 1_000, 20,
+                AllocationProcessor.Ordering.INPUT_ORDER)) {
+            processor.subscribe(subscriber);
+            processor.onSubscribe(upstream);
+            processor.onNext(shipmentInvoice(1));
+            processor.onNext(shipmentInvoice(2));
+
+            // Far from a full batch and upstream hasn't completed, so only the time window can release these.
+            awaitCondition(() -> subscriber.outcomes.size() == 2);
+            assertEquals(1, subscriber.done.getCount());
+        }
+    }
+
+    @Test
+    void testUpstreamErrorAfterOutcomes() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 2)) {
+            processor.subscribe(subscriber);
+            processor.onSubscribe(new ManualSubscription());
+            processor.onNext(shipmentInvoice(1));
+            processor.onNext(shipmentInvoice(2));
+            processor.onError(new IllegalStateException("dispatch feed lost"));
+            subscriber.await();
+        }
+
+        assertEquals(2, subscriber.outcomes.size());
+        assertEquals("dispatch feed lost", subscriber.error.get().getMessage());
+    }
+
+    @Test
+    void testAllocatorFailureWhileBatchesArePending() throws InterruptedException {
+        CountDownLatch partialBatchPending = new CountDownLatch(1);
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        CostAllocator allocator = (shipment, totalInvoicedAmount) -> {
+            try {
+                if(shipment.shipmentId() == 1) {
+                    releaseFirstBatch.await();
+                } else if(shipment.shipmentId() == 3) {
+                    partialBatchPending.await();
+                    throw new IllegalStateException("allocator bug");
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return new WeightCostAllocator().allocateCosts(shipment, totalInvoicedAmount);
+        };
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        ManualSubscription upstream = new ManualSubscription();
+        try(AllocationProcessor processor = new AllocationProcessor(allocator, 2, 16, 2, 1_000,
+                AllocationProcessor.Ordering.INPUT_ORDER)) {
+            processor.subscribe(subscriber);
+            processor.onSubscribe(upstream);
+            for(int i = 1; i <= 5; i++) {
+                processor.onNext(shipmentInvoice(i));
+            }
+
+            // The second batch fails while the first is still being allocated and shipment 5 waits in a partial batch.
+            partialBatchPending.countDown();
+            awaitCondition(upstream.cancelled::get);
+            releaseFirstBatch.countDown();
+            subscriber.await();
+        }
+
+        assertTrue(subscriber.outcomes.isEmpty());
+        assertEquals("allocator bug", subscriber.error.get().getMessage());
+    }
+
+    @Test
+    void testCancelAndSecondSubscriber() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(1);
+        CollectingSubscriber second = new CollectingSubscriber(1);
+        ManualSubscription upstream = new ManualSubscription();
+        try(AllocationProcessor processor = new AllocationProcessor(new WeightCostAllocator(), 1)) {
+            processor.onSubscribe(upstream);
+            processor.subscribe(subscriber);
+            processor.subscribe(second);
+            second.await();
+            assertInstanceOf(IllegalStateException.class, second.error.get());
+
+            subscriber.subscription.cancel();
+            assertTrue(upstream.cancelled.get());
+            processor.onNext(shipmentInvoice(1));
+            Thread.sleep(30);
+            assertTrue(subscriber.outcomes.isEmpty());
+            assertFalse(subscriber.done.getCount() == 0);
+        }
+    }
+}
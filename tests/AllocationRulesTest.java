@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllocationRulesTest {
+
+    private static final Shipment SHIPMENT = new Shipment(
+            1,
+            List.of(
+                    new ShipmentStop(1, "The White House", 0),
+                    new ShipmentStop(2, "Bob's House", 425),
+                    new ShipmentStop(3, "World of Coca-Cola", 123)
+            ),
+            List.of(
+                    new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                    new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                    new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+            )
+    );
+
+    private static AllocationRules rules(String... keysAndValues) {
+        Properties properties = new Properties();
+        for(int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return AllocationRules.parse(properties);
+    }
+
+    private static double cost(CostAllocator costAllocator, long orderId) {
+        return costAllocator.allocateCosts(SHIPMENT, 1234.34).costsByOrderId().get(orderId);
+    }
+
+    @Test
+    void testSingleStrategyMatchesItsAllocator() {
+        CostAllocator byWeight = rules("acme.mix", "weight").forCustomer("acme");
+        CostAllocator byMiles = rules("acme.mix", "mileage:1.0").forCustomer("acme");
+
+        assertEquals(new WeightCostAllocator().allocateCosts(SHIPMENT, 1234.34), byWeight.allocateCosts(SHIPMENT, 1234.34));
+        assertEquals(new MileageCostAllocator().allocateCosts(SHIPMENT, 1234.34), byMiles.allocateCosts(SHIPMENT, 1234.34));
+    }
+
+    @Test
+    void testMix() {
+        CostAllocator mixed = rules("acme.mix", "weight:0.7, mileage:0.3").forCustomer("acme");
+
+        assertEquals(0.7 * 740.60 + 0.3 * 1095.82, cost(mixed, 1), 0.01);
+        assertEquals(0.7 * 493.74 + 0.3 * 138.53, cost(mixed, 2), 0.01);
+
+        CostAllocator threeWay = rules("acme.mix", "weight:0.5, mileage:0.3, ton-mile:0.2").forCustomer("acme");
+        assertEquals(0.5 * 493.74 + 0.3 * 138.53 + 0.2 * 180.21, cost(threeWay, 2), 0.01);
+    }
+
+    @Test
+    void testWeightFloor() {
+        CostAllocator floored = rules("acme.mix", "weight", "acme.weightFloor", "150").forCustomer("acme");
+
+        // Every line item is billed as 150 lb, so order 1 pays for two of the three.
+        assertEquals(1234.34 * 2 / 3, cost(floored, 1), 1e-9);
+        assertEquals(1234.34 / 3, cost(floored, 2), 1e-9);
+
+        // Tigers 150 lb x 548 mi, lions 150 lb x 425 mi, bears 150 lb x 123 mi.
+        CostAllocator flooredTonMiles = rules("acme.mix", "ton-mile", "acme.weightFloor", "150").forCustomer("acme");
+        assertEquals(1234.34 * 123 / 1096, cost(flooredTonMiles, 2), 1e-9);
+    }
+
+    @Test
+    void testChargeLimits() {
+        CostAllocator capped = rules("acme.mix", "weight", "acme.maxCharge", "700").forCustomer("acme");
+        assertEquals(700.0, cost(capped, 1), 1e-9);
+        assertEquals(534.34, cost(capped, 2), 1e-9);
+
+        CostAllocator minimum = rules("acme.mix", "weight", "acme.minCharge", "600").forCustomer("acme");
+        assertEquals(634.34, cost(minimum, 1), 1e-9);
+        assertEquals(600.0, cost(minimum, 2), 1e-9);
+
+        CostAllocator tooHigh = rules("acme.mix", "weight", "acme.minCharge", "700").forCustomer("acme");
+        assertThrows(IllegalArgumentException.class, () -> tooHigh.allocateCosts(SHIPMENT, 1234.34));
+        CostAllocator tooLow = rules("acme.mix", "weight", "acme.maxCharge", "500").forCustomer("acme");
+        assertThrows(IllegalArgumentException.class, () -> tooLow.allocateCosts(SHIPMENT, 1234.34));
+    }
+
+    @Test
+    void testClampChargesAddsUpAndKeepsOrder() {
+        Random random = new Random(7);
+        for(int round = 0; round < 1_000; round++) {
+            int orderCount = 1 + random.nextInt(20);
+            double[] charges = new double[orderCount];
+            double total = 0.0;
+            for(int i = 0; i < orderCount; i++) {
+                charges[i] = random.nextDouble() * 1000;
+                total += charges[i];
+            }
+            double average = total / orderCount;
+            double minCharge = random.nextBoolean() ? 0.0 : random.nextDouble() * average;
+            double maxCharge = random.nextBoolean() ? Double.POSITIVE_INFINITY : average * (1 + random.nextDouble() * 3);
+            double[] clamped = charges.clone();
+
+            RuleSetCostAllocator.clampCharges(clamped, total, minCharge, maxCharge);
+
+            double clampedTotal = 0.0;
+            for(int i = 0; i < orderCount; i++) {
+                assertTrue(clamped[i] >= minCharge && clamped[i] <= maxCharge);
+                for(int j = 0; j < orderCount; j++) {
+                    if(charges[i] <= charges[j]) {
+                        assertTrue(clamped[i] <= clamped[j]);
+                    }
+                }
+                clampedTotal += clamped[i];
+            }
+            assertEquals(total, clampedTotal, total * 1e-12);
+        }
+
+        // An invoice of exactly the sum of the caps, where maxCharge / charge * charge rounds below maxCharge.
+        double[] atCaps = {49, 49};
+        RuleSetCostAllocator.clampCharges(atCaps, 2.0, 0.0, 1.0);
+        assertArrayEquals(new double[] {1.0, 1.0}, atCaps);
+    }
+
+    @Test
+    void testCompiledRulesAreCachedByRuleSet() {
+        AllocationRules rules = rules("acme.mix", "weight", "default.mix", "mileage");
+
+        assertSame(rules.forCustomer("acme"), rules.forCustomer("acme"));
+        assertSame(rules.forCustomer("globex"), rules.forCustomer("globex"));
+        assertSame(rules.forCustomer("default"), rules.forCustomer("globex"));
+        assertSame(rules.forCustomer("globex"), rules.forCustomer("initech"));
+        assertEquals(138.53, cost(rules.forCustomer("globex"), 2), 0.01);
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight").forCustomer("globex"));
+    }
+
+    @Test
+    void testInvalidRules() {
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight:0.5, mileage:0.4"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight:0.5, weight:0.5"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "volume"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight", "acme.discount", "5"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight", "acme.minCharge", "lots"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.mix", "weight", "acme.minCharge", "10",
+                "acme.maxCharge", "5"));
+        assertThrows(IllegalArgumentException.class, () -> rules("acme.weightFloor", "10"));
+        assertThrows(IllegalArgumentException.class, () -> rules("mix", "weight"));
+    }
+
+    @Test
+    void testLoad(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("rules.properties");
+        Files.writeString(file, """
+                # Acme pays mostly by weight, with a minimum charge per order.
+                acme.mix = weight:0.7, mileage:0.3
+                acme.minCharge = 25
+                default.mix = ton-mile
+                """);
+
+        AllocationRules rules = AllocationRules.load(file);
+
+        assertEquals(2, rules.ruleSets().size());
+        assertEquals(25.0, rules.ruleSets().get("acme").minCharge());
+        assertEquals(1.0, rules.ruleSets().get("default").mix().get(AllocationStrategy.TON_MILE));
+    }
+}
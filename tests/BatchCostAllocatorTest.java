@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchCostAllocatorTest {
+
+    private static Shipment goodShipment(long shipmentId) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    @Test
+    void testGoodShipments() {
+        List<ShipmentInvoice> invoices = List.of(
+                new ShipmentInvoice(goodShipment(1), 1234.34),
+                new ShipmentInvoice(goodShipment(2), 1234.34)
+        );
+
+        List<AllocationOutcome> byWeight = new BatchCostAllocator(new WeightCostAllocator()).allocateCosts(invoices);
+        List<AllocationOutcome> byMiles = new BatchCostAllocator(new MileageCostAllocator()).allocateCosts(invoices);
+
+        for (int i = 0; i < invoices.size(); i++) {
+            assertEquals(i + 1, byWeight.get(i).shipmentId());
+            assertEquals(740.60, byWeight.get(i).result().costsByOrderId().get(1L), 0.01);
+            assertEquals(493.74, byWeight.get(i).result().costsByOrderId().get(2L), 0.01);
+            assertEquals(1095.82, byMiles.get(i).result().costsByOrderId().get(1L), 0.01);
+            assertEquals(138.53, byMiles.get(i).result().costsByOrderId().get(2L), 0.01);
+        }
+    }
+
+    @Test
+    void testBadShipmentDoesNotAbortBatch() {
+        List<ShipmentInvoice> invoices = List.of(
+                new ShipmentInvoice(goodShipment(1), 1234.34),
+                new ShipmentInvoice(new Shipment(2, List.of(), List.of()), 1234.34),
+                new ShipmentInvoice(goodShipment(3), 1234.34)
+        );
+
+        List<AllocationOutcome> outcomes = new BatchCostAllocator(new WeightCostAllocator()).allocateCosts(invoices);
+
+        assertEquals(3, outcomes.size());
+        assertTrue(outcomes.get(0).isSuccess());
+        assertFalse(outcomes.get(1).isSuccess());
+        assertEquals(2, outcomes.get(1).shipmentId());
+        assertEquals("Shipment has no line items", outcomes.get(1).errorMessage());
+        assertNull(outcomes.get(1).result());
+        assertTrue(outcomes.get(2).isSuccess());
+    }
+
+    @Test
+    void testDeterministicAcrossParallelism() {
+        List<ShipmentInvoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            invoices.add(new ShipmentInvoice(goodShipment(i), 1000 + i));
+        }
+
+        List<AllocationOutcome> sequential;
+        List<AllocationOutcome> parallel;
+        ForkJoinPool onePool = new ForkJoinPool(1);
+        ForkJoinPool manyPool = new ForkJoinPool(8);
+        try {
+            sequential = new BatchCostAllocator(new MileageCostAllocator(), onePool, 1000).allocateCosts(invoices);
+            parallel = new BatchCostAllocator(new MileageCostAllocator(), manyPool, 1).allocateCosts(invoices);
+        } finally {
+            onePool.shutdown();
+            manyPool.shutdown();
+        }
+
+        assertEquals(sequential, parallel);
+    }
+}
@@ -0,0 +1,196 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingCostAllocatorTest {
+
+    private static Shipment shipment(long shipmentId, double lionsWeight) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, lionsWeight, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    // Counts calls through to the real allocator.
+    private static class CountingCostAllocator implements CostAllocator {
+        private final CostAllocator delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        CountingCostAllocator(CostAllocator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CostAllocationResult allocateCosts(Shipment shipment, double totalInvoicedAmount) {
+            calls.incrementAndGet();
+            return delegate.allocateCosts(shipment, totalInvoicedAmount);
+        }
+    }
+
+    @Test
+    void testRepeatedRequestHitsCache() {
+        CountingCostAllocator weight = new CountingCostAllocator(new WeightCostAllocator());
+        CachingCostAllocator costAllocator = new CachingCostAllocator("weight", weight,
+                new AllocationResultCache(100, 0));
+
+        CostAllocationResult first = costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        CostAllocationResult second = costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+
+        assertSame(first, second);
+        assertEquals(1, weight.calls.get());
+        assertEquals(740.60, first.costsByOrderId().get(1L), 0.01);
+        assertEquals(493.74, first.costsByOrderId().get(2L), 0.01);
+        AllocationResultCache.Stats stats = costAllocator.cache().stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    void testKeyCoversContentAmountAndStrategy() {
+        AllocationResultCache cache = new AllocationResultCache(100, 0);
+        CountingCostAllocator weight = new CountingCostAllocator(new WeightCostAllocator());
+        CountingCostAllocator mileage = new CountingCostAllocator(new MileageCostAllocator());
+        CachingCostAllocator cachingWeight = new CachingCostAllocator("weight", weight, cache);
+        CachingCostAllocator cachingMileage = new CachingCostAllocator("mileage", mileage, cache);
+
+        cachingWeight.allocateCosts(shipment(1, 125), 1234.34);
+        cachingWeight.allocateCosts(shipment(1, 126), 1234.34);
+        cachingWeight.allocateCosts(shipment(1, 125), 1000);
+        cachingWeight.allocateCosts(shipment(2, 125), 1234.34);
+        CostAllocationResult byMileage = cachingMileage.allocateCosts(shipment(1, 125), 1234.34);
+
+        assertEquals(4, weight.calls.get());
+        assertEquals(1, mileage.calls.get());
+        assertEquals(1095.81, byMileage.costsByOrderId().get(1L), 0.01);
+        assertEquals(0, cache.stats().hits());
+        assertEquals(5, cache.stats().size());
+    }
+
+    @Test
+    void testCachedResultIsImmutable() {
+        CachingCostAllocator costAllocator = new CachingCostAllocator(AllocationStrategy.WEIGHT,
+                new AllocationResultCache(100, 0));
+        CostAllocationResult result = costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+
+        assertThrows(UnsupportedOperationException.class, () -> result.costsByOrderId().put(1L, 0.0));
+        OrderCostMap costs = (OrderCostMap) result.costsByOrderId();
+        assertThrows(UnsupportedOperationException.class, () -> costs.add(1L, 1.0));
+        assertThrows(UnsupportedOperationException.class, costs::reset);
+        assertEquals(740.60, costAllocator.allocateCosts(shipment(1, 125), 1234.34).costsByOrderId().get(1L), 0.01);
+    }
+
+    @Test
+    void testCopyIntoTargetMapDoesNotShareCachedResult() {
+        CachingCostAllocator costAllocator = new CachingCostAllocator(AllocationStrategy.WEIGHT,
+                new AllocationResultCache(100, 0));
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+
+        OrderCostMap target = new OrderCostMap();
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34, target);
+        target.add(1L, 1000);
+
+        assertEquals(740.60, costAllocator.allocateCosts(shipment(1, 125), 1234.34).costsByOrderId().get(1L), 0.01);
+        assertNotSame(target, costAllocator.allocateCosts(shipment(1, 125), 1234.34).costsByOrderId());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        CountingCostAllocator weight = new CountingCostAllocator(new WeightCostAllocator());
+        CachingCostAllocator costAllocator = new CachingCostAllocator("weight", weight,
+                new AllocationResultCache(2, 0, 1, System::nanoTime));
+
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        costAllocator.allocateCosts(shipment(2, 125), 1234.34);
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        costAllocator.allocateCosts(shipment(3, 125), 1234.34);
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        costAllocator.allocateCosts(shipment(2, 125), 1234.34);
+
+        // 1 was used after 2, so 2 is evicted first, then 3 is evicted by 2's recomputation.
+        assertEquals(4, weight.calls.get());
+        AllocationResultCache.Stats stats = costAllocator.cache().stats();
+        assertEquals(2, stats.hits());
+        assertEquals(4, stats.misses());
+        assertEquals(2, stats.evictions());
+        assertEquals(2, stats.size());
+    }
+
+    @Test
+    void testExpiredEntryIsRecomputed() {
+        AtomicLong now = new AtomicLong();
+        CountingCostAllocator weight = new CountingCostAllocator(new WeightCostAllocator());
+        CachingCostAllocator costAllocator = new CachingCostAllocator("weight", weight,
+                new AllocationResultCache(100, 1_000, 4, now::get));
+
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        now.set(999);
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+        now.set(1_000);
+        costAllocator.allocateCosts(shipment(1, 125), 1234.34);
+
+        assertEquals(2, weight.calls.get());
+        AllocationResultCache.Stats stats = costAllocator.cache().stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(1, stats.expirations());
+    }
+
+    @Test
+    void testFailuresAreNotCached() {
+        CountingCostAllocator weight = new CountingCostAllocator(new WeightCostAllocator());
+        CachingCostAllocator costAllocator = new CachingCostAllocator("weight", weight,
+                new AllocationResultCache(100, 0));
+        Shipment noLineItems = new Shipment(1, List.of(new ShipmentStop(1, "The White House", 0)), List.of());
+
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(noLineItems, 100));
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(noLineItems, 100));
+
+        assertEquals(2, weight.calls.get());
+        assertEquals(0, costAllocator.cache().stats().size());
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        CachingCostAllocator costAllocator = new CachingCostAllocator(AllocationStrategy.WEIGHT,
+                new AllocationResultCache(64, 0));
+        List<Future<?>> futures = new ArrayList<>();
+        try(ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for(int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for(int i = 0; i < 10_000; i++) {
+                        CostAllocationResult result = costAllocator.allocateCosts(shipment(i % 100, 125), 1234.34);
+                        assertEquals(740.60, result.costsByOrderId().get(1L), 0.01);
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        AllocationResultCache.Stats stats = costAllocator.cache().stats();
+        assertEquals(80_000, stats.hits() + stats.misses());
+        assertTrue(stats.size() <= 64);
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CentsCostAllocatorTest {
+
+    private static final Shipment SHIPMENT = new Shipment(
+            1,
+            List.of(
+                    new ShipmentStop(1, "The White House", 0),
+                    new ShipmentStop(2, "Bob's House", 425),
+                    new ShipmentStop(3, "World of Coca-Cola", 123)
+            ),
+            List.of(
+                    new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                    new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                    new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+            )
+    );
+
+    @Test
+    void testGoodShipment() {
+        CostAllocationResult byWeightResult = new CentsCostAllocator(AllocationStrategy.WEIGHT).allocateCosts(SHIPMENT, 1234.34);
+        assertEquals(740.60, byWeightResult.costsByOrderId().get(1L), 0.0);
+        assertEquals(493.74, byWeightResult.costsByOrderId().get(2L), 0.0);
+
+        // Exact shares are 1095.8146 and 138.5254, so order 2 has the larger remainder and gets the leftover cent.
+        CostAllocationResult byMilesResult = new CentsCostAllocator(AllocationStrategy.MILEAGE).allocateCosts(SHIPMENT, 1234.34);
+        assertEquals(1095.81, byMilesResult.costsByOrderId().get(1L), 0.0);
+        assertEquals(138.53, byMilesResult.costsByOrderId().get(2L), 0.0);
+    }
+
+    @Test
+    void testEvenSplitIsDeterministic() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425)
+                ),
+                List.of(
+                        new ShipmentLineItem(3, "tigers", 1, 10, 1, 2),
+                        new ShipmentLineItem(1, "lions", 1, 10, 1, 2),
+                        new ShipmentLineItem(2, "bears", 1, 10, 1, 2)
+                )
+        );
+
+        CentsAllocation allocation = new CentsCostAllocator(AllocationStrategy.WEIGHT).allocateCents(shipment, 10000);
+
+        // Equal remainders: the leftover cent goes to the order that appears first.
+        assertArrayEquals(new long[] {3, 1, 2}, allocation.orderIds());
+        assertArrayEquals(new long[] {3334, 3333, 3333}, allocation.centsByOrder());
+    }
+
+    @Test
+    void testSumsExactlyToInvoice() {
+        Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            List<ShipmentStop> stops = List.of(
+                    new ShipmentStop(1, "A", 0),
+                    new ShipmentStop(2, "B", 1 + random.nextInt(500)),
+                    new ShipmentStop(3, "C", 1 + random.nextInt(500))
+            );
+            List<ShipmentLineItem> lineItems = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(50); i++) {
+                int pickup = 1 + random.nextInt(2);
+                lineItems.add(new ShipmentLineItem(random.nextInt(20), "item", 1, 0.01 + random.nextDouble() * 1000,
+                        pickup, pickup + 1 + random.nextInt(3 - pickup)));
+            }
+            Shipment shipment = new Shipment(run, stops, lineItems);
+            long totalCents = random.nextInt(100_000_000);
+
+            for (AllocationStrategy strategy : AllocationStrategy.values()) {
+                CentsAllocation allocation = new CentsCostAllocator(strategy).allocateCents(shipment, totalCents);
+                assertEquals(totalCents, allocation.totalCents());
+
+                CostAllocationResult doubles = strategy.costAllocator().allocateCosts(shipment, totalCents / 100.0);
+                for (int i = 0; i < allocation.orderIds().length; i++) {
+                    assertEquals(doubles.costsByOrderId().get(allocation.orderIds()[i]),
+                            allocation.centsByOrder()[i] / 100.0, 0.01);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testZeroTotalInvoice() {
+        CentsAllocation allocation = new CentsCostAllocator(AllocationStrategy.MILEAGE).allocateCents(SHIPMENT, 0);
+        assertArrayEquals(new long[] {0, 0}, allocation.centsByOrder());
+    }
+
+    @Test
+    void testInvalidShipmentsAndAmounts() {
+        CostAllocator byWeightAllocator = new CentsCostAllocator(AllocationStrategy.WEIGHT);
+        assertThrows(IllegalArgumentException.class, () -> byWeightAllocator.allocateCosts(new Shipment(1, List.of(), List.of()), 1234.56));
+        assertThrows(IllegalArgumentException.class, () -> byWeightAllocator.allocateCosts(SHIPMENT, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> byWeightAllocator.allocateCosts(SHIPMENT, 1e300));
+    }
+}
@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EncodedShipmentTest {
+
+    private static Shipment shipment(long shipmentId) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    @Test
+    void testRoundTrip() {
+        Shipment shipment = shipment(1);
+        EncodedShipment encoded = EncodedShipment.encode(shipment, new SymbolTable());
+
+        assertEquals(shipment, encoded.toShipment());
+        assertEquals(new WeightCostAllocator().allocateCosts(shipment, 1234.34),
+                new WeightCostAllocator().allocateCosts(encoded.toShipment(), 1234.34));
+
+        OrderCostMap costs = new OrderCostMap();
+        new MileageCostAllocator().allocateCosts(encoded, 1234.34, costs);
+        assertEquals(new MileageCostAllocator().allocateCosts(shipment, 1234.34).costsByOrderId(), costs);
+    }
+
+    @Test
+    void testStringsAreSharedAcrossShipments() {
+        SymbolTable symbols = new SymbolTable();
+        for(int i = 0; i < 100; i++) {
+            EncodedShipment.encode(shipment(i), symbols);
+        }
+
+        assertEquals(6, symbols.size());
+        assertEquals(symbols.encode(new String("Bob's House".toCharArray())), symbols.encode("Bob's House"));
+        assertEquals("Bob's House", symbols.decode(symbols.encode("Bob's House")));
+    }
+
+    @Test
+    void testNullStringsAndUnknownCodes() {
+        Shipment shipment = new Shipment(1, List.of(new ShipmentStop(1, null, 0), new ShipmentStop(2, null, 10)),
+                List.of(new ShipmentLineItem(1, null, 1, 10, 1, 2)));
+        SymbolTable symbols = new SymbolTable();
+        EncodedShipment encoded = EncodedShipment.encode(shipment, symbols);
+
+        assertNull(encoded.stopAddress(0));
+        assertNull(encoded.lineItemDescription(0));
+        assertEquals(0, symbols.size());
+        assertThrows(IllegalArgumentException.class, () -> symbols.decode(0));
+        assertThrows(IllegalArgumentException.class, () -> symbols.decode(-2));
+    }
+
+    @Test
+    void testErrorMessagesDecodeStrings() {
+        Shipment shipment = new Shipment(1, shipment(1).shipmentStops(),
+                List.of(new ShipmentLineItem(1, "backwards", 1, 10, 3, 1)));
+        EncodedShipment encoded = EncodedShipment.encode(shipment, new SymbolTable());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new MileageCostAllocator().allocateCosts(encoded, 100.0, new OrderCostMap()));
+        assertEquals("Invalid pickup/dropoff sequence in line item: backwards", e.getMessage());
+    }
+
+    @Test
+    void testConcurrentEncoding() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        int threads = 8;
+        int symbolCount = 20_000;
+        List<Future<int[]>> futures = new ArrayList<>();
+        try(ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for(int t = 0; t < threads; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    int[] codes = new int[symbolCount];
+                    for(int i = 0; i < symbolCount; i++) {
+                        int symbol = (i + offset * 997) % symbolCount;
+                        codes[symbol] = symbols.encode("Warehouse " + symbol);
+                        assertEquals("Warehouse " + symbol, symbols.decode(codes[symbol]));
+                    }
+                    return codes;
+                }));
+            }
+        }
+
+        int[] first = futures.get(0).get();
+        for(Future<int[]> future : futures) {
+            assertArrayEquals(first, future.get());
+        }
+        assertEquals(symbolCount, symbols.size());
+    }
+
+    @Test
+    void testParseEncodedShipment() {
+        String json = """
+                {"shipmentId": 7,
+                 "shipmentStops": [{"sequenceNumber": 1, "address": "Depot", "milesFromPreviousStop": 0},
+                                   {"sequenceNumber": 2, "address": "Store", "milesFromPreviousStop": 12.5}],
+                 "shipmentLineItems": [{"orderId": 3, "itemDescription": "crate", "qty": 2, "weight": 40,
+                                        "pickupStopSequence": 1, "dropOffStopSequence": 2}]}
+                """;
+
+        SymbolTable symbols = new SymbolTable();
+        EncodedShipment encoded = ShipmentJson.parseEncodedShipment(json, symbols);
+
+        assertEquals(ShipmentJson.parseShipment(json), encoded.toShipment());
+        assertEquals(3, symbols.size());
+    }
+}
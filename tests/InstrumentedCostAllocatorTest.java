@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstrumentedCostAllocatorTest {
+
+    private static Shipment shipment(long shipmentId) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    private static Shipment zeroDistanceShipment() {
+        return new Shipment(
+                2,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 0)
+                ),
+                List.of(new ShipmentLineItem(1, "tigers", 10, 100, 1, 2))
+        );
+    }
+
+    @Test
+    void testRecordsAllocationsAndLatencyBySize() {
+        AllocationMetrics metrics = new AllocationMetrics(true);
+        CostAllocator costAllocator = new InstrumentedCostAllocator(AllocationStrategy.MILEAGE, metrics);
+
+        CostAllocationResult result = costAllocator.allocateCosts(shipment(1), 1234.34);
+        assertEquals(1095.81, result.costsByOrderId().get(1L), 0.01);
+        costAllocator.allocateCosts(ShipmentView.of(shipment(2)), 1234.34, new OrderCostMap());
+
+        AllocationMetrics.StrategySnapshot snapshot = metrics.snapshot().strategies().get(0);
+        assertEquals("mileage", snapshot.strategy());
+        assertEquals(2, snapshot.allocations());
+        assertEquals(0, snapshot.failures());
+        assertEquals(6, snapshot.lineItems());
+        assertEquals(4, snapshot.orders());
+        assertEquals(1, snapshot.latencies().size());
+        AllocationMetrics.LatencySnapshot latency = snapshot.latencies().get(0);
+        assertEquals("2-3", latency.stops());
+        assertEquals("2-3", latency.lineItems());
+        assertEquals(2, latency.latency().count());
+        assertTrue(latency.latency().maxNanos() > 0);
+    }
+
+    @Test
+    void testCountsRejectionsByReason() {
+        AllocationMetrics metrics = new AllocationMetrics(true);
+        CostAllocator costAllocator = new InstrumentedCostAllocator(AllocationStrategy.MILEAGE, metrics);
+        Shipment noLineItems = new Shipment(3, shipment(3).shipmentStops(), List.of());
+
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(zeroDistanceShipment(), 100));
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(zeroDistanceShipment(), 100));
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(noLineItems, 100));
+
+        AllocationMetrics.StrategySnapshot snapshot = metrics.snapshot().strategies().get(0);
+        assertEquals(0, snapshot.allocations());
+        assertEquals(3, snapshot.failures());
+        assertEquals(Map.of("Intermediate stop with zero distance from previous stop", 2L,
+                "Empty shipment provided", 1L), snapshot.rejectionsByReason());
+        assertTrue(snapshot.latencies().isEmpty());
+    }
+
+    @Test
+    void testDisabledMetricsRecordNothing() {
+        AllocationMetrics metrics = new AllocationMetrics(false);
+        CostAllocator costAllocator = new InstrumentedCostAllocator(AllocationStrategy.WEIGHT, metrics);
+        costAllocator.allocateCosts(shipment(1), 1234.34);
+        assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(
+                new Shipment(2, List.of(), List.of()), 100));
+
+        AllocationMetrics.StrategySnapshot snapshot = metrics.snapshot().strategies().get(0);
+        assertEquals(0, snapshot.allocations());
+        assertEquals(0, snapshot.failures());
+
+        metrics.setEnabled(true);
+        costAllocator.allocateCosts(shipment(1), 1234.34);
+        assertEquals(1, metrics.snapshot().strategies().get(0).allocations());
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count());
+        assertEquals(50_000.5, snapshot.meanNanos(), 1e-9);
+        assertEquals(50_000, snapshot.p50Nanos(), 50_000 * 0.04);
+        assertEquals(99_000, snapshot.p99Nanos(), 99_000 * 0.04);
+        assertEquals(100_000, snapshot.maxNanos());
+
+        for(long value : new long[] {0, 31, 32, 63, 64, 1_000_000, Long.MAX_VALUE}) {
+            long highest = LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(value));
+            assertTrue(highest >= value && highest - value <= value / 32, "value " + value);
+        }
+    }
+
+    @Test
+    void testExportToFile(@TempDir Path dir) throws Exception {
+        AllocationMetrics metrics = new AllocationMetrics(true);
+        CostAllocator costAllocator = new InstrumentedCostAllocator(AllocationStrategy.WEIGHT, metrics);
+        costAllocator.allocateCosts(shipment(1), 1234.34);
+
+        Path file = dir.resolve("metrics.ndjson");
+        Closeable exporting = metrics.startExporting(MetricsExporter.toFile(file), 60_000);
+        exporting.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"strategy\":\"weight\",\"allocations\":1,\"failures\":0,\"lineItems\":3," +
+                "\"orders\":2,\"rejectionsByReason\":{},\"latencies\":[{\"stops\":\"2-3\",\"lineItems\":\"2-3\"," +
+                "\"count\":1,"), lines.get(0));
+    }
+
+    @Test
+    void testSizeBucketLabels() {
+        assertEquals("0", AllocationMetrics.sizeBucketLabel(AllocationMetrics.sizeBucket(0)));
+        assertEquals("1", AllocationMetrics.sizeBucketLabel(AllocationMetrics.sizeBucket(1)));
+        assertEquals("512-1023", AllocationMetrics.sizeBucketLabel(AllocationMetrics.sizeBucket(1000)));
+        assertEquals("16384+", AllocationMetrics.sizeBucketLabel(AllocationMetrics.sizeBucket(1_000_000)));
+    }
+}
@@ -0,0 +1,177 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LegUtilizationAnalyzerTest {
+
+    private static Shipment shipment(long shipmentId) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    private static long[] sorted(long[] orderIds) {
+        long[] copy = orderIds.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Test
+    void testLegLoads() {
+        List<LegLoad> legs = LegUtilizationAnalyzer.legLoads(ShipmentView.of(shipment(1)));
+
+        assertEquals(2, legs.size());
+        assertEquals(1, legs.get(0).fromSequenceNumber());
+        assertEquals(2, legs.get(0).toSequenceNumber());
+        assertEquals(425.0, legs.get(0).miles());
+        assertEquals(225.0, legs.get(0).weight());
+        assertEquals(20, legs.get(0).qty());
+        assertArrayEquals(new long[] {1}, legs.get(0).orderIds());
+
+        assertEquals(2, legs.get(1).fromSequenceNumber());
+        assertEquals(3, legs.get(1).toSequenceNumber());
+        assertEquals(123.0, legs.get(1).miles());
+        assertEquals(250.0, legs.get(1).weight());
+        assertEquals(15, legs.get(1).qty());
+        assertArrayEquals(new long[] {1, 2}, sorted(legs.get(1).orderIds()));
+
+        assertEquals(0.5, legs.get(1).utilization(500.0));
+    }
+
+    @Test
+    void testUnorderedAndSparseStops() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(3000, "C", 30),
+                        new ShipmentStop(10, "A", 0),
+                        new ShipmentStop(200, "B", 20)
+                ),
+                List.of(
+                        new ShipmentLineItem(7, "pallets", 2, 40, 10, 200),
+                        new ShipmentLineItem(8, "crates", 3, 60, 200, 3000),
+                        new ShipmentLineItem(9, "beyond the route", 1, 10, 3000, 4000)
+                )
+        );
+
+        List<LegLoad> legs = LegUtilizationAnalyzer.legLoads(ShipmentView.of(shipment));
+
+        assertEquals(2, legs.size());
+        assertEquals(10, legs.get(0).fromSequenceNumber());
+        assertEquals(200, legs.get(0).toSequenceNumber());
+        assertEquals(40.0, legs.get(0).weight());
+        assertArrayEquals(new long[] {7}, legs.get(0).orderIds());
+        assertEquals(3000, legs.get(1).toSequenceNumber());
+        assertEquals(30.0, legs.get(1).miles());
+        assertEquals(60.0, legs.get(1).weight());
+        assertEquals(3, legs.get(1).qty());
+        assertArrayEquals(new long[] {8}, legs.get(1).orderIds());
+    }
+
+    @Test
+    void testMatchesPerLegScan() {
+        Random random = new Random(42);
+        for(int round = 0; round < 200; round++) {
+            int stopCount = 2 + random.nextInt(12);
+            int stride = round % 2 == 0 ? 1 : 1 + random.nextInt(50);
+            List<ShipmentStop> stops = new ArrayList<>();
+            for(int i = 0; i < stopCount; i++) {
+                stops.add(new ShipmentStop(1 + i * stride, "Stop " + i, i == 0 ? 0 : 1 + random.nextInt(100)));
+            }
+            Collections.shuffle(stops, random);
+            List<ShipmentLineItem> lineItems = new ArrayList<>();
+            for(int i = 0; i < 1 + random.nextInt(30); i++) {
+                int pickup = random.nextInt(stopCount * stride);
+                int dropOff = pickup + 1 + random.nextInt(stopCount * stride);
+                lineItems.add(new ShipmentLineItem(random.nextInt(6), "item " + i, 1 + random.nextInt(9),
+                        1 + random.nextInt(500), pickup, dropOff));
+            }
+            Shipment shipment = new Shipment(round, stops, lineItems);
+
+            List<LegLoad> legs = LegUtilizationAnalyzer.legLoads(ShipmentView.of(shipment));
+
+            int[] sequenceNumbers = stops.stream().mapToInt(ShipmentStop::sequenceNumber).sorted().toArray();
+            assertEquals(stopCount - 1, legs.size());
+            for(int leg = 0; leg < legs.size(); leg++) {
+                int to = sequenceNumbers[leg + 1];
+                double weight = 0.0;
+                long qty = 0;
+                TreeSet<Long> orderIds = new TreeSet<>();
+                for(ShipmentLineItem lineItem : lineItems) {
+                    if(lineItem.pickupStopSequenceNumber() < to && to <= lineItem.dropOffStopSequenceNumber()) {
+                        weight += lineItem.weight();
+                        qty += lineItem.qty();
+                        orderIds.add(lineItem.orderId());
+                    }
+                }
+                assertEquals(sequenceNumbers[leg], legs.get(leg).fromSequenceNumber());
+                assertEquals(to, legs.get(leg).toSequenceNumber());
+                assertEquals(weight, legs.get(leg).weight(), 1e-9);
+                assertEquals(qty, legs.get(leg).qty());
+                assertArrayEquals(orderIds.stream().mapToLong(Long::longValue).toArray(), sorted(legs.get(leg).orderIds()));
+            }
+        }
+    }
+
+    @Test
+    void testWeightMilesMatchesTonMileShares() {
+        Shipment shipment = shipment(1);
+        LegUtilization utilization = new LegUtilizationAnalyzer().analyze(shipment);
+        double totalShare = new TonMileCostAllocator().orderShares(ShipmentView.of(shipment), new OrderCostMap());
+
+        assertEquals(totalShare, utilization.weightMiles(), 1e-6);
+        assertEquals(250.0, utilization.peakLeg().weight());
+    }
+
+    @Test
+    void testBatchKeepsOrderAndReportsFailures() {
+        List<ShipmentView> shipments = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            shipments.add(ShipmentView.of(shipment(i)));
+        }
+        shipments.set(37, ShipmentView.of(new Shipment(37, shipment(37).shipmentStops(),
+                List.of(new ShipmentLineItem(1, "backwards", 1, 10, 3, 1)))));
+
+        List<LegUtilization> results = new LegUtilizationAnalyzer(new ForkJoinPool(4), 3).analyzeAll(shipments);
+
+        assertEquals(100, results.size());
+        for(int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).shipmentId());
+            assertEquals(i != 37, results.get(i).isSuccess());
+        }
+        assertEquals("Invalid pickup/dropoff sequence in line item: backwards", results.get(37).errorMessage());
+        assertEquals(2, results.get(99).legs().size());
+    }
+
+    @Test
+    void testNoLegs() {
+        Shipment shipment = new Shipment(1, List.of(new ShipmentStop(1, "Only stop", 0)),
+                List.of(new ShipmentLineItem(1, "parcel", 1, 10, 1, 2)));
+
+        assertTrue(LegUtilizationAnalyzer.legLoads(ShipmentView.of(shipment)).isEmpty());
+        LegUtilization utilization = new LegUtilizationAnalyzer().analyze(shipment);
+        assertTrue(utilization.isSuccess());
+        assertNull(utilization.peakLeg());
+        assertThrows(IllegalArgumentException.class, () -> new LegUtilizationAnalyzer(ForkJoinPool.commonPool(), 0));
+    }
+}
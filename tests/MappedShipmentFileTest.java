@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedShipmentFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Shipment shipment(long shipmentId) {
+        return new Shipment(
+                shipmentId,
+                List.of(
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123),
+                        new ShipmentStop(1, "The White House", 0)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears \u00e9t\u00e9", 5, 150, 2, 3),
+                        new ShipmentLineItem(3, null, 1, 1.5, 1, 2)
+                )
+        );
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Path path = tempDir.resolve("shipments.bin");
+        List<Shipment> shipments = new ArrayList<>();
+        try (ShipmentFileWriter writer = new ShipmentFileWriter(path)) {
+            for (long shipmentId : new long[] {42, 7, -3, 1000}) {
+                shipments.add(shipment(shipmentId));
+                writer.write(shipments.get(shipments.size() - 1));
+            }
+        }
+
+        try (MappedShipmentFile file = MappedShipmentFile.open(path)) {
+            assertEquals(4, file.shipmentCount());
+            assertEquals(-3, file.shipmentIdAt(0));
+            assertEquals(1000, file.shipmentIdAt(3));
+            for (Shipment shipment : shipments) {
+                assertEquals(shipment, file.find(shipment.shipmentId()).toShipment());
+            }
+            assertNull(file.find(8));
+            assertThrows(IndexOutOfBoundsException.class, () -> file.shipmentAt(0).lineItemWeight(4));
+        }
+    }
+
+    @Test
+    void testAllocatorsReadMappedShipments() throws IOException {
+        Path path = tempDir.resolve("shipments.bin");
+        try (ShipmentFileWriter writer = new ShipmentFileWriter(path)) {
+            writer.write(shipment(1));
+        }
+
+        try (MappedShipmentFile file = MappedShipmentFile.open(path)) {
+            for (CostAllocator costAllocator : List.of(new WeightCostAllocator(), new MileageCostAllocator())) {
+                OrderCostMap costs = new OrderCostMap();
+                costAllocator.allocateCosts(file.find(1), 1234.34, costs);
+                assertEquals(costAllocator.allocateCosts(shipment(1), 1234.34).costsByOrderId(), costs);
+            }
+        }
+    }
+
+    @Test
+    void testEmptyFile() throws IOException {
+        Path path = tempDir.resolve("empty.bin");
+        new ShipmentFileWriter(path).close();
+
+        try (MappedShipmentFile file = MappedShipmentFile.open(path)) {
+            assertEquals(0, file.shipmentCount());
+            assertNull(file.find(1));
+        }
+    }
+
+    @Test
+    void testInvalidFiles() throws IOException {
+        Path notAShipmentFile = tempDir.resolve("shipments.json");
+        Files.writeString(notAShipmentFile, ShipmentJsonTest.README_SHIPMENT);
+        assertThrows(IllegalArgumentException.class, () -> MappedShipmentFile.open(notAShipmentFile));
+
+        Path duplicates = tempDir.resolve("duplicates.bin");
+        ShipmentFileWriter writer = new ShipmentFileWriter(duplicates);
+        writer.write(shipment(1));
+        writer.write(shipment(1));
+        assertThrows(IllegalArgumentException.class, writer::close);
+    }
+}
@@ -248,4 +248,50 @@ class MileageCostAllocatorTest {
         assertEquals(1095.82, byMilesResult.costsByOrderId().get(1L), 0.01);
         assertEquals(138.53, byMilesResult.costsByOrderId().get(2L), 0.01);  // Assume order 2 byMiles should be 138.53 when rounded.
     }
+
+    @Test
+    void testSparseSequenceNumbers() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(5000, "World of Coca-Cola", 123),
+                        new ShipmentStop(200, "Bob's House", 425)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 5000),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 200),
+                        new ShipmentLineItem(2, "bears", 5, 150, 200, 5000)
+                )
+        );
+
+        CostAllocator byMilesAllocator = new MileageCostAllocator();
+        CostAllocationResult byMilesResult = byMilesAllocator.allocateCosts(shipment, 1234.34);
+
+        assertEquals(1095.82, byMilesResult.costsByOrderId().get(1L), 0.01);
+        assertEquals(138.53, byMilesResult.costsByOrderId().get(2L), 0.01);
+    }
+
+    @Test
+    void testDropOffPastLastStop() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 7),  // Only stops 2 and 3 exist past pickup.
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+
+        CostAllocator byMilesAllocator = new MileageCostAllocator();
+        CostAllocationResult byMilesResult = byMilesAllocator.allocateCosts(shipment, 1234.34);
+
+        assertEquals(1095.82, byMilesResult.costsByOrderId().get(1L), 0.01);
+        assertEquals(138.53, byMilesResult.costsByOrderId().get(2L), 0.01);
+    }
 }
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultiStrategyCostAllocatorTest {
+
+    private static Shipment shipment() {
+        return new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    // Random shipments with repeated orders and stops in shuffled order.
+    private static Shipment randomShipment(long shipmentId, Random random) {
+        int stopCount = 2 + random.nextInt(20);
+        List<ShipmentStop> stops = new ArrayList<>();
+        for(int i = 1; i <= stopCount; i++) {
+            stops.add(new ShipmentStop(i, "stop " + i, i == 1 ? 0 : 1 + random.nextInt(500)));
+        }
+        Collections.shuffle(stops, random);
+        List<ShipmentLineItem> lineItems = new ArrayList<>();
+        for(int i = 0, count = 1 + random.nextInt(200); i < count; i++) {
+            int pickup = 1 + random.nextInt(stopCount - 1);
+            int dropOff = pickup + 1 + random.nextInt(stopCount - pickup);
+            lineItems.add(new ShipmentLineItem(random.nextInt(30), "item " + i, 1 + random.nextInt(10),
+                    0.5 + random.nextDouble() * 500, pickup, dropOff));
+        }
+        return new Shipment(shipmentId, stops, lineItems);
+    }
+
+    @Test
+    void testReadmeShipment() {
+        Map<AllocationStrategy, CostAllocationResult> results = new MultiStrategyCostAllocator(
+                AllocationStrategy.WEIGHT, AllocationStrategy.MILEAGE).allocateCosts(shipment(), 1234.34);
+
+        assertEquals(740.60, results.get(AllocationStrategy.WEIGHT).costsByOrderId().get(1L), 0.01);
+        assertEquals(493.74, results.get(AllocationStrategy.WEIGHT).costsByOrderId().get(2L), 0.01);
+        assertEquals(1095.81, results.get(AllocationStrategy.MILEAGE).costsByOrderId().get(1L), 0.01);
+        assertEquals(138.53, results.get(AllocationStrategy.MILEAGE).costsByOrderId().get(2L), 0.01);
+    }
+
+    @Test
+    void testBitIdenticalToSeparateAllocators() {
+        MultiStrategyCostAllocator multi = new MultiStrategyCostAllocator(AllocationStrategy.values());
+        Random random = new Random(7);
+        for(long shipmentId = 0; shipmentId < 200; shipmentId++) {
+            Shipment shipment = randomShipment(shipmentId, random);
+            double amount = random.nextDouble() * 10_000;
+            Map<AllocationStrategy, CostAllocationResult> results = multi.allocateCosts(shipment, amount);
+            for(AllocationStrategy strategy : AllocationStrategy.values()) {
+                CostAllocationResult expected = strategy.costAllocator().allocateCosts(shipment, amount);
+                assertEquals(expected.shipmentId(), results.get(strategy).shipmentId());
+                assertEquals(List.copyOf(expected.costsByOrderId().entrySet()),
+                        List.copyOf(results.get(strategy).costsByOrderId().entrySet()));
+            }
+        }
+    }
+
+    @Test
+    void testFirstRejectionIsThrown() {
+        Shipment oneStop = new Shipment(1, shipment().shipmentStops().subList(0, 1), shipment().shipmentLineItems());
+        MultiStrategyCostAllocator multi = new MultiStrategyCostAllocator(AllocationStrategy.WEIGHT,
+                AllocationStrategy.MILEAGE);
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> multi.allocateCosts(oneStop, 100));
+        assertEquals("Cannot calculate cost by mileage with only one stop", exception.getMessage());
+
+        Shipment noLineItems = new Shipment(1, shipment().shipmentStops(), List.of());
+        exception = assertThrows(IllegalArgumentException.class, () -> multi.allocateCosts(noLineItems, 100));
+        assertEquals("Shipment has no line items", exception.getMessage());
+    }
+
+    @Test
+    void testRejectionsMatchSeparateAllocators() {
+        Shipment valid = shipment();
+        List<ShipmentStop> stops = valid.shipmentStops();
+        List<ShipmentLineItem> lineItems = valid.shipmentLineItems();
+        List<Shipment> invalid = List.of(
+                new Shipment(1, stops, List.of()),
+                new Shipment(1, List.of(), lineItems),
+                new Shipment(1, stops.subList(0, 1), lineItems),
+                new Shipment(1, List.of(stops.get(0), new ShipmentStop(2, "Nowhere", 0), stops.get(2)), lineItems),
+                new Shipment(1, stops, List.of(lineItems.get(0), new ShipmentLineItem(2, "bad", 1, 10, 3, 2))),
+                new Shipment(1, stops, List.of(lineItems.get(0), new ShipmentLineItem(2, "light", 1, -1, 1, 2))),
+                new Shipment(1, stops, List.of(new ShipmentLineItem(2, "nan", 1, Double.NaN, 1, 2),
+                        new ShipmentLineItem(2, "light", 1, 0, 2, 1))),
+                new Shipment(1, stops.subList(0, 1), List.of(new ShipmentLineItem(2, "light", 1, 0, 1, 2))));
+        List<AllocationStrategy[]> orderings = List.of(AllocationStrategy.values(),
+                new AllocationStrategy[] {AllocationStrategy.TON_MILE, AllocationStrategy.MILEAGE, AllocationStrategy.WEIGHT},
+                new AllocationStrategy[] {AllocationStrategy.MILEAGE, AllocationStrategy.WEIGHT});
+
+        for(AllocationStrategy[] strategies : orderings) {
+            MultiStrategyCostAllocator multi = new MultiStrategyCostAllocator(strategies);
+            for(Shipment shipment : invalid) {
+                String expected = null;
+                for(AllocationStrategy strategy : strategies) {
+                    try {
+                        strategy.costAllocator().allocateCosts(shipment, 100);
+                    } catch (IllegalArgumentException e) {
+                        expected = e.getMessage();
+                        break;
+                    }
+                }
+                if(expected == null) {
+                    multi.allocateCosts(shipment, 100);
+                } else {
+                    assertEquals(expected, assertThrows(IllegalArgumentException.class,
+                            () -> multi.allocateCosts(shipment, 100)).getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReusedCostMaps() {
+        MultiStrategyCostAllocator multi = new MultiStrategyCostAllocator(AllocationStrategy.MILEAGE);
+        OrderCostMap[] costs = {new OrderCostMap()};
+        costs[0].add(99, 1.0);
+
+        multi.allocateCosts(ShipmentView.of(shipment()), 1234.34, costs);
+
+        assertEquals(2, costs[0].size());
+        assertEquals(1095.81, costs[0].getCost(1, 0), 0.01);
+        assertThrows(IllegalArgumentException.class,
+                () -> multi.allocateCosts(ShipmentView.of(shipment()), 1234.34, new OrderCostMap[2]));
+    }
+}
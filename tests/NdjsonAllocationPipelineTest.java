@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NdjsonAllocationPipelineTest {
+
+    private static final String SHIPMENT_1 = ShipmentJsonTest.README_SHIPMENT.replace("\n", "");
+
+    @Test
+    void testGoodShipments() throws Exception {
+        String input = SHIPMENT_1 + "\n\n" + SHIPMENT_1.replace("\"shipmentId\": 1", "\"shipmentId\": 2") + "\n";
+        StringWriter output = new StringWriter();
+
+        NdjsonAllocationPipeline.Summary summary = new NdjsonAllocationPipeline(new WeightCostAllocator(), 1)
+                .run(new StringReader(input), output);
+
+        assertEquals(new NdjsonAllocationPipeline.Summary(2, 0, 4), summary);
+        String[] lines = output.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("{\"shipmentId\":1,\"orderId\":1,\"cost\":740.6"));
+        assertTrue(lines[1].startsWith("{\"shipmentId\":1,\"orderId\":2,\"cost\":493.7"));
+        assertTrue(lines[2].startsWith("{\"shipmentId\":2,\"orderId\":1,\"cost\":740.6"));
+        assertTrue(lines[3].startsWith("{\"shipmentId\":2,\"orderId\":2,\"cost\":493.7"));
+    }
+
+    @Test
+    void testBadShipmentsDoNotStopPipeline() throws Exception {
+        String input = "{not json\n" +
+                "{\"shipmentId\": 5, \"totalInvoicedAmount\": 10, \"shipmentStops\": [], \"shipmentLineItems\": []}\n" +
+                SHIPMENT_1 + "\n";
+        StringWriter output = new StringWriter();
+
+        NdjsonAllocationPipeline.Summary summary = new NdjsonAllocationPipeline(new MileageCostAllocator())
+                .run(new StringReader(input), output);
+
+        assertEquals(new NdjsonAllocationPipeline.Summary(3, 2, 2), summary);
+        String[] lines = output.toString().split("\n");
+        assertTrue(lines[0].startsWith("{\"line\":1,\"error\":\"Malformed shipment JSON"));
+        assertEquals("{\"shipmentId\":5,\"error\":\"Empty shipment provided\"}", lines[1]);
+        assertTrue(lines[2].startsWith("{\"shipmentId\":1,\"orderId\":1,\"cost\":1095.8"));
+        assertTrue(lines[3].startsWith("{\"shipmentId\":1,\"orderId\":2,\"cost\":138.5"));
+    }
+
+    @Test
+    void testDeeplyNestedLineIsAParseFailure() {
+        String nested = "{\"shipmentId\": 9, \"extra\": " + "[".repeat(100_000) + "]".repeat(100_000) + "}";
+        StringWriter output = new StringWriter();
+
+        NdjsonAllocationPipeline.Summary summary = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> new NdjsonAllocationPipeline(new WeightCostAllocator()).run(
+                        new StringReader(nested + "\n" + SHIPMENT_1 + "\n"), output));
+
+        assertEquals(new NdjsonAllocationPipeline.Summary(2, 1, 2), summary);
+        assertTrue(output.toString().startsWith("{\"line\":1,\"error\":\"Malformed shipment JSON"));
+    }
+
+    @Test
+    void testUnexpectedParserFailureEndsRun() {
+        Reader failingInput = new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                throw new IllegalStateException("Broken reader");
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> assertTimeoutPreemptively(
+                Duration.ofSeconds(10), () -> new NdjsonAllocationPipeline(new WeightCostAllocator())
+                        .run(failingInput, new StringWriter())));
+        assertEquals("Broken reader", e.getMessage());
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderCostLedgerTest {
+
+    private static OrderCostMap costs(double... orderIdsAndCosts) {
+        OrderCostMap costs = new OrderCostMap();
+        for(int i = 0; i < orderIdsAndCosts.length; i += 2) {
+            costs.add((long) orderIdsAndCosts[i], orderIdsAndCosts[i + 1]);
+        }
+        return costs;
+    }
+
+    @Test
+    void testAccumulatesAcrossShipments() {
+        OrderCostLedger ledger = new OrderCostLedger();
+        ledger.record(costs(1, 10.0, 2, 5.0));
+        ledger.record(costs(2, 2.5, 3, 1.0));
+        ledger.record(new CostAllocationResult(3, Map.of(1L, 0.5)));
+
+        assertEquals(10.5, ledger.cost(1, 0.0), 0.0);
+        assertEquals(7.5, ledger.cost(2, 0.0), 0.0);
+        assertEquals(1.0, ledger.cost(3, 0.0), 0.0);
+        assertEquals(-1.0, ledger.cost(4, -1.0), 0.0);
+
+        OrderCostLedger.Snapshot snapshot = ledger.snapshot();
+        assertEquals(3, snapshot.shipments());
+        assertEquals(3, snapshot.orderCount());
+        assertEquals(7.5, snapshot.cost(2, 0.0), 0.0);
+    }
+
+    @Test
+    void testSnapshotIsUnaffectedByLaterWrites() {
+        OrderCostLedger ledger = new OrderCostLedger(1);
+        ledger.record(costs(1, 10.0));
+        OrderCostLedger.Snapshot snapshot = ledger.snapshot();
+        ledger.record(costs(1, 10.0, 2, 3.0));
+
+        assertEquals(10.0, snapshot.cost(1, 0.0), 0.0);
+        assertEquals(0.0, snapshot.cost(2, 0.0), 0.0);
+        assertEquals(1, snapshot.shipments());
+        assertEquals(20.0, ledger.cost(1, 0.0), 0.0);
+    }
+
+    @Test
+    void testTopOrders() {
+        OrderCostLedger ledger = new OrderCostLedger();
+        for(long orderId = 0; orderId < 1_000; orderId++) {
+            // Costs peak at order 500 and fall off on both sides.
+            ledger.record(costs(orderId, 1_000 - Math.abs(500 - orderId)));
+        }
+
+        OrderCostMap top = ledger.snapshot().topOrders(5);
+        assertEquals(5, top.size());
+        assertEquals(500, top.orderIdAt(0));
+        assertEquals(1_000.0, top.costAt(0), 0.0);
+        for(int i = 1; i < top.size(); i++) {
+            assertTrue(top.costAt(i) <= top.costAt(i - 1));
+            assertTrue(Math.abs(500 - top.orderIdAt(i)) <= 2);
+        }
+        assertEquals(1_000, ledger.snapshot().topOrders(5_000).size());
+        assertEquals(0, ledger.snapshot().topOrders(0).size());
+        assertThrows(IllegalArgumentException.class, () -> ledger.snapshot().topOrders(-1));
+    }
+
+    @Test
+    void testConcurrentWritersAndConsistentSnapshots() throws Exception {
+        OrderCostLedger ledger = new OrderCostLedger(8);
+        int threads = 8;
+        int shipmentsPerThread = 20_000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        try(ExecutorService executor = Executors.newFixedThreadPool(threads + 1)) {
+            // Every shipment moves one unit of cost onto each of 10 orders, so any consistent snapshot holds exactly
+            // 10 units per shipment.
+            for(int t = 0; t < threads; t++) {
+                int thread = t;
+                writers.add(executor.submit(() -> {
+                    OrderCostMap shipment = new OrderCostMap();
+                    for(int i = 0; i < shipmentsPerThread; i++) {
+                        shipment.reset();
+                        for(int order = 0; order < 10; order++) {
+                            shipment.add((thread * 31L + i + order * 7L) % 500, 1.0);
+                        }
+                        ledger.record(shipment);
+                    }
+                    return null;
+                }));
+            }
+            Future<Integer> snapshots = executor.submit(() -> {
+                int taken = 0;
+                while(writing.get()) {
+                    OrderCostLedger.Snapshot snapshot = ledger.snapshot();
+                    double[] total = {0.0};
+                    snapshot.forEachOrder((orderId, cost) -> total[0] += cost);
+                    assertEquals(snapshot.shipments() * 10.0, total[0], 0.0);
+                    taken++;
+                }
+                return taken;
+            });
+            for(Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            assertTrue(snapshots.get() > 0);
+        }
+
+        OrderCostLedger.Snapshot snapshot = ledger.snapshot();
+        assertEquals((long) threads * shipmentsPerThread, snapshot.shipments());
+        double[] total = {0.0};
+        snapshot.forEachOrder((orderId, cost) -> total[0] += cost);
+        assertEquals(threads * shipmentsPerThread * 10.0, total[0], 0.0);
+    }
+
+    @Test
+    void testStripeCountMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new OrderCostLedger(0));
+        assertThrows(IllegalArgumentException.class, () -> new OrderCostLedger(12));
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderCostMapTest {
+
+    @Test
+    void testAddMergesOrders() {
+        OrderCostMap costs = new OrderCostMap();
+        costs.add(1, 100.0);
+        costs.add(2, 50.0);
+        costs.add(1, 25.0);
+
+        assertEquals(2, costs.size());
+        assertEquals(125.0, costs.getCost(1, 0.0), 0.0);
+        assertEquals(50.0, costs.getCost(2, 0.0), 0.0);
+        assertEquals(-1.0, costs.getCost(3, -1.0), 0.0);
+        assertEquals(1L, costs.orderIdAt(0));
+        assertEquals(2L, costs.orderIdAt(1));
+    }
+
+    @Test
+    void testGrowsPastInitialCapacity() {
+        OrderCostMap costs = new OrderCostMap();
+        Map<Long, Double> expected = new HashMap<>();
+        for (long orderId = 0; orderId < 10_000; orderId++) {
+            costs.add(orderId * 31, orderId);
+            costs.add(orderId * 31, 1.0);
+            expected.put(orderId * 31, orderId + 1.0);
+        }
+
+        assertEquals(expected, costs);
+        assertEquals(costs, expected);
+        assertEquals(expected.hashCode(), costs.hashCode());
+    }
+
+    @Test
+    void testMapView() {
+        OrderCostMap costs = new OrderCostMap();
+        costs.add(7, 1.5);
+
+        assertEquals(1.5, costs.get(7L));
+        assertNull(costs.get(8L));
+        assertNull(costs.get("7"));
+        assertTrue(costs.containsKey(7L));
+        assertFalse(costs.containsKey(7));  // Integer keys never match, same as HashMap<Long, Double>.
+        assertThrows(UnsupportedOperationException.class, () -> costs.put(8L, 2.0));
+        assertThrows(UnsupportedOperationException.class, costs::clear);
+    }
+
+    @Test
+    void testReset() {
+        OrderCostMap costs = new OrderCostMap();
+        costs.add(1, 1.0);
+        costs.reset();
+
+        assertEquals(0, costs.size());
+        assertFalse(costs.containsOrder(1));
+
+        costs.add(2, 2.0);
+        assertEquals(Map.of(2L, 2.0), costs);
+    }
+
+    @Test
+    void testAllocatorsReuseMap() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+        OrderCostMap costs = new OrderCostMap();
+        costs.add(99, 1.0);
+
+        new WeightCostAllocator().allocateCosts(shipment, 1234.34, costs);
+        assertEquals(2, costs.size());
+        assertEquals(740.60, costs.getCost(1, 0.0), 0.01);
+        assertEquals(493.74, costs.getCost(2, 0.0), 0.01);
+
+        new MileageCostAllocator().allocateCosts(shipment, 1234.34, costs);
+        assertEquals(2, costs.size());
+        assertEquals(1095.82, costs.getCost(1, 0.0), 0.01);
+        assertEquals(138.53, costs.getCost(2, 0.0), 0.01);
+    }
+
+    @Test
+    void testSetOrders() {
+        OrderCostMap orders = new OrderCostMap();
+        for(long orderId = 0; orderId < 100; orderId++) {
+            orders.addOrder(orderId * 7);
+        }
+        double[] costs = new double[100];
+        for(int i = 0; i < costs.length; i++) {
+            costs[i] = i * 0.5;
+        }
+
+        OrderCostMap copy = new OrderCostMap();
+        copy.add(3, 1.0);
+        copy.setOrders(orders, costs);
+        assertEquals(100, copy.size());
+        assertEquals(0.0, orders.getCost(7, -1), 0.0);
+        for(int i = 0; i < 100; i++) {
+            assertEquals(i * 7L, copy.orderIdAt(i));
+            assertEquals(i * 0.5, copy.getCost(i * 7L, -1), 0.0);
+        }
+        assertFalse(copy.containsOrder(3));
+
+        copy.add(3, 1.0);
+        copy.add(7, 1.0);
+        assertEquals(101, copy.size());
+        assertEquals(1.5, copy.getCost(7, -1), 0.0);
+        assertEquals(0.0, orders.getCost(7, -1), 0.0);
+    }
+}
@@ -0,0 +1,203 @@
+import org.junit.jupiter.api.Test;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelCostAllocatorTest {
+
+    private static Shipment megaShipment(int lineItemCount, Random random) {
+        List<ShipmentStop> stops = new ArrayList<>();
+        for(int i = 1; i <= 20; i++) {
+            stops.add(new ShipmentStop(i, "Stop " + i, i == 1 ? 0 : 1 + random.nextInt(200)));
+        }
+        List<ShipmentLineItem> lineItems = new ArrayList<>(lineItemCount);
+        for(int i = 0; i < lineItemCount; i++) {
+            int pickup = 1 + random.nextInt(19);
+            int dropOff = pickup + 1 + random.nextInt(20 - pickup);
+            lineItems.add(new ShipmentLineItem(1 + random.nextInt(5_000), "Parcel " + i, 1,
+                    0.1 + random.nextDouble() * 50, pickup, dropOff));
+        }
+        return new Shipment(1, stops, lineItems);
+    }
+
+    @Test
+    void testReadmeShipment() {
+        Shipment shipment = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+
+        CostAllocationResult byWeight = new ParallelCostAllocator(AllocationStrategy.WEIGHT).allocateCosts(shipment, 1234.34);
+        CostAllocationResult byMiles = new ParallelCostAllocator(AllocationStrategy.MILEAGE).allocateCosts(shipment, 1234.34);
+
+        assertEquals(740.60, byWeight.costsByOrderId().get(1L), 0.01);
+        assertEquals(493.74, byWeight.costsByOrderId().get(2L), 0.01);
+        assertEquals(1095.82, byMiles.costsByOrderId().get(1L), 0.01);
+        assertEquals(138.53, byMiles.costsByOrderId().get(2L), 0.01);
+    }
+
+    @Test
+    void testBitIdenticalRegardlessOfParallelism() {
+        Shipment shipment = megaShipment(100_000, new Random(42));
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            CostAllocationResult sequential = new ParallelCostAllocator(strategy.costAllocator(),
+                    ForkJoinPool.commonPool(), Integer.MAX_VALUE).allocateCosts(shipment, 98_765.43);
+            CostAllocationResult expected = strategy.costAllocator().allocateCosts(shipment, 98_765.43);
+            for(int parallelism : new int[] {1, 2, 3, 8}) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    CostAllocationResult parallel = new ParallelCostAllocator(strategy.costAllocator(), pool, 0)
+                            .allocateCosts(shipment, 98_765.43);
+                    assertEquals(sequential, parallel);
+                    assertEquals(List.copyOf(expected.costsByOrderId().keySet()),
+                            List.copyOf(parallel.costsByOrderId().keySet()));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            sequential.costsByOrderId().forEach((orderId, cost) ->
+                    assertEquals(expected.costsByOrderId().get(orderId), cost, 1e-9));
+        }
+    }
+
+    // Records every thread that reads a line item's order id, which only the per-order phase does.
+    private record OrderIdReaders(ShipmentView shipment, Set<Thread> threads) implements ShipmentView {
+
+        @Override
+        public long shipmentId() {
+            return shipment.shipmentId();
+        }
+
+        @Override
+        public int stopCount() {
+            return shipment.stopCount();
+        }
+
+        @Override
+        public int stopSequenceNumber(int stop) {
+            return shipment.stopSequenceNumber(stop);
+        }
+
+        @Override
+        public String stopAddress(int stop) {
+            return shipment.stopAddress(stop);
+        }
+
+        @Override
+        public double stopMilesFromPreviousStop(int stop) {
+            return shipment.stopMilesFromPreviousStop(stop);
+        }
+
+        @Override
+        public int lineItemCount() {
+            return shipment.lineItemCount();
+        }
+
+        @Override
+        public String lineItemDescription(int lineItem) {
+            return shipment.lineItemDescription(lineItem);
+        }
+
+        @Override
+        public int lineItemQty(int lineItem) {
+            return shipment.lineItemQty(lineItem);
+        }
+
+        @Override
+        public double lineItemWeight(int lineItem) {
+            return shipment.lineItemWeight(lineItem);
+        }
+
+        @Override
+        public int lineItemPickupStopSequenceNumber(int lineItem) {
+            return shipment.lineItemPickupStopSequenceNumber(lineItem);
+        }
+
+        @Override
+        public int lineItemDropOffStopSequenceNumber(int lineItem) {
+            return shipment.lineItemDropOffStopSequenceNumber(lineItem);
+        }
+
+        @Override
+        public long lineItemOrderId(int lineItem) {
+            threads.add(Thread.currentThread());
+            return shipment.lineItemOrderId(lineItem);
+        }
+    }
+
+    @Test
+    void testPartitionsRunOnTheConfiguredPool() {
+        OrderIdReaders shipment = new OrderIdReaders(ShipmentView.of(megaShipment(50_000, new Random(3))),
+                ConcurrentHashMap.newKeySet());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new ParallelCostAllocator(AllocationStrategy.WEIGHT.costAllocator(), pool, 0)
+                    .allocateCosts(shipment, 98_765.43, new OrderCostMap());
+        } finally {
+            pool.shutdown();
+        }
+
+        assertFalse(shipment.threads().isEmpty());
+        for(Thread thread : shipment.threads()) {
+            assertTrue(thread instanceof ForkJoinWorkerThread worker && worker.getPool() == pool, thread.getName());
+        }
+    }
+
+    @Test
+    void testCompensatedSums() {
+        // One huge line item first, then many small ones that a plain running sum would round away entirely.
+        List<ShipmentLineItem> lineItems = new ArrayList<>();
+        lineItems.add(new ShipmentLineItem(1, "ship", 1, 1e16, 1, 2));
+        for(int i = 0; i < 30_000; i++) {
+            lineItems.add(new ShipmentLineItem(2, "feather " + i, 1, 0.9, 1, 2));
+        }
+        Shipment shipment = new Shipment(1, List.of(new ShipmentStop(1, "A", 0), new ShipmentStop(2, "B", 10)),
+                lineItems);
+
+        double cost = new ParallelCostAllocator(new WeightCostAllocator(), ForkJoinPool.commonPool(), 0)
+                .allocateCosts(shipment, 1e6).costsByOrderId().get(2L);
+
+        BigDecimal feathers = new BigDecimal(0.9).multiply(BigDecimal.valueOf(30_000));
+        BigDecimal exact = feathers.divide(feathers.add(new BigDecimal(1e16)), MathContext.DECIMAL128)
+                .multiply(BigDecimal.valueOf(1e6));
+        assertEquals(exact.doubleValue(), cost, Math.ulp(exact.doubleValue()) * 2);
+    }
+
+    @Test
+    void testRejectsLikeWrappedAllocator() {
+        Shipment shipment = megaShipment(50_000, new Random(7));
+        List<ShipmentLineItem> lineItems = new ArrayList<>(shipment.shipmentLineItems());
+        lineItems.set(40_000, new ShipmentLineItem(1, "backwards", 1, 10, 3, 1));
+        lineItems.set(45_000, new ShipmentLineItem(1, "also backwards", 1, 10, 5, 2));
+        Shipment invalid = new Shipment(1, shipment.shipmentStops(), lineItems);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new ParallelCostAllocator(new MileageCostAllocator(), ForkJoinPool.commonPool(), 0)
+                        .allocateCosts(invalid, 100.0));
+        assertEquals("Invalid pickup/dropoff sequence in line item: backwards", e.getMessage());
+
+        Shipment empty = new Shipment(1, shipment.shipmentStops(), List.of());
+        e = assertThrows(IllegalArgumentException.class,
+                () -> new ParallelCostAllocator(AllocationStrategy.WEIGHT).allocateCosts(empty, 100.0));
+        assertEquals("Shipment has no line items", e.getMessage());
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentOrderLedgerTest {
+
+    private static CostAllocationResult result(long shipmentId, double... orderIdsAndCosts) {
+        OrderCostMap costs = new OrderCostMap();
+        for(int i = 0; i < orderIdsAndCosts.length; i += 2) {
+            costs.add((long) orderIdsAndCosts[i], orderIdsAndCosts[i + 1]);
+        }
+        return new CostAllocationResult(shipmentId, costs);
+    }
+
+    // Leaves the directory as a crash at this moment would: the files as they are now, without the checkpoint that
+    // closing the ledger takes.
+    private static void crash(PersistentOrderLedger ledger, Path dir) throws IOException {
+        Map<Path, byte[]> files = new HashMap<>();
+        try(Stream<Path> paths = Files.list(dir)) {
+            for(Path path : (Iterable<Path>) paths::iterator) {
+                files.put(path, Files.readAllBytes(path));
+            }
+        }
+        ledger.close();
+        try(Stream<Path> paths = Files.list(dir)) {
+            for(Path path : (Iterable<Path>) paths::iterator) {
+                Files.delete(path);
+            }
+        }
+        for(Map.Entry<Path, byte[]> file : files.entrySet()) {
+            Files.write(file.getKey(), file.getValue());
+        }
+    }
+
+    @Test
+    void testApplyIsIdempotentByShipment(@TempDir Path dir) throws IOException {
+        try(PersistentOrderLedger ledger = PersistentOrderLedger.open(dir)) {
+            assertTrue(ledger.apply(result(1, 10, 740.60, 20, 493.74)));
+            assertTrue(ledger.apply(new CostAllocationResult(2, Map.of(10L, 100.0))));
+            assertFalse(ledger.apply(result(1, 10, 740.60, 20, 493.74)));
+
+            assertEquals(840.60, ledger.cost(10, 0.0), 1e-9);
+            assertEquals(493.74, ledger.cost(20, 0.0), 1e-9);
+            assertEquals(-1.0, ledger.cost(30, -1.0), 0.0);
+            assertEquals(2, ledger.orderCount());
+            assertEquals(2, ledger.shipmentCount());
+            assertTrue(ledger.isApplied(2));
+            assertFalse(ledger.isApplied(3));
+        }
+
+        try(PersistentOrderLedger ledger = PersistentOrderLedger.open(dir)) {
+            assertFalse(ledger.apply(result(2, 10, 100.0)));
+            assertEquals(840.60, ledger.cost(10, 0.0), 1e-9);
+        }
+    }
+
+    @Test
+    void testRecoversFromJournalAfterCrash(@TempDir Path dir) throws IOException {
+        PersistentOrderLedger ledger = PersistentOrderLedger.open(dir);
+        ledger.apply(result(1, 10, 1.0));
+        ledger.checkpoint();
+        ledger.apply(result(2, 10, 2.0, 20, 3.0));
+        ledger.apply(result(3, 30, 4.0));
+        crash(ledger, dir);
+
+        try(PersistentOrderLedger recovered = PersistentOrderLedger.open(dir)) {
+            assertEquals(3.0, recovered.cost(10, 0.0), 0.0);
+            assertEquals(3.0, recovered.cost(20, 0.0), 0.0);
+            assertEquals(4.0, recovered.cost(30, 0.0), 0.0);
+            assertEquals(3, recovered.shipmentCount());
+        }
+    }
+
+    @Test
+    void testCrashInTheMiddleOfAJournalWrite(@TempDir Path dir) throws IOException {
+        PersistentOrderLedger ledger = PersistentOrderLedger.open(dir);
+        ledger.apply(result(1, 10, 1.0));
+        ledger.apply(result(2, 10, 2.0, 20, 3.0));
+        long journalBytesBeforeLastWrite = Files.size(dir.resolve(PersistentOrderLedger.JOURNAL_FILE));
+        ledger.apply(result(3, 20, 5.0, 30, 4.0));
+        crash(ledger, dir);
+
+        // Only part of the last record reached the disk.
+        Path journal = dir.resolve(PersistentOrderLedger.JOURNAL_FILE);
+        try(FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(journalBytesBeforeLastWrite + 20);
+        }
+
+        try(PersistentOrderLedger recovered = PersistentOrderLedger.open(dir)) {
+            assertEquals(journalBytesBeforeLastWrite, Files.size(journal));
+            assertEquals(3.0, recovered.cost(10, 0.0), 0.0);
+            assertEquals(3.0, recovered.cost(20, 0.0), 0.0);
+            assertEquals(-1.0, recovered.cost(30, -1.0), 0.0);
+            assertFalse(recovered.isApplied(3));
+
+            // The client never saw shipment 3 succeed, so it retries.
+            assertTrue(recovered.apply(result(3, 20, 5.0, 30, 4.0)));
+            assertEquals(8.0, recovered.cost(20, 0.0), 0.0);
+        }
+    }
+
+    @Test
+    void testCorruptRecordEndsReplay(@TempDir Path dir) throws IOException {
+        PersistentOrderLedger ledger = PersistentOrderLedger.open(dir);
+        ledger.apply(result(1, 10, 1.0));
+        long firstRecordBytes = Files.size(dir.resolve(PersistentOrderLedger.JOURNAL_FILE));
+        ledger.apply(result(2, 10, 2.0));
+        ledger.apply(result(3, 10, 4.0));
+        crash(ledger, dir);
+
+        // Flip a byte in the cost of the second record, which the CRC catches.
+        Path journal = dir.resolve(PersistentOrderLedger.JOURNAL_FILE);
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[(int) firstRecordBytes + 30] ^= 1;
+        Files.write(journal, bytes);
+
+        try(PersistentOrderLedger recovered = PersistentOrderLedger.open(dir)) {
+            assertEquals(1.0, recovered.cost(10, 0.0), 0.0);
+            assertEquals(1, recovered.shipmentCount());
+        }
+    }
+
+    @Test
+    void testCrashDuringCheckpoint(@TempDir Path dir) throws IOException {
+        PersistentOrderLedger ledger = PersistentOrderLedger.open(dir);
+        ledger.apply(result(1, 10, 1.0));
+        ledger.checkpoint();
+        ledger.apply(result(2, 10, 2.0));
+        Path journal = dir.resolve(PersistentOrderLedger.JOURNAL_FILE);
+        Path journalCopy = dir.resolve("journal.copy");
+        Files.copy(journal, journalCopy);
+        ledger.checkpoint();
+        crash(ledger, dir);
+
+        // The crash came after the new checkpoint was renamed into place but before the journal was emptied, and a
+        // half-written temporary checkpoint was left behind by an earlier crash.
+        Files.move(journalCopy, journal, StandardCopyOption.REPLACE_EXISTING);
+        Files.write(dir.resolve(PersistentOrderLedger.CHECKPOINT_FILE + ".tmp"), new byte[] {1, 2, 3});
+
+        try(PersistentOrderLedger recovered = PersistentOrderLedger.open(dir)) {
+            assertEquals(3.0, recovered.cost(10, 0.0), 0.0);
+            assertEquals(2, recovered.shipmentCount());
+            assertFalse(Files.exists(dir.resolve(PersistentOrderLedger.CHECKPOINT_FILE + ".tmp")));
+        }
+    }
+
+    @Test
+    void testGrowsAndCheckpointsPeriodically(@TempDir Path dir) throws IOException {
+        try(PersistentOrderLedger ledger = PersistentOrderLedger.open(dir, 64 * 1024)) {
+            for(long shipmentId = 0; shipmentId < 20_000; shipmentId++) {
+                ledger.apply(result(shipmentId, shipmentId % 5_000, 1.0, shipmentId % 7 + 1_000_000, 0.5));
+            }
+            assertTrue(Files.size(dir.resolve(PersistentOrderLedger.JOURNAL_FILE)) < 64 * 1024);
+            crash(ledger, dir);
+        }
+
+        try(PersistentOrderLedger recovered = PersistentOrderLedger.open(dir)) {
+            assertEquals(20_000, recovered.shipmentCount());
+            assertEquals(5_007, recovered.orderCount());
+            double[] total = {0.0};
+            recovered.forEachOrder((orderId, cost) -> total[0] += cost);
+            assertEquals(30_000.0, total[0], 0.0);
+            assertEquals(4.0, recovered.cost(4_999, 0.0), 0.0);
+        }
+    }
+
+    @Test
+    void testRejectsReservedIds(@TempDir Path dir) throws IOException {
+        try(PersistentOrderLedger ledger = PersistentOrderLedger.open(dir)) {
+            assertThrows(IllegalArgumentException.class, () -> ledger.apply(result(Long.MIN_VALUE, 1, 1.0)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> ledger.apply(new CostAllocationResult(1, Map.of(Long.MIN_VALUE, 1.0))));
+            assertEquals(0, ledger.shipmentCount());
+        }
+    }
+
+    @Test
+    void testRejectsForeignFiles(@TempDir Path dir) throws IOException {
+        Files.write(dir.resolve(PersistentOrderLedger.CHECKPOINT_FILE), new byte[128]);
+        assertThrows(IllegalArgumentException.class, () -> PersistentOrderLedger.open(dir));
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreparedAllocationTest {
+
+    private static final List<ShipmentStop> STOPS = List.of(
+            new ShipmentStop(1, "The White House", 0),
+            new ShipmentStop(2, "Bob's House", 425),
+            new ShipmentStop(3, "World of Coca-Cola", 123)
+    );
+
+    private static Shipment shipment(List<ShipmentLineItem> lineItems) {
+        return new Shipment(1, STOPS, lineItems);
+    }
+
+    private static List<ShipmentLineItem> readmeLineItems() {
+        return List.of(
+                new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+        );
+    }
+
+    private static void assertSameCosts(CostAllocationResult expected, CostAllocationResult actual) {
+        assertEquals(expected.shipmentId(), actual.shipmentId());
+        assertEquals(expected.costsByOrderId().keySet(), actual.costsByOrderId().keySet());
+        expected.costsByOrderId().forEach((orderId, cost) ->
+                assertEquals(cost, actual.costsByOrderId().get(orderId), 1e-9));
+    }
+
+    @Test
+    void testRescaleMatchesFreshAllocation() {
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            Shipment shipment = shipment(readmeLineItems());
+            PreparedAllocation prepared = PreparedAllocation.prepare(strategy.costAllocator(), shipment);
+            for(double amount : new double[] {1234.34, 0, 99.99, 1_000_000}) {
+                assertSameCosts(strategy.costAllocator().allocateCosts(shipment, amount), prepared.allocateCosts(amount));
+            }
+        }
+    }
+
+    @Test
+    void testAddAndRemoveLineItems() {
+        ShipmentLineItem zebras = new ShipmentLineItem(3, "zebras", 2, 80, 1, 2);
+        ShipmentLineItem moreBears = new ShipmentLineItem(2, "more bears", 1, 40, 1, 3);
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            PreparedAllocation prepared = PreparedAllocation.prepare(strategy.costAllocator(), shipment(readmeLineItems()));
+            prepared.addLineItem(zebras);
+            prepared.addLineItem(moreBears);
+
+            List<ShipmentLineItem> lineItems = new ArrayList<>(readmeLineItems());
+            lineItems.add(zebras);
+            lineItems.add(moreBears);
+            assertEquals(5, prepared.lineItemCount());
+            assertSameCosts(strategy.costAllocator().allocateCosts(shipment(lineItems), 1234.34),
+                    prepared.allocateCosts(1234.34));
+
+            prepared.removeLineItem(zebras);
+            prepared.removeLineItem(lineItems.get(2));
+            lineItems.remove(zebras);
+            lineItems.remove(2);
+            assertSameCosts(strategy.costAllocator().allocateCosts(shipment(lineItems), 500),
+                    prepared.allocateCosts(500));
+        }
+    }
+
+    @Test
+    void testOrderDropsOutWhenAllItsLineItemsAreRemoved() {
+        List<ShipmentLineItem> lineItems = readmeLineItems();
+        PreparedAllocation prepared = PreparedAllocation.prepare(AllocationStrategy.WEIGHT.costAllocator(),
+                shipment(lineItems));
+        prepared.removeLineItem(lineItems.get(2));
+
+        CostAllocationResult result = prepared.allocateCosts(1234.34);
+        assertFalse(result.costsByOrderId().containsKey(2L));
+        assertEquals(1234.34, result.costsByOrderId().get(1L), 1e-9);
+
+        assertThrows(IllegalArgumentException.class, () -> prepared.removeLineItem(lineItems.get(2)));
+        prepared.removeLineItem(lineItems.get(0));
+        prepared.removeLineItem(lineItems.get(1));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> prepared.allocateCosts(1234.34));
+        assertEquals("Shipment has no line items", exception.getMessage());
+    }
+
+    @Test
+    void testOnlyLineItemsOnTheShipmentCanBeRemoved() {
+        ShipmentLineItem tigers = readmeLineItems().get(0);
+        ShipmentLineItem lighterTigers = new ShipmentLineItem(1, "tigers", 10, 50, 1, 3);
+        ShipmentLineItem shorterTigers = new ShipmentLineItem(1, "tigers", 10, 100, 1, 2);
+        for(AllocationStrategy strategy : AllocationStrategy.values()) {
+            PreparedAllocation prepared = PreparedAllocation.prepare(strategy.costAllocator(), shipment(readmeLineItems()));
+            for(ShipmentLineItem lineItem : List.of(lighterTigers, shorterTigers)) {
+                IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                        () -> prepared.removeLineItem(lineItem));
+                assertEquals("Line item tigers for order 1 is not on shipment 1", exception.getMessage());
+            }
+            assertEquals(3, prepared.lineItemCount());
+
+            // A duplicate can be removed once for each time it is on the shipment.
+            prepared.addLineItem(tigers);
+            prepared.removeLineItem(tigers);
+            prepared.removeLineItem(tigers);
+            assertThrows(IllegalArgumentException.class, () -> prepared.removeLineItem(tigers));
+            assertSameCosts(strategy.costAllocator().allocateCosts(shipment(readmeLineItems().subList(1, 3)), 1234.34),
+                    prepared.allocateCosts(1234.34));
+        }
+    }
+
+    @Test
+    void testInvalidLineItemsAreRejected() {
+        PreparedAllocation byWeight = PreparedAllocation.prepare(AllocationStrategy.WEIGHT.costAllocator(),
+                shipment(readmeLineItems()));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> byWeight.addLineItem(new ShipmentLineItem(3, "ghosts", 1, 0, 1, 2)));
+        assertEquals("Invalid weight in shipment", exception.getMessage());
+
+        PreparedAllocation byMileage = PreparedAllocation.prepare(AllocationStrategy.MILEAGE.costAllocator(),
+                shipment(readmeLineItems()));
+        exception = assertThrows(IllegalArgumentException.class,
+                () -> byMileage.addLineItem(new ShipmentLineItem(3, "salmon", 1, 10, 3, 2)));
+        assertEquals("Invalid pickup/dropoff sequence in line item: salmon", exception.getMessage());
+        assertEquals(3, byMileage.lineItemCount());
+    }
+
+    @Test
+    void testPrepareValidatesShipment() {
+        assertThrows(IllegalArgumentException.class, () -> PreparedAllocation.prepare(
+                AllocationStrategy.MILEAGE.costAllocator(), new Shipment(1, STOPS.subList(0, 1), readmeLineItems())));
+        assertThrows(IllegalArgumentException.class, () -> PreparedAllocation.prepare(
+                AllocationStrategy.WEIGHT.costAllocator(), shipment(List.of())));
+    }
+}
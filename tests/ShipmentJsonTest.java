@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShipmentJsonTest {
+
+    static final String README_SHIPMENT = """
+            {
+              "shipmentId": 1,
+              "totalInvoicedAmount": 1234.34,
+              "shipmentStops": [
+                {"sequenceNumber": 1, "address": "The White House", "milesFromPreviousStop": 0},
+                {"sequenceNumber": 2, "address": "Bob's House", "milesFromPreviousStop": 425},
+                {"sequenceNumber": 3, "address": "World of Coca-Cola", "milesFromPreviousStop": 123}
+              ],
+              "shipmentLineItems": [
+                {"orderId": 1, "itemDescription": "tigers", "qty": 10, "weight": 100, "pickupStopSequence": 1, "dropOffStopSequence": 3},
+                {"orderId": 1, "itemDescription": "lions", "qty": 10, "weight": 125, "pickupStopSequence": 1, "dropOffStopSequence": 2},
+                {"orderId": 2, "itemDescription": "bears", "qty": 5, "weight": 150, "pickupStopSequence": 2, "dropOffStopSequence": 3}
+              ]
+            }
+            """;
+
+    @Test
+    void testReadmeShipment() {
+        ShipmentInvoice shipmentInvoice = ShipmentJson.parseShipmentInvoice(README_SHIPMENT);
+
+        Shipment expected = new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+        assertEquals(expected, shipmentInvoice.shipment());
+        assertEquals(1234.34, shipmentInvoice.totalInvoicedAmount(), 0.0);
+    }
+
+    @Test
+    void testEscapesAndUnknownFields() {
+        Shipment shipment = ShipmentJson.parseShipment("""
+                {"shipmentId": 7, "carrier": {"name": "ACME", "tags": [1, true, null]},
+                 "shipmentStops": [{"sequenceNumber": 1, "address": "Bob\\u0027s \\"House\\"", "milesFromPreviousStop": 0}],
+                 "shipmentLineItems": [{"orderId": 3, "itemDescription": null, "weight": 1.5e1,
+                                        "pickupStopSequenceNumber": 1, "dropOffStopSequenceNumber": 2}]}
+                """);
+
+        assertEquals("Bob's \"House\"", shipment.shipmentStops().get(0).address());
+        assertNull(shipment.shipmentLineItems().get(0).itemDescription());
+        assertEquals(15.0, shipment.shipmentLineItems().get(0).weight(), 0.0);
+        assertEquals(2, shipment.shipmentLineItems().get(0).dropOffStopSequenceNumber());
+    }
+
+    @Test
+    void testMalformedJson() {
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipmentInvoice("{\"shipmentId\" 1}"));
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipmentInvoice("{\"shipmentId\": 1"));
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipmentInvoice("[]"));
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipmentInvoice(README_SHIPMENT + "{}"));
+        // Missing totalInvoicedAmount.
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipmentInvoice(
+                "{\"shipmentId\": 1, \"shipmentStops\": [], \"shipmentLineItems\": []}"));
+        // Unknown fields nested past the depth limit.
+        String nested = "{\"shipmentId\": 1, \"extra\": " + "[{\"a\":".repeat(100_000) + "1" + "}]".repeat(100_000) + "}";
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipment(nested));
+    }
+
+    @Test
+    void testIdsAreParsedExactly() {
+        Shipment shipment = ShipmentJson.parseShipment("""
+                {"shipmentId": 9007199254740993, "shipmentStops": [],
+                 "shipmentLineItems": [{"orderId": 9223372036854775807}, {"orderId": -9007199254740995}]}""");
+
+        assertEquals(9007199254740993L, shipment.shipmentId());
+        assertEquals(Long.MAX_VALUE, shipment.shipmentLineItems().get(0).orderId());
+        assertEquals(-9007199254740995L, shipment.shipmentLineItems().get(1).orderId());
+    }
+
+    @Test
+    void testFractionalAndOutOfRangeIdsAreRejected() {
+        for(String orderId : new String[] {"1.7", "1.0", "1e3", "9223372036854775808", "-", "\"1\""}) {
+            assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipment(
+                    "{\"shipmentId\": 1, \"shipmentStops\": [], \"shipmentLineItems\": [{\"orderId\": " + orderId + "}]}"),
+                    orderId);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ShipmentJson.parseShipment(
+                "{\"shipmentId\": 2.5, \"shipmentStops\": [], \"shipmentLineItems\": []}"));
+    }
+
+    @Test
+    void testWriteResult() throws IOException {
+        OrderCostMap costs = new OrderCostMap();
+        costs.add(1, 1.5);
+        costs.add(2, 0.25);
+
+        StringBuilder json = new StringBuilder();
+        ShipmentJson.writeResult(new CostAllocationResult(9, costs), json);
+        assertEquals("{\"shipmentId\":9,\"costsByOrderId\":{\"1\":1.5,\"2\":0.25}}", json.toString());
+
+        json.setLength(0);
+        ShipmentJson.writeError(9, "Bad \"stop\"\n", json);
+        assertEquals("{\"shipmentId\":9,\"error\":\"Bad \\\"stop\\\"\\n\"}", json.toString());
+
+        json.setLength(0);
+        ShipmentJson.writeResult(new CostAllocationResult(9, Map.of()), json);
+        assertEquals("{\"shipmentId\":9,\"costsByOrderId\":{}}", json.toString());
+    }
+}
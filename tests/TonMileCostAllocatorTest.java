@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TonMileCostAllocatorTest {
+
+    private static Shipment readmeShipment() {
+        return new Shipment(
+                1,
+                List.of(
+                        new ShipmentStop(1, "The White House", 0),
+                        new ShipmentStop(2, "Bob's House", 425),
+                        new ShipmentStop(3, "World of Coca-Cola", 123)
+                ),
+                List.of(
+                        new ShipmentLineItem(1, "tigers", 10, 100, 1, 3),
+                        new ShipmentLineItem(1, "lions", 10, 125, 1, 2),
+                        new ShipmentLineItem(2, "bears", 5, 150, 2, 3)
+                )
+        );
+    }
+
+    private static Shipment largeShipment(int lineItemCount, Random random) {
+        List<ShipmentStop> stops = new ArrayList<>();
+        for(int i = 1; i <= 50; i++) {
+            stops.add(new ShipmentStop(i, "stop " + i, i == 1 ? 0 : 1 + random.nextDouble() * 300));
+        }
+        List<ShipmentLineItem> lineItems = new ArrayList<>();
+        for(int i = 0; i < lineItemCount; i++) {
+            int pickup = 1 + random.nextInt(49);
+            int dropOff = pickup + 1 + random.nextInt(50 - pickup);
+            lineItems.add(new ShipmentLineItem(random.nextInt(100), "item " + i, 1, 0.1 + random.nextDouble() * 1000,
+                    pickup, dropOff));
+        }
+        return new Shipment(1, stops, lineItems);
+    }
+
+    @Test
+    void testReadmeShipment() {
+        CostAllocationResult result = new TonMileCostAllocator().allocateCosts(readmeShipment(), 1234.34);
+
+        // tigers 100 lb x 548 mi + lions 125 lb x 425 mi = 107925, bears 150 lb x 123 mi = 18450.
+        assertEquals(1054.13, result.costsByOrderId().get(1L), 0.01);
+        assertEquals(180.21, result.costsByOrderId().get(2L), 0.01);
+        assertSame(AllocationStrategy.TON_MILE, AllocationStrategy.fromName("ton-mile"));
+    }
+
+    @Test
+    void testValidation() {
+        TonMileCostAllocator costAllocator = new TonMileCostAllocator();
+        Shipment shipment = readmeShipment();
+
+        Shipment zeroWeight = new Shipment(1, shipment.shipmentStops(),
+                List.of(new ShipmentLineItem(1, "ghosts", 1, 0, 1, 2)));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> costAllocator.allocateCosts(zeroWeight, 100));
+        assertEquals("Invalid weight in shipment", exception.getMessage());
+
+        Shipment backwards = new Shipment(1, shipment.shipmentStops(),
+                List.of(new ShipmentLineItem(1, "salmon", 1, 10, 3, 2)));
+        exception = assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(backwards, 100));
+        assertEquals("Invalid pickup/dropoff sequence in line item: salmon", exception.getMessage());
+
+        Shipment oneStop = new Shipment(1, shipment.shipmentStops().subList(0, 1), shipment.shipmentLineItems());
+        exception = assertThrows(IllegalArgumentException.class, () -> costAllocator.allocateCosts(oneStop, 100));
+        assertEquals("Cannot calculate cost by mileage with only one stop", exception.getMessage());
+    }
+
+    @Test
+    void testScalarKernelMatchesDefinition() {
+        Shipment shipment = largeShipment(1_000, new Random(3));
+        CostAllocationResult result = new TonMileCostAllocator(TonMileCostAllocator.SCALAR_KERNEL)
+                .allocateCosts(shipment, 10_000);
+
+        double total = 0.0;
+        for(ShipmentLineItem lineItem : shipment.shipmentLineItems()) {
+            total += lineItem.weight() * MileageIndex.of(ShipmentView.of(shipment))
+                    .milesBetween(lineItem.pickupStopSequenceNumber(), lineItem.dropOffStopSequenceNumber());
+        }
+        assertEquals(10_000, result.costsByOrderId().values().stream().mapToDouble(Double::doubleValue).sum(), 1e-6);
+        assertEquals(total, new TonMileCostAllocator(TonMileCostAllocator.SCALAR_KERNEL)
+                .orderShares(ShipmentView.of(shipment), new OrderCostMap()), 0.0);
+    }
+
+    @Test
+    void testVectorKernelMatchesScalarWithinTolerance() {
+        assumeTrue(TonMileCostAllocator.VECTOR_KERNEL != null, "jdk.incubator.vector is not available");
+        TonMileCostAllocator scalar = new TonMileCostAllocator(TonMileCostAllocator.SCALAR_KERNEL);
+        TonMileCostAllocator vector = new TonMileCostAllocator(TonMileCostAllocator.VECTOR_KERNEL);
+        Random random = new Random(11);
+        for(int lineItemCount : new int[] {63, 64, 65, 1_000, 10_007, 100_000}) {
+            Shipment shipment = largeShipment(lineItemCount, random);
+            CostAllocationResult expected = scalar.allocateCosts(shipment, 1_000_000);
+            CostAllocationResult actual = vector.allocateCosts(shipment, 1_000_000);
+
+            double tolerance = 2.0 * lineItemCount * 0x1p-53;
+            assertEquals(expected.costsByOrderId().keySet(), actual.costsByOrderId().keySet());
+            expected.costsByOrderId().forEach((orderId, cost) -> assertEquals(cost,
+                    actual.costsByOrderId().get(orderId), Math.abs(cost) * tolerance, "order " + orderId));
+        }
+    }
+}